@@ -0,0 +1,115 @@
+package Benchmarks;
+
+import DAO.JdbcBookDAO;
+import DAO.JdbcUserDAO;
+import Model.Book;
+import Model.BookBatchResult;
+import Model.User;
+import Service.BookService;
+import Service.UserService;
+import Util.ConnectionPool;
+import Util.SchemaMigrator;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A private in-memory H2 database for one benchmark trial, migrated to the current schema.
+ * Seeded data is generated from a fixed seed, so every run measures exactly the same catalog;
+ * the real database in ./h2 is never touched.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+
+    public static final long SEED = 20231001L;
+
+    private static final String[] WORDS = {
+            "night", "river", "stone", "garden", "winter", "silent", "house", "glass", "iron", "shadow",
+            "summer", "letter", "empire", "storm", "orchard", "harbor", "lantern", "mirror", "tide", "crown"
+    };
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private final ConnectionPool pool;
+    private final String url;
+
+    /**
+     * @param name identifies the benchmark in the pool name and database url
+     */
+    public BenchmarkDatabase(String name) throws SQLException {
+        String database = "bench-" + name + "-" + DATABASES.incrementAndGet();
+        url = "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1";
+        pool = new ConnectionPool(database, url, "sa", "sa");
+        SchemaMigrator.LIBRARY.migrate(pool.getDataSource());
+    }
+
+    public DataSource getDataSource() {
+        return pool.getDataSource();
+    }
+
+    /**
+     * Inserts count generated books through the batch path, so they get allocated ids just as in production.
+     * @param count number of books
+     * @return the saved books, in insertion order
+     */
+    public List<Book> seedBooks(int count) {
+        Random random = new Random(SEED);
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String author = word(random) + " " + word(random);
+            String title = "the " + word(random) + " " + word(random) + " " + i;
+            books.add(new Book(author, title));
+        }
+
+        BookService bookService = new BookService(new JdbcBookDAO(getDataSource()));
+        List<Book> saved = new ArrayList<>(count);
+        for (BookBatchResult result : bookService.addBooks(books, 1000)) {
+            if (!BookBatchResult.CREATED.equals(result.getStatus())) {
+                throw new IllegalStateException("Could not seed book " + result);
+            }
+            saved.add(result.getBook());
+        }
+        return saved;
+    }
+
+    /**
+     * Creates count users named reader-0, reader-1, ...
+     * @param count number of users
+     * @return the saved users, in creation order
+     */
+    public List<User> seedUsers(int count) {
+        UserService userService = new UserService(new JdbcUserDAO(getDataSource()), new JdbcBookDAO(getDataSource()));
+        List<User> saved = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User user = userService.createUser(new User("reader-" + i));
+            if (user == null) {
+                throw new IllegalStateException("Could not seed user reader-" + i);
+            }
+            saved.add(user);
+        }
+        return saved;
+    }
+
+    /**
+     * Closes the pool, then drops the in-memory database.
+     */
+    @Override
+    public void close() {
+        pool.close();
+        try (Connection conn = DriverManager.getConnection(url, "sa", "sa");
+             Statement st = conn.createStatement()) {
+            st.execute("shutdown");
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
@@ -0,0 +1,73 @@
+package Benchmarks;
+
+import DAO.BookDAO;
+import DAO.JdbcBookDAO;
+import Model.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads through BookDAO with no cache in front of it, at several catalog sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookDAOBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int catalogSize;
+
+    BenchmarkDatabase database;
+    BookDAO bookDAO;
+    int[] bookIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase("bookdao");
+        bookDAO = new JdbcBookDAO(database.getDataSource());
+        List<Book> books = database.seedBooks(catalogSize);
+        bookIds = books.stream().mapToInt(Book::getBookId).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /**
+     * Each thread looks up books in its own fixed pseudo-random order.
+     */
+    @State(Scope.Thread)
+    public static class Lookups {
+        Random random = new Random(BenchmarkDatabase.SEED);
+    }
+
+    @Benchmark
+    public Book queryBooksById(Lookups lookups) {
+        return bookDAO.queryBooksById(bookIds[lookups.random.nextInt(bookIds.length)]);
+    }
+
+    @Benchmark
+    public List<Book> queryAllBooks() {
+        return bookDAO.queryAllBooks();
+    }
+}
@@ -0,0 +1,91 @@
+package Benchmarks;
+
+import DAO.JdbcBookDAO;
+import Exceptions.BookNotFoundException;
+import Exceptions.BookSignedOutException;
+import Model.Book;
+import Model.User;
+import Service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks books out and back in from several threads at once, each acting as a different user.
+ * Threads contend for the same 1000 books, so some attempts find the book held by another user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class BookServiceBenchmark {
+
+    static final int CATALOG_SIZE = 1000;
+    static final int USERS = 8;
+
+    BenchmarkDatabase database;
+    BookService bookService;
+    int[] bookIds;
+    int[] userIds;
+    AtomicInteger nextUser = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase("bookservice");
+        bookService = new BookService(new JdbcBookDAO(database.getDataSource()));
+        bookIds = database.seedBooks(CATALOG_SIZE).stream().mapToInt(Book::getBookId).toArray();
+        List<User> users = database.seedUsers(USERS);
+        userIds = users.stream().mapToInt(User::getUserId).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    /**
+     * The user a benchmark thread acts as, and its fixed pseudo-random order of books.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        int userId;
+        Random random;
+
+        @Setup(Level.Trial)
+        public void setUp(BookServiceBenchmark benchmark) {
+            int user = benchmark.nextUser.getAndIncrement();
+            userId = benchmark.userIds[user % benchmark.userIds.length];
+            random = new Random(BenchmarkDatabase.SEED + user);
+        }
+    }
+
+    @Benchmark
+    public void updateBookSignedOutBy(Reader reader, Blackhole blackhole) throws BookNotFoundException {
+        int bookId = bookIds[reader.random.nextInt(bookIds.length)];
+        try {
+            blackhole.consume(bookService.updateBookSignedOutBy(bookId, reader.userId));
+        } catch (BookSignedOutException e) {
+            blackhole.consume(e);
+        }
+    }
+}
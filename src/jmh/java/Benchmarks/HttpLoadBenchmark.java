@@ -0,0 +1,111 @@
+package Benchmarks;
+
+import Controller.Controller;
+import DAO.BookDAO;
+import DAO.JdbcBookDAO;
+import DAO.JdbcUserDAO;
+import Model.Book;
+import Service.BookService;
+import Service.UserService;
+import io.javalin.Javalin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the whole service over HTTP with 1000 concurrent clients, each looking up books by id in a closed loop,
+ * once with Jetty's platform thread pool and once with a virtual thread per request.
+ * The book cache is off so every request reaches the database.
+ * The 'virtual' run needs JDK 21 or later; on older JDKs the service logs a warning and falls back to platform
+ * threads, so both runs measure the same thing. Clients and server share the machine, so compare runs made on
+ * the same host only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xss256k"})
+@Threads(HttpLoadBenchmark.CLIENTS)
+public class HttpLoadBenchmark {
+
+    static final int CLIENTS = 1000;
+    static final int CATALOG_SIZE = 10000;
+
+    @Param({"platform", "virtual"})
+    String threads;
+
+    BenchmarkDatabase database;
+    Javalin app;
+    HttpClient client;
+    URI[] bookUris;
+    AtomicInteger nextClient = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        System.setProperty("library.http.virtualThreads", String.valueOf(threads.equals("virtual")));
+        database = new BenchmarkDatabase("http-" + threads);
+        BookDAO bookDAO = new JdbcBookDAO(database.getDataSource());
+        UserService userService = new UserService(new JdbcUserDAO(database.getDataSource()), bookDAO);
+        BookService bookService = new BookService(bookDAO);
+        int[] bookIds = database.seedBooks(CATALOG_SIZE).stream().mapToInt(Book::getBookId).toArray();
+
+        app = new Controller(bookService, userService).getAPI().start(0);
+        bookUris = new URI[bookIds.length];
+        for (int i = 0; i < bookIds.length; i++) {
+            bookUris[i] = URI.create("http://localhost:" + app.port() + "/books/" + bookIds[i]);
+        }
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+        database.close();
+        System.clearProperty("library.http.virtualThreads");
+    }
+
+    /**
+     * One simulated client with its own fixed pseudo-random order of books.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        Random random;
+
+        @Setup(Level.Trial)
+        public void setUp(HttpLoadBenchmark benchmark) {
+            random = new Random(BenchmarkDatabase.SEED + benchmark.nextClient.getAndIncrement());
+        }
+    }
+
+    @Benchmark
+    public int getBookById(Client caller) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(bookUris[caller.random.nextInt(bookUris.length)]).GET().build();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected status " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
@@ -0,0 +1,82 @@
+package Benchmarks;
+
+import Controller.JsonCodec;
+import Model.Book;
+import Model.User;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes lists of books and users for the list endpoints: through ObjectMapper databind as the controller did,
+ * building the whole response in memory, and through the controller's JsonCodec, streaming to the response.
+ * Run with -prof gc to compare the bytes allocated per operation (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"10", "1000"})
+    int listSize;
+
+    ObjectMapper om = new ObjectMapper();
+    JsonCodec codec = new JsonCodec();
+    // stands in for the response stream, whose buffers Jetty pools
+    OutputStream response = OutputStream.nullOutputStream();
+    List<Book> books;
+    List<User> users;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(BenchmarkDatabase.SEED);
+        books = new ArrayList<>(listSize);
+        users = new ArrayList<>(listSize);
+        for (int i = 0; i < listSize; i++) {
+            int signedOutBy = random.nextInt(4) == 0 ? 1000 + random.nextInt(listSize) : 0;
+            books.add(new Book(1000 + i, "author " + random.nextInt(500), "title " + i, signedOutBy));
+            users.add(new User(1000 + i, "reader-" + i));
+        }
+    }
+
+    @Benchmark
+    public byte[] writeBooks() throws JsonProcessingException {
+        return om.writeValueAsBytes(books);
+    }
+
+    @Benchmark
+    public byte[] writeUsers() throws JsonProcessingException {
+        return om.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    public void writeBooksCodec() throws IOException {
+        codec.write(response, books, codec::writeBooks);
+    }
+
+    @Benchmark
+    public void writeUsersCodec() throws IOException {
+        codec.write(response, users, codec::writeUsers);
+    }
+}
@@ -0,0 +1,67 @@
+package Benchmarks;
+
+import Controller.JsonCodec;
+import Model.Book;
+import Model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JSON work of one create request, reading the body and writing the created resource back:
+ * the way the controller did it, with a new ObjectMapper per book and databind into a String,
+ * and through the controller's shared JsonCodec.
+ * Run with -prof gc to compare the bytes allocated per request (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonRequestBenchmark {
+
+    static final String BOOK_BODY = "{\"author\":\"stephen king\",\"title\":\"joyland\"}";
+    static final String USER_BODY = "{\"username\":\"reader-42\"}";
+
+    ObjectMapper om = new ObjectMapper();
+    JsonCodec codec = new JsonCodec();
+    // stands in for the response stream, whose buffers Jetty pools
+    OutputStream response = OutputStream.nullOutputStream();
+
+    @Benchmark
+    public void createBookDatabind() throws IOException {
+        Book book = new ObjectMapper().readValue(BOOK_BODY, Book.class);
+        response.write(om.writeValueAsString(book).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void createBookCodec() throws IOException {
+        Book book = codec.readBook(BOOK_BODY);
+        codec.write(response, book, codec::writeBook);
+    }
+
+    @Benchmark
+    public void createUserDatabind() throws IOException {
+        User user = om.readValue(USER_BODY, User.class);
+        response.write(om.writeValueAsString(user).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public void createUserCodec() throws IOException {
+        User user = codec.readUser(USER_BODY);
+        codec.write(response, user, codec::writeUser);
+    }
+}
@@ -0,0 +1,58 @@
+package Benchmarks;
+
+import DAO.JdbcBookDAO;
+import DAO.JdbcUserDAO;
+import Model.User;
+import Service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates users with new usernames, which checks the username is free and allocates an id.
+ * The table starts with 10000 users so the username lookup runs against a realistic index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    static final int EXISTING_USERS = 10000;
+
+    BenchmarkDatabase database;
+    UserService userService;
+    AtomicLong nextUsername = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = new BenchmarkDatabase("userservice");
+        database.seedUsers(EXISTING_USERS);
+        userService = new UserService(new JdbcUserDAO(database.getDataSource()), new JdbcBookDAO(database.getDataSource()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public User createUser() {
+        return userService.createUser(new User("member-" + nextUsername.getAndIncrement()));
+    }
+}
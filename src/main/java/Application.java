@@ -1,20 +1,197 @@
+import Cache.BookCache;
+import Cache.CatalogResponseCache;
+import Cache.CatalogVersions;
+import Controller.ConcurrencyLimiter;
 import Controller.Controller;
+import DAO.InMemoryBookDAO;
+import DAO.InMemoryStore;
+import DAO.InMemoryUserDAO;
 import DAO.UserDAO;
+import DAO.JdbcUserDAO;
 import DAO.BookDAO;
+import DAO.JdbcBookDAO;
+import DAO.ReplicaRefresher;
+import DAO.StatementCache;
+import Metrics.DaoMetrics;
+import Metrics.MetricsRegistry;
+import Metrics.ResourceMetrics;
+import Metrics.StartupPhases;
+import Model.Book;
+import Model.BookField;
 import Service.UserService;
+import Service.BookSearchIndex;
 import Service.BookService;
+import Service.LoanCounter;
+import Util.Config;
+import Util.ConnectionPool;
+import Util.DatabaseExecutor;
 import Util.ConnectionSingleton;
+import Util.ReadRouting;
+import io.javalin.util.JavalinLogger;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Application {
     public static void main(String[] args) {
-        Connection conn = ConnectionSingleton.getConnection();
-        UserDAO userDAO = new UserDAO(conn);
-        BookDAO bookDAO = new BookDAO(conn);
-        UserService userService = new UserService(userDAO, bookDAO);
-        BookService bookService = new BookService(bookDAO);
-        Controller controller = new Controller(bookService, userService);
-        controller.getAPI().start();
+        StartupPhases phases = new StartupPhases(MetricsRegistry.getInstance());
+        phases.sinceJvmStart("jvm");
+        CatalogVersions catalogVersions = new CatalogVersions();
+        BookCache bookCache = BookCache.fromConfig();
+        ReplicaRefresher replica = null;
+        ConnectionPool pool = null;
+        UserDAO userDAO;
+        BookDAO bookDAO;
+        int shards = Config.getInt("db.shards", 1);
+        if (Config.getString("db.engine", "jdbc").equals("memory")) {
+            if (Config.getBoolean("db.replica.enabled", false) || shards > 1) {
+                throw new IllegalStateException("db.replica.enabled and db.shards only apply to the jdbc engine");
+            }
+            InMemoryStore store;
+            try {
+                store = InMemoryStore.open(Paths.get(Config.getString("db.memory.dir", "./h2/memory")),
+                        Config.getInt("db.memory.snapshotEvery", 10_000), Config.getBoolean("db.memory.syncWrites", false));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open the in-memory store", e);
+            }
+            MetricsRegistry.getInstance().gauge("library_wal_records",
+                    "Changes written to the in-memory store's log since its last snapshot.", store::getLoggedRecords);
+            userDAO = new InMemoryUserDAO(store);
+            bookDAO = new InMemoryBookDAO(store);
+        } else {
+            pool = phases.time("schema", ConnectionSingleton::getPool);
+            DataSource dataSource = pool.getDataSource();
+            DataSource replicaDataSource = dataSource;
+            if (Config.getBoolean("db.replica.enabled", false)) {
+                replicaDataSource = ConnectionSingleton.getReplicaPool().getDataSource();
+                replica = new ReplicaRefresher(dataSource, replicaDataSource, catalogVersions::getCatalogVersion,
+                        Config.getInt("db.replica.maxChangedRows", 10_000));
+                if (!replica.refresh()) {
+                    throw new IllegalStateException("Could not copy the database to the read replica");
+                }
+                catalogVersions.setReplicaVersion(replica::getRefreshedVersion);
+            }
+            userDAO = new JdbcUserDAO(dataSource, replicaDataSource);
+            if (shards > 1) {
+                if (replica != null) {
+                    throw new IllegalStateException("The read replica only copies the library database, so db.replica.enabled cannot be used with db.shards");
+                }
+                bookDAO = new JdbcBookDAO(ConnectionSingleton.getShardDataSources(shards), bookCache);
+            } else {
+                bookDAO = new JdbcBookDAO(dataSource, replicaDataSource, bookCache);
+            }
+        }
+        if (replica != null) {
+            bookDAO.addWriteListener(replica);
+            userDAO.addWriteListener(replica);
+            replica.start(Config.getLong("db.replica.refreshMs", 1000));
+        }
+        ResourceMetrics.register(pool, DatabaseExecutor.getInstance(),
+                StatementCache.getInstance(), bookCache);
+        // the loan limit and the search index answer from memory alone, so they are built before serving
+        LoanCounter loanCounter = new LoanCounter();
+        phases.time("loans", () -> loanCounter.rebuild(bookDAO.countLoansByUser()));
+        UserService userService = new UserService(userDAO, bookDAO, loanCounter);
+        BookSearchIndex searchIndex = new BookSearchIndex();
+        phases.time("search-index", () -> searchIndex.rebuild(bookDAO.queryAllBooks()));
+        BookService bookService = new BookService(bookDAO, userDAO, searchIndex, loanCounter);
+        bookDAO.addWriteListener(bookService);
+        // told through the service, so listings stop sharing older reads before the new ETag can be seen
+        bookService.addWriteListener(catalogVersions);
+        CatalogResponseCache responseCache = null;
+        if (Config.getBoolean("cache.catalog.enabled", true)) {
+            // stamped with the primary's version, so read from the primary
+            responseCache = new CatalogResponseCache(catalogVersions,
+                    (title, author) -> ReadRouting.onPrimary(() -> bookService.getBooks(title, author)),
+                    Config.getInt("cache.catalog.maxFilters", 16), Config.getLong("cache.catalog.rebuildDelayMs", 100));
+            bookService.addWriteListener(responseCache);
+        }
+        Controller controller = new Controller(bookService, userService, catalogVersions, responseCache);
+        if (replica != null) {
+            controller.setReadYourWritesMs(Config.getLong("db.replica.readYourWritesMs", 5000));
+        }
+        if (Config.getBoolean("http.limit.enabled", true)) {
+            int poolSize = Config.getInt("db.pool.maxSize", 10);
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(Config.getInt("http.limit.initial", poolSize * 4),
+                    Config.getInt("http.limit.min", poolSize), Config.getInt("http.limit.max", poolSize * 50),
+                    Config.getDouble("http.limit.priorityShare", 0.2), Config.getDouble("http.limit.tolerance", 2.0),
+                    Config.getDouble("http.limit.backoff", 0.9), Config.getLong("http.limit.windowMs", 100),
+                    Config.getInt("http.limit.minWindowCalls", 20), DaoMetrics::totalCalls, DaoMetrics::totalNanos);
+            controller.setConcurrencyLimiter(limiter, Config.getLong("http.limit.retryAfterSeconds", 1));
+            MetricsRegistry.getInstance().gauge("library_http_concurrency_limit",
+                    "Requests admission control currently lets in at once.", limiter::getLimit);
+            MetricsRegistry.getInstance().gauge("library_http_in_flight",
+                    "Requests let in by admission control and not yet done.", limiter::getInFlight);
+        }
+        controller.setReady(false);
+        int port = Config.getInt("http.port", 8080);
+        phases.time("http", () -> controller.getAPI().start(port));
+        phases.sinceJvmStart("serving");
+
+        CatalogResponseCache catalogCache = responseCache;
+        Thread warmUp = new Thread(() -> {
+            warmUp(phases, bookDAO, catalogCache, port, controller.getWarmUpToken());
+            controller.setReady(true);
+            phases.sinceJvmStart("ready");
+        }, "library-warmup");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
+    /**
+     * Warms the service up while it already serves: fills the book cache with the first books, builds the
+     * ready-made catalog listings, which are read live until then, and sends a burst of requests to the hot
+     * read-only routes so the JIT compiles their code before real traffic depends on it. Those requests carry the
+     * warm-up token, so admission control and the request metrics leave them out.
+     * Requests arriving meanwhile are answered correctly, only more slowly; GET /ready tells when it is done.
+     */
+    private static void warmUp(StartupPhases phases, BookDAO bookDAO, CatalogResponseCache responseCache, int port,
+                               String warmUpToken) {
+        List<Book> books = phases.time("warmup-book-cache", () -> {
+            List<Book> first = bookDAO.queryBooksPage(null, null, Integer.MIN_VALUE, Config.getInt("warmup.books", 1000), BookField.ALL);
+            for (Book book : first) {
+                // looked up rather than put: the cache loads the book from the primary, and drops the load if a
+                // checkout or return of it commits meanwhile, where a put of the listed copy would keep the old holder
+                bookDAO.queryBooksById(book.getBookId());
+            }
+            return first;
+        });
+        if (responseCache != null) {
+            phases.time("warmup-catalog", responseCache::rebuild);
+        }
+        List<String> paths = new ArrayList<>(List.of("/books?limit=20", "/users?limit=20"));
+        for (Book book : books.subList(0, Math.min(books.size(), 20))) {
+            paths.add("/books/" + book.getBookId());
+        }
+        if (!books.isEmpty() && books.get(0).getTitle() != null) {
+            paths.add("/books?q=" + URLEncoder.encode(books.get(0).getTitle().split("\\s+")[0], StandardCharsets.UTF_8));
+        }
+        int requests = Config.getInt("warmup.requests", 200);
+        phases.time("warmup-requests", () -> {
+            HttpClient client = HttpClient.newHttpClient();
+            for (int i = 0; i < requests; i++) {
+                HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + port + paths.get(i % paths.size())))
+                        .header(Controller.WARM_UP_HEADER, warmUpToken).GET().build();
+                try {
+                    client.send(request, HttpResponse.BodyHandlers.discarding());
+                } catch (IOException e) {
+                    JavalinLogger.warn("Warm-up request failed, skipping the rest: " + e.getMessage());
+                    return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+package Cache;
+
+import Model.Book;
+import Util.Config;
+
+import java.util.function.IntFunction;
+
+/**
+ * An in-process cache of books by id, sitting in front of the database lookups in BookDAO.
+ * Implementations must hand out copies, so callers can never change a cached book by accident.
+ */
+public interface BookCache {
+
+    /**
+     * Returns the cached book, or loads it with the loader and caches it if it is not cached yet.
+     * Books the loader cannot find (null) are not cached.
+     * @param bookId
+     * @param loader reads the book from the database
+     * @return book or null
+     */
+    Book get(int bookId, IntFunction<Book> loader);
+
+    /**
+     * Caches the book as it now is in the database, replacing any older copy.
+     * @param book
+     */
+    void put(Book book);
+
+    /**
+     * Drops the book from the cache so the next lookup reads it from the database.
+     * @param bookId
+     */
+    void invalidate(int bookId);
+
+    /**
+     * @return hit, miss and eviction counts since the cache was created
+     */
+    CacheStats getStats();
+
+    /**
+     * Builds the cache configured for this deployment from the "cache.books." settings:
+     * enabled (default true), maxSize (default 10000) and ttlSeconds (default 0, meaning no expiry).
+     * @return the configured cache, or one that caches nothing when disabled
+     */
+    static BookCache fromConfig() {
+        if (!Config.getBoolean("cache.books.enabled", true)) {
+            return new NoOpBookCache();
+        }
+        return new LocalBookCache(Config.getLong("cache.books.maxSize", 10_000), Config.getLong("cache.books.ttlSeconds", 0));
+    }
+}
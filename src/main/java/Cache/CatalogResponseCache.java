@@ -0,0 +1,303 @@
+package Cache;
+
+import DAO.BookWriteListener;
+import Metrics.MetricsRegistry;
+import Model.Book;
+import Controller.JsonCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Ready-to-send JSON for the unfiltered book listing and the most requested title and author filters,
+ * kept both as is and gzip compressed, so answering those requests costs no query, serialization or compression.
+ * Each response is stamped with the catalog version it was built at and only served while that is still the
+ * current version. After a write it is left to the live path until the background rebuild, which waits
+ * rebuildDelayMs so a burst of writes costs one rebuild, catches up. Rebuilds run one at a time, and never replace
+ * a listing with one read at an older version. The JSON is written by the same JsonCodec as the live path.
+ * Requests are counted per filter; every rebuild keeps the maxFilters most requested and halves the counts,
+ * so filters that stop being asked for make room for new ones.
+ */
+public class CatalogResponseCache implements BookWriteListener {
+
+    /**
+     * Filters counted at most, so a stream of one-off filters cannot grow the counts without bound.
+     */
+    private static final int MAX_TRACKED_FILTERS = 10_000;
+    /**
+     * Requests a filter needs before a miss on it brings a rebuild forward, so one-off filters never do.
+     */
+    private static final long MIN_REQUESTS = 2;
+    private static final List<String> UNFILTERED = Arrays.asList(null, null);
+
+    private static final LongAdder HITS = MetricsRegistry.getInstance().counter("library_catalog_cache_requests_total",
+            "Book listings looked up in the pre-serialized response cache, by result.", "result", "hit");
+    private static final LongAdder MISSES = MetricsRegistry.getInstance().counter("library_catalog_cache_requests_total",
+            "Book listings looked up in the pre-serialized response cache, by result.", "result", "miss");
+
+    private final CatalogVersions catalogVersions;
+    private final BiFunction<String, String, List<Book>> loader;
+    private final int maxFilters;
+    private final long rebuildDelayMs;
+    private final ScheduledExecutorService scheduler;
+    private final JsonCodec codec = JsonCodec.getInstance();
+    private final Map<List<String>, Response> responses = new ConcurrentHashMap<>();
+    private final Map<List<String>, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    /**
+     * one rebuild at a time, as both the scheduler and the warm-up run them; a lock rather than synchronized,
+     * because rebuilding reads the database
+     */
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    /**
+     * @param catalogVersions versions kept up to date ahead of this cache by the same BookService
+     * @param loader reads the books matching a title and an author, either of which may be null
+     * @param maxFilters how many filtered listings are kept besides the unfiltered one
+     * @param rebuildDelayMs how long a rebuild waits after the write that triggered it
+     */
+    public CatalogResponseCache(CatalogVersions catalogVersions, BiFunction<String, String, List<Book>> loader,
+                                int maxFilters, long rebuildDelayMs) {
+        this(catalogVersions, loader, maxFilters, rebuildDelayMs, Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "library-catalog-cache");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param catalogVersions versions kept up to date ahead of this cache by the same BookService
+     * @param loader reads the books matching a title and an author, either of which may be null
+     * @param maxFilters how many filtered listings are kept besides the unfiltered one
+     * @param rebuildDelayMs how long a rebuild waits after the write that triggered it
+     * @param scheduler runs the rebuilds
+     */
+    public CatalogResponseCache(CatalogVersions catalogVersions, BiFunction<String, String, List<Book>> loader,
+                                int maxFilters, long rebuildDelayMs, ScheduledExecutorService scheduler) {
+        this.catalogVersions = catalogVersions;
+        this.loader = loader;
+        this.maxFilters = maxFilters;
+        this.rebuildDelayMs = rebuildDelayMs;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void bookWritten(int bookId) {
+        scheduleRebuild();
+    }
+
+    /**
+     * Looks up the listing for the filters and counts the request towards keeping it cached.
+     * A filter asked for often enough to be worth caching, but not cached yet, brings a rebuild forward.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @return the listing as of the current catalog version, or null if it has to be read from the database
+     */
+    public Response get(String title, String author) {
+        List<String> key = Arrays.asList(title, author);
+        LongAdder count = requestCounts.get(key);
+        if (count == null && requestCounts.size() < MAX_TRACKED_FILTERS) {
+            count = requestCounts.computeIfAbsent(key, k -> new LongAdder());
+        }
+        if (count != null) {
+            count.increment();
+        }
+
+        Response response = responses.get(key);
+        if (response != null && response.version == catalogVersions.getCatalogVersion()) {
+            HITS.increment();
+            return response;
+        }
+        MISSES.increment();
+        if (response == null && count != null && worthCaching(key, count.sum())) {
+            scheduleRebuild();
+        }
+        return null;
+    }
+
+    /**
+     * @return whether a filter asked for this many times would be among those kept by the next rebuild
+     */
+    private boolean worthCaching(List<String> key, long requests) {
+        if (key.equals(UNFILTERED)) {
+            return true;
+        }
+        if (requests < MIN_REQUESTS) {
+            return false;
+        }
+        if (responses.size() <= maxFilters) {
+            return true;
+        }
+        for (Map.Entry<List<String>, Response> cached : responses.entrySet()) {
+            // a count halved away is a count of 0
+            LongAdder cachedCount = requestCounts.get(cached.getKey());
+            if (!cached.getKey().equals(UNFILTERED) && (cachedCount == null ? 0 : cachedCount.sum()) < requests) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleRebuild() {
+        if (rebuildScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::rebuild, rebuildDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads, serializes and compresses those of the unfiltered listing and the most requested filtered ones that are
+     * missing or older than the current catalog version, dropping the filters no longer among them.
+     * Normally run in the background after writes.
+     */
+    public void rebuild() {
+        // writes from now on need another rebuild
+        rebuildScheduled.set(false);
+        rebuildLock.lock();
+        try {
+            // taken before reading, so a write landing meanwhile leaves these responses stale rather than mislabelled
+            long version = catalogVersions.getCatalogVersion();
+            List<List<String>> keep = mostRequested();
+            for (List<String> key : keep) {
+                Response cached = responses.get(key);
+                if (cached != null && cached.version >= version) {
+                    continue;
+                }
+                Response built = build(version, loader.apply(key.get(0), key.get(1)));
+                // never replace a listing with one read at an older version
+                responses.merge(key, built, (current, rebuilt) -> current.version > rebuilt.version ? current : rebuilt);
+            }
+            responses.keySet().retainAll(keep);
+        } catch (RuntimeException e) {
+            // the live path still answers; the next write or miss tries again
+            e.printStackTrace();
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * @return the unfiltered listing and up to maxFilters of the most requested filters, after halving every count
+     */
+    private List<List<String>> mostRequested() {
+        Map<List<String>, Long> counts = new HashMap<>();
+        requestCounts.forEach((key, count) -> {
+            long requests = count.sumThenReset();
+            counts.put(key, requests);
+            if (requests / 2 > 0) {
+                count.add(requests / 2);
+            } else {
+                requestCounts.remove(key, count);
+            }
+        });
+
+        List<List<String>> keep = new ArrayList<>();
+        keep.add(UNFILTERED);
+        counts.keySet().stream()
+                .filter(key -> !key.equals(UNFILTERED))
+                .sorted(Comparator.comparing((List<String> key) -> counts.get(key)).reversed())
+                .limit(maxFilters)
+                .forEach(keep::add);
+        return keep;
+    }
+
+    private Response build(long version, List<Book> books) {
+        try {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream(books.size() * 80 + 2);
+            // the same writer as the live path, so cached and live listings are the same bytes
+            codec.write(serialized, books, codec::writeBooks);
+            byte[] json = serialized.toByteArray();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(json);
+            }
+            return new Response(version, json, compressed.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checks whether an Accept-Encoding request header allows a gzip response.
+     * @param acceptEncoding header value, e.g. "gzip, deflate, br", may be null
+     * @return true unless the client did not list gzip (or *), or listed it with q=0
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip") && !name.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (!refused) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One listing, ready to send.
+     */
+    public static class Response {
+        private final long version;
+        private final byte[] json;
+        private final byte[] gzip;
+
+        Response(long version, byte[] json, byte[] gzip) {
+            this.version = version;
+            this.json = json;
+            this.gzip = gzip;
+        }
+
+        /**
+         * @return the catalog version the listing was read at
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the listing as JSON; must not be modified
+         */
+        public byte[] getJson() {
+            return json;
+        }
+
+        /**
+         * @return the listing as gzip compressed JSON; must not be modified
+         */
+        public byte[] getGzip() {
+            return gzip;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package Cache;
+
+import DAO.BookWriteListener;
+import Util.ReadRouting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Version numbers for the catalog as a whole and for each book, from which the ETags of the book responses are
+ * derived: weak ones for listings, which may be sent gzip compressed or not, and strong ones for single books.
+ * Registered as a write listener on BookService, which passes writes on only once its listings have stopped sharing
+ * older reads, every insert, checkout and return advances the catalog version and stamps the book with it, so an
+ * unchanged ETag means an unchanged response.
+ * Versions start again at 0 on every start, so each ETag also carries a random epoch picked at startup;
+ * an ETag handed out before a restart never matches one handed out after it.
+ * Take the ETag before running the query it describes: a write landing in between then only makes the next
+ * request fetch the response again, rather than letting a client keep stale data under a current ETag.
+ * When listings are read from a replica, their ETag carries the version the replica has caught up to, for the same reason.
+ */
+public class CatalogVersions implements BookWriteListener {
+
+    private final String epoch = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+    private final AtomicLong catalogVersion = new AtomicLong();
+    private final Map<Integer, Long> bookVersions = new ConcurrentHashMap<>();
+    private volatile LongSupplier replicaVersion;
+
+    @Override
+    public void bookWritten(int bookId) {
+        long version = catalogVersion.incrementAndGet();
+        // two writes to one book can finish out of order, keep the newer version
+        bookVersions.merge(bookId, version, Math::max);
+    }
+
+    /**
+     * @return version advanced by every write to any book
+     */
+    public long getCatalogVersion() {
+        return catalogVersion.get();
+    }
+
+    /**
+     * Tells the versions that listings are read from a replica, which only holds the writes up to its own version.
+     * @param replicaVersion reads the catalog version the replica holds every write up to
+     */
+    public void setReplicaVersion(LongSupplier replicaVersion) {
+        this.replicaVersion = replicaVersion;
+    }
+
+    /**
+     * @return version of the catalog a listing read now on this thread sees: the replica's version when listings
+     * come from the replica and ReadRouting does not send this thread to the primary, otherwise the current one
+     */
+    public long getListingVersion() {
+        long current = getCatalogVersion();
+        LongSupplier replica = replicaVersion;
+        if (replica == null || ReadRouting.isPrimary()) {
+            return current;
+        }
+        return Math.min(replica.getAsLong(), current);
+    }
+
+    /**
+     * @param bookId
+     * @return version of the book's last write since startup, or 0 if it has not been written since
+     */
+    public long getBookVersion(int bookId) {
+        return bookVersions.getOrDefault(bookId, 0L);
+    }
+
+    /**
+     * @return ETag for any listing of the catalog read now on this thread, changing whenever any book does,
+     * or, when listings come from a replica, once the replica has caught up with the change
+     */
+    public String catalogETag() {
+        return catalogETag(getListingVersion());
+    }
+
+    /**
+     * @param catalogVersion
+     * @return ETag for a listing of the catalog as it was at the given version. Weak, as the same listing is sent
+     * both as is and gzip compressed, which a strong ETag would have to tell apart.
+     */
+    public String catalogETag(long catalogVersion) {
+        return "W/\"c-" + epoch + "-" + catalogVersion + "\"";
+    }
+
+    /**
+     * @param bookId
+     * @return ETag for a single book, changing only when that book does
+     */
+    public String bookETag(int bookId) {
+        return "\"b-" + epoch + "-" + bookId + "-" + getBookVersion(bookId) + "\"";
+    }
+
+    /**
+     * Checks an If-None-Match request header against the current ETag, using the weak comparison
+     * the header calls for: a W/ prefix on either is ignored.
+     * @param ifNoneMatch header value, a comma separated list of ETags or "*", may be null
+     * @param etag current ETag
+     * @return true if the client's copy is current and a 304 Not Modified can be sent
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || opaque(candidate).equals(opaque(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
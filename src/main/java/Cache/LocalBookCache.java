@@ -0,0 +1,75 @@
+package Cache;
+
+import Model.Book;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * A bounded book cache held in this JVM, evicting by size and optionally expiring entries after a time to live.
+ * Concurrent lookups of the same uncached id share a single load. A load is held in the cache as a future that the
+ * thread which started it completes, so the database is queried outside the cache's internal locks and a virtual
+ * thread never blocks inside a monitor. A put or invalidate replaces the entry, in-flight load included,
+ * so a load that read the row before a write can never overwrite the write with stale data.
+ */
+public class LocalBookCache implements BookCache {
+    private final AsyncCache<Integer, Book> cache;
+
+    /**
+     * @param maxSize the most books kept at once
+     * @param ttlSeconds how long a book may stay cached after it was loaded, or 0 for no limit
+     */
+    public LocalBookCache(long maxSize, long ttlSeconds) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .executor(Runnable::run)
+                .recordStats();
+        if (ttlSeconds > 0) {
+            builder.expireAfterWrite(Duration.ofSeconds(ttlSeconds));
+        }
+        this.cache = builder.buildAsync();
+    }
+
+    @Override
+    public Book get(int bookId, IntFunction<Book> loader) {
+        CompletableFuture<Book> load = new CompletableFuture<>();
+        CompletableFuture<Book> book = cache.get(bookId, (id, executor) -> load);
+        if (book == load) {
+            // this thread won the race to load the book; a null result or failure removes the entry again
+            try {
+                load.complete(copy(loader.apply(bookId)));
+            } catch (RuntimeException e) {
+                load.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return copy(book.join());
+    }
+
+    @Override
+    public void put(Book book) {
+        cache.put(book.getBookId(), CompletableFuture.completedFuture(copy(book)));
+    }
+
+    @Override
+    public void invalidate(int bookId) {
+        cache.synchronous().invalidate(bookId);
+    }
+
+    @Override
+    public CacheStats getStats() {
+        com.github.benmanes.caffeine.cache.stats.CacheStats stats = cache.synchronous().stats();
+        return new CacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(),
+                cache.synchronous().estimatedSize());
+    }
+
+    private static Book copy(Book book) {
+        if (book == null) {
+            return null;
+        }
+        return new Book(book.getBookId(), book.getAuthor(), book.getTitle(), book.getSignedOutBy());
+    }
+}
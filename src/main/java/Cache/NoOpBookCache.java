@@ -0,0 +1,32 @@
+package Cache;
+
+import Model.Book;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * A book cache that caches nothing, used where caching is switched off; every lookup goes to the database.
+ */
+public class NoOpBookCache implements BookCache {
+    private final LongAdder misses = new LongAdder();
+
+    @Override
+    public Book get(int bookId, IntFunction<Book> loader) {
+        misses.increment();
+        return loader.apply(bookId);
+    }
+
+    @Override
+    public void put(Book book) {
+    }
+
+    @Override
+    public void invalidate(int bookId) {
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return new CacheStats(0, misses.sum(), 0, 0);
+    }
+}
@@ -0,0 +1,154 @@
+package Controller;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Caps the number of requests in flight, so a burst is turned away at the door instead of queueing without limit
+ * behind the database and slowing every client down.
+ * The cap adapts to how long DAO calls take, AIMD style. Every window the mean DAO call time is compared with its
+ * long-run baseline. If the mean is more than tolerance times the baseline, the database is saturated and the cap
+ * shrinks by the backoff factor. Otherwise, if the window used at least half the cap, it grows by one.
+ * Priority requests may use the whole cap; the others only the part not reserved for priority requests.
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * Why a request was let in or not.
+     */
+    public enum Admission {
+        ADMITTED,
+        /**
+         * only the capacity reserved for priority requests is left
+         */
+        SHED,
+        /**
+         * every request the cap allows is in flight
+         */
+        OVERLOADED
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double priorityShare;
+    private final double tolerance;
+    private final double backoff;
+    private final long windowNanos;
+    private final int minWindowCalls;
+    private final LongSupplier daoCalls;
+    private final LongSupplier daoNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicBoolean adjusting = new AtomicBoolean();
+    private volatile double limit;
+    private double baselineNanos;
+    private volatile long windowStart = System.nanoTime();
+    private long windowCalls;
+    private long windowNanosSpent;
+
+    /**
+     * @param initialLimit cap to start with
+     * @param minLimit the cap never shrinks below this
+     * @param maxLimit the cap never grows above this
+     * @param priorityShare fraction of the cap only priority requests may use
+     * @param tolerance how many times its baseline the mean DAO call time may reach before the cap shrinks
+     * @param backoff factor the cap is multiplied by when it shrinks
+     * @param windowMs how often the cap is adjusted
+     * @param minWindowCalls DAO calls a window needs before its mean is trusted; fewer extend the window
+     * @param daoCalls reads the number of DAO calls made so far
+     * @param daoNanos reads the total time spent in those calls
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double priorityShare, double tolerance,
+                              double backoff, long windowMs, int minWindowCalls,
+                              LongSupplier daoCalls, LongSupplier daoNanos) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.priorityShare = priorityShare;
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+        this.windowNanos = windowMs * 1_000_000;
+        this.minWindowCalls = minWindowCalls;
+        this.daoCalls = daoCalls;
+        this.daoNanos = daoNanos;
+        this.windowCalls = daoCalls.getAsLong();
+        this.windowNanosSpent = daoNanos.getAsLong();
+    }
+
+    /**
+     * Lets a request in if the cap allows it. Never waits; every admitted request must be followed by a release.
+     * @param priority whether the request may use the capacity reserved for priority requests
+     * @return ADMITTED, or why the request was turned away
+     */
+    public Admission tryAcquire(boolean priority) {
+        double cap = priority ? limit : limit * (1 - priorityShare);
+        while (true) {
+            int current = inFlight.get();
+            if (current >= cap) {
+                return current >= limit ? Admission.OVERLOADED : Admission.SHED;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                peakInFlight.accumulateAndGet(current + 1, Math::max);
+                return Admission.ADMITTED;
+            }
+        }
+    }
+
+    /**
+     * Marks an admitted request as done, adjusting the cap if a window has passed.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+        if (System.nanoTime() - windowStart >= windowNanos && adjusting.compareAndSet(false, true)) {
+            try {
+                adjust();
+            } finally {
+                adjusting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Runs by one thread at a time, guarded by adjusting.
+     */
+    private void adjust() {
+        long calls = daoCalls.getAsLong();
+        long nanos = daoNanos.getAsLong();
+        if (calls - windowCalls < minWindowCalls) {
+            return;
+        }
+        double mean = (double) (nanos - windowNanosSpent) / (calls - windowCalls);
+        windowCalls = calls;
+        windowNanosSpent = nanos;
+        windowStart = System.nanoTime();
+        int peak = peakInFlight.getAndSet(inFlight.get());
+
+        if (baselineNanos == 0) {
+            baselineNanos = mean;
+        }
+        if (mean > baselineNanos * tolerance) {
+            limit = Math.max(minLimit, limit * backoff);
+            // creeps up while saturated, so a database that has grown slower for good is not mistaken for an
+            // overloaded one forever
+            baselineNanos += (mean - baselineNanos) * 0.01;
+        } else {
+            if (peak >= limit / 2) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            baselineNanos += (mean - baselineNanos) * 0.1;
+        }
+    }
+
+    /**
+     * @return the current cap on requests in flight
+     */
+    public double getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -1,82 +1,637 @@
 package Controller;
 
+import Cache.CatalogResponseCache;
+import Cache.CatalogVersions;
+import Exceptions.BookNotFoundException;
 import Exceptions.BookSignedOutException;
 import Exceptions.UserHasBooksSignedOut;
+import Exceptions.UserNotFoundException;
+import Metrics.MetricsRegistry;
 import Service.BookService;
 import Service.UserService;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.util.JavalinLogger;
 import Model.Book;
+import Model.BookField;
 import Model.User;
+import Util.Config;
+import Util.ReadRouting;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 
 public class Controller {
-    ObjectMapper om = new ObjectMapper();
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    static final int MAX_BATCH_CHUNK_SIZE = 5000;
+
+    /**
+     * Cookie holding the time, in milliseconds since the epoch, until which the client's reads go to the primary.
+     */
+    public static final String READ_PRIMARY_COOKIE = "library-read-primary-until";
+
+    /**
+     * Request attribute marking a request the limiter let in, so only those give their room back.
+     */
+    private static final String ADMITTED = "library-admitted";
+    /**
+     * Request attribute marking a request turned away by admission control, so its metrics are not mistaken for
+     * requests that matched no route.
+     */
+    private static final String REJECTED = "library-rejected";
+    /**
+     * Header carrying the warm-up token on the service's own warm-up requests.
+     */
+    public static final String WARM_UP_HEADER = "X-Library-Warm-Up";
+    /**
+     * Request attribute marking one of the service's own warm-up requests, which admission control and the request
+     * metrics leave out.
+     */
+    private static final String WARM_UP = "library-warm-up";
+
+    JsonCodec codec = JsonCodec.getInstance();
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
     BookService bookService;
     UserService userService;
+    CatalogVersions catalogVersions;
+    CatalogResponseCache responseCache;
+    long readYourWritesMs;
+    ConcurrencyLimiter limiter;
+    long retryAfterSeconds = 1;
+    volatile boolean ready = true;
+    /**
+     * random, so only the service itself can send requests the limiter and the request metrics leave out
+     */
+    private final String warmUpToken = UUID.randomUUID().toString();
 
     public Controller (BookService bookService, UserService userService){
+        this(bookService, userService, null);
+    }
+
+    public Controller (BookService bookService, UserService userService, CatalogVersions catalogVersions){
+        this(bookService, userService, catalogVersions, null);
+    }
+
+    /**
+     * @param bookService
+     * @param userService
+     * @param catalogVersions versions kept up to date by the book service, used to tag book
+     *                        responses with ETags and answer conditional requests; null to turn that off
+     * @param responseCache ready-to-send listings for the unfiltered catalog and its most requested filters,
+     *                      built from the same catalog versions; null to always read listings from the database
+     */
+    public Controller (BookService bookService, UserService userService, CatalogVersions catalogVersions,
+                       CatalogResponseCache responseCache){
         this.bookService = bookService;
         this.userService = userService;
+        this.catalogVersions = catalogVersions;
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Turns on read-your-writes for when listings are read from a replica: for this long after a client's
+     * write, its reads go to the primary, which already holds the write.
+     * @param readYourWritesMs length of the window; 0, the default, to turn it off
+     */
+    public void setReadYourWritesMs(long readYourWritesMs) {
+        this.readYourWritesMs = readYourWritesMs;
+    }
+
+    /**
+     * Turns on admission control: requests beyond the limiter's cap are turned away at once, before they reach the
+     * database, listings first. See {@link #admit(Context)}.
+     * @param limiter the cap on requests in flight; null, the default, to let every request in
+     * @param retryAfterSeconds sent in Retry-After with every request turned away
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter limiter, long retryAfterSeconds) {
+        this.limiter = limiter;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Sets what GET /ready answers, so a load balancer holds traffic back until the caches are warm.
+     * @param ready false while warming up; true, the default, once the service runs at full speed
+     */
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    /**
+     * @return the value of {@link #WARM_UP_HEADER} that marks a request as the service's own warm-up traffic
+     */
+    public String getWarmUpToken() {
+        return warmUpToken;
     }
 
     public Javalin getAPI() {
-        Javalin app = Javalin.create();
+        Javalin app = Javalin.create(config -> {
+            // bulk uploads carry tens of thousands of books in one request body
+            config.http.maxRequestSize = Config.getLong("http.maxRequestSize", 32L * 1024 * 1024);
+            config.requestLogger.http(this::recordRequest);
+            config.jetty.server(() -> new Server(httpThreadPool()));
+        });
+        app.before(this::admit);
+        app.before(this::routeReads);
         app.get("books", this::getAllBooksHandler);
         app.get("books/{id}", this::getBookByIdHandler);
         app.get("users", this::getAllUsersHandler);
         app.post("books", this::postBooksHandler);
+        app.post("books/batch", this::postBooksBatchHandler);
         app.post("users", this::postUsersHandler);
         app.patch("books/{id}", this::patchBookSignedOutBy);
         app.delete("users/{id}", this::deleteUserHandler);
+        app.get("metrics", this::getMetricsHandler);
+        app.get("ready", this::getReadyHandler);
+        app.after(this::releaseAdmission);
         return app;
     }
 
+    /**
+     * Builds the pool of threads Jetty runs the handlers on. Handlers pass their DAO calls to the services'
+     * asynchronous methods, so these threads are not held while the database works.
+     * By default these are up to http.maxThreads platform threads.
+     * With http.virtualThreads=true and a JDK that has virtual threads (21 or later), every request gets its own
+     * virtual thread instead, so the number of requests in flight is no longer capped by the thread count.
+     * Database work is still limited by the connection pool, and H2 runs each statement inside a synchronized
+     * block, which pins the carrier thread for the length of the statement; keep db.pool.maxSize at or below
+     * the number of carrier threads (one per core by default) so pinned statements cannot starve the other requests.
+     * @return Jetty's request thread pool
+     */
+    static QueuedThreadPool httpThreadPool() {
+        QueuedThreadPool threadPool = new QueuedThreadPool(
+                Config.getInt("http.maxThreads", 250), Config.getInt("http.minThreads", 8), 60_000);
+        threadPool.setName("JettyServerThreadPool");
+        if (Config.getBoolean("http.virtualThreads", false)) {
+            if (VirtualThreads.areSupported()) {
+                threadPool.setUseVirtualThreads(true);
+            } else {
+                JavalinLogger.warn("http.virtualThreads is set but this JDK has no virtual threads, using platform threads");
+            }
+        }
+        return threadPool;
+    }
+
+    /**
+     * Counts and times every request by the route it matched, so '/books/{id}' is one series however many ids are asked for.
+     * Warm-up requests are left out, so they do not show up as traffic.
+     * @param context
+     * @param executionTimeMs time Javalin spent handling the request
+     */
+    private void recordRequest(Context context, Float executionTimeMs) {
+        if (context.attribute(WARM_UP) != null) {
+            return;
+        }
+        String method = context.method().name();
+        // requests turned away by admission control, and those that matched no route, never leave the BEFORE stage
+        String route;
+        if (context.attribute(REJECTED) != null) {
+            route = "rejected";
+        } else {
+            route = context.handlerType() == HandlerType.BEFORE ? "unmatched" : context.endpointHandlerPath();
+        }
+        metrics.counter("library_http_requests_total", "Requests handled, by route and status code.",
+                "method", method, "route", route, "status", String.valueOf(context.statusCode())).increment();
+        metrics.histogram("library_http_request_duration_seconds", "Time spent handling requests, by route.",
+                "method", method, "route", route).record((long) (executionTimeMs * 1_000_000));
+    }
+
+    /**
+     * Lets the request in if the limiter has room for it, or turns it away before any work is done:
+     * with 503 if every request the cap allows is in flight, or with 429 if only the room kept for checkouts and
+     * returns is left, which only those PATCH requests may use. Both carry Retry-After. The metrics and readiness
+     * probes are always let in, so an overloaded service can still be watched, and so are the service's own warm-up
+     * requests, which would otherwise hold room that real traffic needs.
+     * @param context
+     */
+    private void admit(Context context) {
+        if (warmUpToken.equals(context.header(WARM_UP_HEADER))) {
+            context.attribute(WARM_UP, true);
+            return;
+        }
+        if (limiter == null || context.path().equals("/metrics") || context.path().equals("/ready")) {
+            return;
+        }
+        boolean priority = context.method() == HandlerType.PATCH && context.path().startsWith("/books/");
+        ConcurrencyLimiter.Admission admission = limiter.tryAcquire(priority);
+        if (admission == ConcurrencyLimiter.Admission.ADMITTED) {
+            context.attribute(ADMITTED, true);
+            return;
+        }
+        int status = admission == ConcurrencyLimiter.Admission.OVERLOADED ? 503 : 429;
+        context.attribute(REJECTED, true);
+        metrics.counter("library_http_rejected_total", "Requests turned away by admission control, by status code.",
+                "status", String.valueOf(status)).increment();
+        context.header("Retry-After", String.valueOf(retryAfterSeconds));
+        throw new HttpResponseException(status, status == 503 ? "Service overloaded" : "Too many requests");
+    }
+
+    /**
+     * Gives back the admitted request's room in the limiter. Runs after the handler's future has completed,
+     * whether it succeeded or not.
+     * @param context
+     */
+    private void releaseAdmission(Context context) {
+        if (context.attribute(ADMITTED) != null) {
+            context.attribute(ADMITTED, null);
+            limiter.release();
+        }
+    }
+
+    /**
+     * Sends the request's reads to the primary when the client wrote within the last readYourWritesMs, so it sees
+     * its own writes even before the replica has caught up with them. Every write starts the window again by
+     * setting a cookie holding the time the window ends; a window claiming to last longer than readYourWritesMs
+     * is ignored. Runs before every handler, on the thread the handler's service calls are made from.
+     * @param context
+     */
+    private void routeReads(Context context) {
+        if (readYourWritesMs <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean write = context.method() != HandlerType.GET && context.method() != HandlerType.HEAD;
+        if (write) {
+            context.cookie(READ_PRIMARY_COOKIE, String.valueOf(now + readYourWritesMs),
+                    (int) ((readYourWritesMs + 999) / 1000));
+        }
+        ReadRouting.setPrimary(write || withinWindow(context.cookie(READ_PRIMARY_COOKIE), now));
+    }
+
+    private boolean withinWindow(String windowEnd, long now) {
+        if (windowEnd == null) {
+            return false;
+        }
+        try {
+            long end = Long.parseLong(windowEnd);
+            return end > now && end <= now + readYourWritesMs;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * GET request handler exposing the service's metrics in Prometheus text format.
+     * @param context
+     */
+    private void getMetricsHandler(Context context) {
+        context.contentType("text/plain; version=0.0.4; charset=utf-8");
+        context.result(metrics.scrape());
+    }
+
+    /**
+     * Readiness probe: 200 once the service is warmed up, 503 until then. Every other route is served either way.
+     * @param context
+     */
+    private void getReadyHandler(Context context) {
+        if (ready) {
+            context.result("ready");
+        } else {
+            context.status(503).result("warming up");
+        }
+    }
+
     /**
      * GET request handler for all books.
      * Can narrow search by both author and title or either value, received via query parameters.
      * Search values 'sanitized' by removing beginning/end whitespace and lower-casing letters.
+     * When a 'limit' or 'after' query parameter is given, responds with a single page of books and a cursor for the next.
+     * When a 'q' query parameter is given, responds with the books whose title or author contain its words,
+     * most relevant first, up to 'limit' books.
+     * When the 'stream' query parameter is true, books are written to the response as they are read from the database.
+     * Listings from the database carry the catalog ETag; when the request's If-None-Match names it, nothing in the
+     * catalog has changed and the handler responds 304 Not Modified without running the query.
+     * Searches are not tagged, as the search index is updated only after the write that advances the version.
+     * Whole listings, unfiltered or by title and/or author, are sent from the response cache when it has them.
+     * A 'fields' query parameter, e.g. fields=bookId,title, narrows each book to the fields named; only those columns
+     * are read from the database. Unknown field names get a Bad Request status code.
      * @param context The Javalin Context object manages information about both the HTTP request and response.
      */
     private void getAllBooksHandler(Context context) {
+        String query = context.queryParam("q");
+        // any listing may be sent gzip compressed, by Javalin or from the response cache, tagged or not
+        context.header("Vary", "Accept-Encoding");
+        // taken before the query runs, see CatalogVersions
+        String etag = query == null && catalogVersions != null ? catalogVersions.catalogETag() : null;
+        if (notModified(context, etag)) {
+            return;
+        }
+
         String title = context.queryParam("title");
         String author = context.queryParam("author");
 
-        if (title != null && author != null) {
+        if (title != null) {
             title = title.trim().toLowerCase();
+        }
+        if (author != null) {
             author = author.trim().toLowerCase();
-            context.json(bookService.getBooksByTitleAndAuthor(title, author));
+        }
+
+        Set<BookField> fields;
+        try {
+            String fieldsParam = context.queryParam("fields");
+            fields = fieldsParam == null ? BookField.ALL : BookField.parse(fieldsParam);
+        } catch (IllegalArgumentException e) {
+            context.status(400);
+            return;
+        }
+        JsonCodec.Writer<List<Book>> writeBooks = (generator, books) -> codec.writeBooks(generator, books, fields);
+
+        if (query != null) {
+            try {
+                sendJson(context, bookService.searchBooks(query, pageLimit(context)), writeBooks);
+            } catch (NumberFormatException e) {
+                context.status(400);
+            }
+        } else if ("true".equalsIgnoreCase(context.queryParam("stream"))) {
+            tag(context, etag);
+            streamBooks(context, title, author, fields);
+        } else if (isPageRequest(context)) {
+            try {
+                respondLater(context, bookService.getBooksPageAsync(title, author, pageCursor(context), pageLimit(context), fields),
+                        tagged(context, etag, json(context, (generator, page) -> codec.writeBookPage(generator, page, fields))));
+            } catch (NumberFormatException e) {
+                context.status(400);
+            }
+        } else if (!fields.equals(BookField.ALL)) {
+            // the cached listings carry every field
+            respondLater(context, bookService.getBooksAsync(title, author, fields), tagged(context, etag, json(context, writeBooks)));
+        } else if (sendCached(context, title, author)) {
+            return;
+        } else if (title != null && author != null) {
+            respondLater(context, bookService.getBooksByTitleAndAuthorAsync(title, author),
+                    tagged(context, etag, json(context, codec::writeBooks)));
         } else if (title != null) {
-            title = title.trim().toLowerCase();
-            context.json(bookService.getBooksByTitle(title));
+            respondLater(context, bookService.getBooksByTitleAsync(title), tagged(context, etag, json(context, codec::writeBooks)));
         } else if (author != null) {
-            author = author.trim().toLowerCase();
-            context.json(bookService.getBooksByAuthor(author));
+            respondLater(context, bookService.getBooksByAuthorAsync(author), tagged(context, etag, json(context, codec::writeBooks)));
         } else {
-            context.json(bookService.getAllBooks());
+            respondLater(context, bookService.getAllBooksAsync(), tagged(context, etag, json(context, codec::writeBooks)));
+        }
+    }
+
+    /**
+     * Sends the listing from the response cache, compressed if the client accepts gzip.
+     * @param context
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @return false, having sent nothing, if the cache has no current copy of the listing
+     */
+    private boolean sendCached(Context context, String title, String author) {
+        CatalogResponseCache.Response response = responseCache == null ? null : responseCache.get(title, author);
+        if (response == null) {
+            return false;
+        }
+        boolean gzip = CatalogResponseCache.acceptsGzip(context.header("Accept-Encoding"));
+        byte[] body = gzip ? response.getGzip() : response.getJson();
+        // the body depends on Accept-Encoding, whether or not the listing is tagged
+        context.header("Vary", "Accept-Encoding");
+        tag(context, catalogVersions == null ? null : catalogVersions.catalogETag(response.getVersion()));
+        context.contentType("application/json");
+        if (gzip) {
+            context.header("Content-Encoding", "gzip");
+        }
+        try {
+            // written past Javalin's output stream, which would compress the body again
+            context.res().setContentLength(body.length);
+            context.res().getOutputStream().write(body);
+        } catch (IOException e) {
+            // the client went away
+            e.printStackTrace();
         }
+        return true;
+    }
+
+    /**
+     * Answers 304 Not Modified when the request's If-None-Match names the current ETag,
+     * so neither the database nor the JSON writer is touched.
+     * @param context
+     * @param etag current ETag of the requested resource, or null when it is not tagged
+     * @return true if the request has been answered
+     */
+    private boolean notModified(Context context, String etag) {
+        if (etag == null || !CatalogVersions.matches(context.header("If-None-Match"), etag)) {
+            return false;
+        }
+        tag(context, etag);
+        context.status(304);
+        return true;
+    }
+
+    /**
+     * Adds the ETag to the response, and asks clients to check it with a conditional request before reusing
+     * their copy, as availability changes at any time.
+     * @param context
+     * @param etag ETag of the response, or null when it is not tagged
+     */
+    private void tag(Context context, String etag) {
+        if (etag != null) {
+            context.header("ETag", etag);
+            context.header("Cache-Control", "no-cache");
+        }
+    }
+
+    /**
+     * @param context
+     * @param etag ETag of the response, or null when it is not tagged
+     * @param respond writes the response from the result
+     * @return respond, tagging the response first, so failed requests are never tagged
+     */
+    private <T> Consumer<T> tagged(Context context, String etag, Consumer<T> respond) {
+        return result -> {
+            tag(context, etag);
+            respond.accept(result);
+        };
+    }
+
+    /**
+     * Writes the value to the response as JSON with one of the codec's writers, straight to the response stream.
+     * @param context
+     * @param value
+     * @param writer
+     */
+    private <T> void sendJson(Context context, T value, JsonCodec.Writer<T> writer) {
+        context.contentType("application/json");
+        try {
+            codec.write(context.outputStream(), value, writer);
+        } catch (IOException e) {
+            // the client went away
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param context
+     * @param writer
+     * @return responds with the result as JSON, written by one of the codec's writers
+     */
+    private <T> Consumer<T> json(Context context, JsonCodec.Writer<T> writer) {
+        return result -> sendJson(context, result, writer);
+    }
+
+    /**
+     * Hands the response to Javalin to finish once the result is ready, so the request thread is released while
+     * the database works. Failures are answered with the status code statusFor picks.
+     * @param context
+     * @param result result of an asynchronous service call
+     * @param respond writes the response from the result
+     */
+    private <T> void respondLater(Context context, CompletableFuture<T> result, Consumer<T> respond) {
+        context.future(() -> result.thenAccept(respond).exceptionally(e -> {
+            context.status(statusFor(e));
+            return null;
+        }));
+    }
+
+    /**
+     * @param failure exception an asynchronous service call completed with
+     * @return the status code to respond with
+     */
+    private int statusFor(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        if (cause instanceof BookNotFoundException || cause instanceof UserNotFoundException) {
+            return 404;
+        } else if (cause instanceof BookSignedOutException || cause instanceof UserHasBooksSignedOut) {
+            return 400;
+        } else if (cause instanceof RejectedExecutionException) {
+            // the database executor's queue is full
+            return 503;
+        }
+        cause.printStackTrace();
+        return 500;
+    }
+
+    /**
+     * Writes the matching books straight from the database cursor to the response as a JSON array,
+     * so the full result is never held in memory. If the client disconnects, the query is cancelled.
+     * @param context
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param fields fields read and written for each book
+     */
+    private void streamBooks(Context context, String title, String author, Set<BookField> fields) {
+        context.contentType("application/json");
+        JsonGenerator generator;
+        try {
+            generator = codec.createGenerator(context.outputStream());
+            generator.writeStartArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        context.future(() -> bookService.streamBooksAsync(title, author, fields, book -> codec.writeBook(generator, book, fields)).handle((done, e) -> {
+            if (e != null && statusFor(e) == 503) {
+                // nothing has been sent yet, as the generator is still buffering the opening bracket
+                context.status(503);
+                return null;
+            }
+            try (generator) {
+                if (e == null) {
+                    generator.writeEndArray();
+                }
+            } catch (IOException closeFailure) {
+                e = closeFailure;
+            }
+            if (e != null) {
+                // the client went away part way through; the statement has already been cancelled
+                e.printStackTrace();
+            }
+            return null;
+        }));
     }
 
     /**
      * GET request handler for a single book by its id.
      * If there is no book associated with the input id, responds with a Not Found status code.
+     * The book carries its own ETag, which only changes when that book does; when the request's If-None-Match
+     * names it, responds 304 Not Modified without looking the book up.
      * @param context
      */
     private void getBookByIdHandler(Context context) {
         int bookId = Integer.parseInt(context.pathParam("id"));
-        Book book = bookService.getBookById(bookId);
+        String etag = catalogVersions == null ? null : catalogVersions.bookETag(bookId);
+        if (notModified(context, etag)) {
+            return;
+        }
+        respondLater(context, bookService.getBookByIdAsync(bookId), book -> {
+            if (book == null) {
+                context.status(404);
+            } else {
+                tag(context, etag);
+                sendJson(context, book, codec::writeBook);
+            }
+        });
+    }
 
-        if (book == null) {
-            context.status(404);
+    /**
+     * GET request handler for all users.
+     * When a 'limit' or 'after' query parameter is given, responds with a single page of users and a cursor for the next.
+     * @param context
+     */
+    private void getAllUsersHandler(Context context) {
+        if (isPageRequest(context)) {
+            try {
+                respondLater(context, userService.getUsersPageAsync(pageCursor(context), pageLimit(context)),
+                        json(context, codec::writeUserPage));
+            } catch (NumberFormatException e) {
+                context.status(400);
+            }
         } else {
-            context.json(book);
+            respondLater(context, userService.getAllUsersAsync(), json(context, codec::writeUsers));
         }
     }
 
-    private void getAllUsersHandler(Context context) {
-        context.json(userService.getAllUsers());
+    /**
+     * @param context
+     * @return whether the client asked for a paginated listing
+     */
+    private boolean isPageRequest(Context context) {
+        return context.queryParam("limit") != null || context.queryParam("after") != null;
+    }
+
+    /**
+     * Reads the 'limit' query parameter, defaulting to DEFAULT_PAGE_SIZE and capped at MAX_PAGE_SIZE.
+     * @param context
+     * @return page size
+     * @throws NumberFormatException when the limit is not a positive number
+     */
+    private int pageLimit(Context context) {
+        String limit = context.queryParam("limit");
+        if (limit == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        int pageSize = Integer.parseInt(limit);
+        if (pageSize < 1) {
+            throw new NumberFormatException("limit must be positive: " + limit);
+        }
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
+    /**
+     * Reads the 'after' query parameter, the cursor returned with the previous page.
+     * @param context
+     * @return cursor, or null for the first page
+     * @throws NumberFormatException when the cursor is malformed
+     */
+    private Integer pageCursor(Context context) {
+        String after = context.queryParam("after");
+        return after == null ? null : Integer.valueOf(after);
     }
 
     /**
@@ -86,22 +641,93 @@ public class Controller {
      * @param context
      */
     private void postBooksHandler(Context context){
-        ObjectMapper om = new ObjectMapper();
         try {
-            Book b = om.readValue(context.body(), Book.class);
-            Book addedBook = bookService.addBook(b);
-            if (addedBook == null) {
-                context.status(400);
-            } else {
-                context.status(201);
-                context.json(addedBook);
-            }
+            Book b = codec.readBook(context.body());
+            respondLater(context, bookService.addBookAsync(b), addedBook -> {
+                if (addedBook == null) {
+                    context.status(400);
+                } else {
+                    context.status(201);
+                    sendJson(context, addedBook, codec::writeBook);
+                }
+            });
         }catch(JsonProcessingException e){
             e.printStackTrace();
             context.status(400);
         }
     }
 
+    /**
+     * POST request handler for creating many book resources at once.
+     * The body is either a JSON array of books or newline-delimited JSON with one book per line.
+     * Each entry is checked by the same rules as a single POST; the valid ones are inserted in batches of
+     * 'chunkSize' rows (query parameter, default books.batch.chunkSize), each batch in one transaction.
+     * Responds with one result per entry, in order, saying whether it was created, invalid or failed.
+     * @param context
+     */
+    private void postBooksBatchHandler(Context context) {
+        int chunkSize;
+        try {
+            chunkSize = batchChunkSize(context);
+        } catch (NumberFormatException e) {
+            context.status(400);
+            return;
+        }
+
+        List<Book> books = new ArrayList<>();
+        String body = context.body().stripLeading();
+        if (body.startsWith("[")) {
+            try {
+                for (JsonNode node : codec.readTree(body)) {
+                    books.add(readBook(node));
+                }
+            } catch (JsonProcessingException e) {
+                e.printStackTrace();
+                context.status(400);
+                return;
+            }
+        } else {
+            for (String line : body.split("\\R")) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    books.add(readBook(codec.readTree(line)));
+                } catch (JsonProcessingException e) {
+                    books.add(null);
+                }
+            }
+        }
+        respondLater(context, bookService.addBooksAsync(books, chunkSize), json(context, codec::writeBatchResults));
+    }
+
+    /**
+     * @param node
+     * @return the book, or null if the entry is not a book
+     */
+    private Book readBook(JsonNode node) {
+        try {
+            return node.isObject() ? codec.readBook(node) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the 'chunkSize' query parameter, defaulting to books.batch.chunkSize and capped at MAX_BATCH_CHUNK_SIZE.
+     * @param context
+     * @return rows per batch
+     * @throws NumberFormatException when the chunk size is not a positive number
+     */
+    private int batchChunkSize(Context context) {
+        String chunkSize = context.queryParam("chunkSize");
+        int rows = chunkSize == null ? Config.getInt("books.batch.chunkSize", 500) : Integer.parseInt(chunkSize);
+        if (rows < 1) {
+            throw new NumberFormatException("chunkSize must be positive: " + chunkSize);
+        }
+        return Math.min(rows, MAX_BATCH_CHUNK_SIZE);
+    }
+
     /**
      * This handler creates a new user.
      * If the username is already in use or invalid username is provided,
@@ -111,14 +737,15 @@ public class Controller {
      */
     private void postUsersHandler(Context context){
         try {
-            User user = om.readValue(context.body(), User.class);
-            User createdUser = userService.createUser(user);
-            if (createdUser == null) {
-                context.status(400);
-            } else {
-                context.status(201);
-                context.json(createdUser);
-            }
+            User user = codec.readUser(context.body());
+            respondLater(context, userService.createUserAsync(user), createdUser -> {
+                if (createdUser == null) {
+                    context.status(400);
+                } else {
+                    context.status(201);
+                    sendJson(context, createdUser, codec::writeUser);
+                }
+            });
         }catch(JsonProcessingException e){
             e.printStackTrace();
             context.status(400);
@@ -129,22 +756,19 @@ public class Controller {
      * This is handler updates the signedOutBy property of the book
      * if the current user has the book signed out, they will return it
      * if the book is not currently signed out, the current user will sign it out
-     * if the book is signed out by another user, a BookSignedOutException will be thrown/caught
+     * if the book is signed out by another user, responds with a Bad Request status code
+     * if there is no book with the id, responds with a Not Found status code
      * @param context
      */
     private void patchBookSignedOutBy(Context context) {
         try {
-            User user = om.readValue(context.body(), User.class);
+            User user = codec.readUser(context.body());
             int userId = user.getUserId();
             int bookId = Integer.parseInt(context.pathParam("id"));
-            Book updatedBook = bookService.updateBookSignedOutBy(bookId, userId);
-            context.json(updatedBook);
+            respondLater(context, bookService.updateBookSignedOutByAsync(bookId, userId), json(context, codec::writeBook));
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             context.status(400);
-        } catch (BookSignedOutException e) {
-            e.printStackTrace();
-            context.status(400);
         }
     }
 
@@ -154,20 +778,18 @@ public class Controller {
      * */
     private void deleteUserHandler(Context context) {
         try {
-            User currentUser = om.readValue(context.body(), User.class);
+            User currentUser = codec.readUser(context.body());
             int deleteUserId = Integer.parseInt(context.pathParam("id"));
-            User deletedUser = userService.deleteUser(currentUser.getUserId(), deleteUserId);
-            if (deletedUser == null) {
-                context.status(401);
-            } else {
-                context.json(deletedUser);
-            }
+            respondLater(context, userService.deleteUserAsync(currentUser.getUserId(), deleteUserId), deletedUser -> {
+                if (deletedUser == null) {
+                    context.status(401);
+                } else {
+                    sendJson(context, deletedUser, codec::writeUser);
+                }
+            });
         } catch (JsonProcessingException e) {
             e.printStackTrace();
             context.status(400);
-        } catch (UserHasBooksSignedOut e) {
-            e.printStackTrace();
-            context.status(400);
         }
     }
 }
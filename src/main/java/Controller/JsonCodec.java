@@ -0,0 +1,177 @@
+package Controller;
+
+import Model.Book;
+import Model.BookBatchResult;
+import Model.BookField;
+import Model.Page;
+import Model.User;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads and writes the JSON of the REST API, shared by every request.
+ * Request bodies are bound by ObjectReaders built once, rather than by a new ObjectMapper per request.
+ * Responses are written field by field straight to the response stream by hand-written writers,
+ * skipping databind's reflection and the intermediate String; Jackson recycles the generator's buffers.
+ * The writers produce the same bytes ObjectMapper would, so cached and live responses are interchangeable.
+ * Thread-safe.
+ */
+public class JsonCodec {
+
+    /**
+     * Writes a value to a JSON generator.
+     * @param <T> the type written
+     */
+    @FunctionalInterface
+    public interface Writer<T> {
+        void write(JsonGenerator generator, T value) throws IOException;
+    }
+
+    private static final JsonCodec instance = new JsonCodec();
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final ObjectReader bookReader = om.readerFor(Book.class);
+    private final ObjectReader userReader = om.readerFor(User.class);
+    private final ObjectReader treeReader = om.readerFor(JsonNode.class);
+
+    /**
+     * @return the codec shared by the controller and the catalog response cache, so cached and live listings are
+     * written by the same code
+     */
+    public static JsonCodec getInstance() {
+        return instance;
+    }
+
+    public Book readBook(String json) throws JsonProcessingException {
+        return bookReader.readValue(json);
+    }
+
+    public Book readBook(JsonNode node) throws IOException {
+        return bookReader.readValue(node);
+    }
+
+    public User readUser(String json) throws JsonProcessingException {
+        return userReader.readValue(json);
+    }
+
+    public JsonNode readTree(String json) throws JsonProcessingException {
+        return treeReader.readValue(json);
+    }
+
+    /**
+     * @param out stream the JSON is written to
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return om.getFactory().createGenerator(out, JsonEncoding.UTF8);
+    }
+
+    /**
+     * Writes the value as a complete JSON document.
+     * @param out stream the JSON is written to; flushed, but left open
+     * @param value
+     * @param writer one of this codec's writers
+     */
+    public <T> void write(OutputStream out, T value, Writer<T> writer) throws IOException {
+        try (JsonGenerator generator = createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writer.write(generator, value);
+        }
+    }
+
+    public void writeBook(JsonGenerator generator, Book book) throws IOException {
+        writeBook(generator, book, BookField.ALL);
+    }
+
+    /**
+     * Writes only the given fields of a book, for responses projected with fields=.
+     */
+    public void writeBook(JsonGenerator generator, Book book, Set<BookField> fields) throws IOException {
+        generator.writeStartObject();
+        if (fields.contains(BookField.BOOK_ID)) {
+            generator.writeNumberField("bookId", book.getBookId());
+        }
+        if (fields.contains(BookField.TITLE)) {
+            generator.writeStringField("title", book.getTitle());
+        }
+        if (fields.contains(BookField.AUTHOR)) {
+            generator.writeStringField("author", book.getAuthor());
+        }
+        if (fields.contains(BookField.SIGNED_OUT_BY)) {
+            generator.writeNumberField("signedOutBy", book.getSignedOutBy());
+        }
+        generator.writeEndObject();
+    }
+
+    public void writeBooks(JsonGenerator generator, List<Book> books) throws IOException {
+        writeBooks(generator, books, BookField.ALL);
+    }
+
+    public void writeBooks(JsonGenerator generator, List<Book> books, Set<BookField> fields) throws IOException {
+        generator.writeStartArray();
+        for (Book book : books) {
+            writeBook(generator, book, fields);
+        }
+        generator.writeEndArray();
+    }
+
+    public void writeBookPage(JsonGenerator generator, Page<Book> page) throws IOException {
+        writeBookPage(generator, page, BookField.ALL);
+    }
+
+    public void writeBookPage(JsonGenerator generator, Page<Book> page, Set<BookField> fields) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("items");
+        writeBooks(generator, page.getItems(), fields);
+        generator.writeStringField("nextCursor", page.getNextCursor());
+        generator.writeEndObject();
+    }
+
+    public void writeBatchResults(JsonGenerator generator, List<BookBatchResult> results) throws IOException {
+        generator.writeStartArray();
+        for (BookBatchResult result : results) {
+            generator.writeStartObject();
+            generator.writeNumberField("index", result.getIndex());
+            generator.writeStringField("status", result.getStatus());
+            generator.writeFieldName("book");
+            if (result.getBook() == null) {
+                generator.writeNull();
+            } else {
+                writeBook(generator, result.getBook());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    public void writeUser(JsonGenerator generator, User user) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("userId", user.getUserId());
+        generator.writeStringField("username", user.getUsername());
+        generator.writeEndObject();
+    }
+
+    public void writeUsers(JsonGenerator generator, List<User> users) throws IOException {
+        generator.writeStartArray();
+        for (User user : users) {
+            writeUser(generator, user);
+        }
+        generator.writeEndArray();
+    }
+
+    public void writeUserPage(JsonGenerator generator, Page<User> page) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("items");
+        writeUsers(generator, page.getItems());
+        generator.writeStringField("nextCursor", page.getNextCursor());
+        generator.writeEndObject();
+    }
+}
@@ -1,242 +1,187 @@
 package DAO;
 
 import Model.Book;
+import Model.BookField;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-public class BookDAO {
+/**
+ * Stores the books of the library. JdbcBookDAO keeps them in H2; InMemoryBookDAO keeps them in memory, made durable
+ * by a write-ahead log. Both behave the same: failed writes return null rather than throwing, and lookups that find
+ * nothing return null or an empty list.
+ */
+public interface BookDAO {
 
-    private Connection conn;
+    /**
+     * Registers a listener to be told about every book this DAO inserts or changes from now on.
+     * @param listener
+     */
+    void addWriteListener(BookWriteListener listener);
 
-    public BookDAO(Connection conn){
-        this.conn = conn;
-    }
+    /**
+     * Stores a new book, not signed out by anyone, whatever its signedOutBy says.
+     * @param book book with its id already assigned
+     * @return the book, or null if it could not be stored, e.g. because its id is taken
+     */
+    Book insertBook(Book book);
 
     /**
-     * Method that uses JDBC to insert a book into the database.
-     * @param book
+     * Stores many new books, chunkSize at a time. A book that cannot be stored does not fail the others.
+     * @param books books to insert, with their ids already assigned
+     * @param chunkSize number of books written together
+     * @return list the same size as books holding each inserted book, or null where the insert failed
      */
-    public Book insertBook(Book book){
-        try{
-            PreparedStatement ps = conn.prepareStatement("insert into books (bookId, author, title, signedOutBy) values (?, ?, ?, null)");
-            ps.setInt(1, book.getBookId());
-            ps.setString(2, book.getAuthor());
-            ps.setString(3, book.getTitle());
-            if (ps.executeUpdate() > 0) {
-                return book;
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return null;
-    }
+    List<Book> insertBooks(List<Book> books, int chunkSize);
 
     /**
-     * Method that uses JDBC to parse the resultset of a query that selects all books,
-     * places each book into a java array list, and returns the list.
-     * @return list of books
+     * @return list of every book
      */
-    public List<Book> queryAllBooks(){
-        List<Book> bookList = new ArrayList<>();
-        try{
-            PreparedStatement ps = conn.prepareStatement("select * from books");
-            ResultSet rs = ps.executeQuery();
-            while(rs.next()){
-                int dbBookId = rs.getInt("bookId");
-                String dbAuthor = rs.getString("author");
-                String dbTitle = rs.getString("title");
-                int dbSignedOutBy = rs.getInt("signedOutBy");
-
-                Book dbBook = new Book(dbBookId, dbAuthor, dbTitle, dbSignedOutBy);
-                bookList.add(dbBook);
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return bookList;
-    }
+    List<Book> queryAllBooks();
 
     /**
-     * Method that uses JDBC to parse the resultset of a query that selects books with matching title and author,
-     * places each book into a java array list, and returns the list.
      * @param title
      * @param author
-     * @return list of books
+     * @return list of books with this title and author
      */
-    public List<Book> queryBooksByTitleAndAuthor(String title, String author){
-        List<Book> bookList = new ArrayList<>();
-        try{
-            PreparedStatement ps = conn.prepareStatement("select * from books where title = ? and author = ?");
-            ps.setString(1, title);
-            ps.setString(2, author);
-            ResultSet rs = ps.executeQuery();
-            while(rs.next()){
-                int dbBookId = rs.getInt("bookId");
-                String dbAuthor = rs.getString("author");
-                String dbTitle = rs.getString("title");
-                int dbSignedOutBy = rs.getInt("signedOutBy");
-
-                Book dbBook = new Book(dbBookId, dbAuthor, dbTitle, dbSignedOutBy);
-                bookList.add(dbBook);
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return bookList;
-    }
+    List<Book> queryBooksByTitleAndAuthor(String title, String author);
 
     /**
-     * Method that uses JDBC to parse the resultset of a query that selects books with a matching author,
-     * places each book into a java array list, and returns the list.
      * @param author
-     * @return list of books
+     * @return list of books by this author
      */
-    public List<Book> queryBooksByAuthor(String author){
-        List<Book> bookList = new ArrayList<>();
-        try{
-            PreparedStatement ps = conn.prepareStatement("select * from books where author = ?");
-            ps.setString(1, author);
-            ResultSet rs = ps.executeQuery();
-            while(rs.next()){
-                int dbBookId = rs.getInt("bookId");
-                String dbAuthor = rs.getString("author");
-                String dbTitle = rs.getString("title");
-                int dbSignedOutBy = rs.getInt("signedOutBy");
-
-                Book dbBook = new Book(dbBookId, dbAuthor, dbTitle, dbSignedOutBy);
-                bookList.add(dbBook);
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return bookList;
-    }
+    List<Book> queryBooksByAuthor(String author);
 
     /**
-     * method that uses JDBC to parse the resultset of a query that selects books with a matching title,
-     * places each book into a java array list, and returns the list.
      * @param title
+     * @return list of books with this title
+     */
+    List<Book> queryBooksByTitle(String title);
+
+    /**
+     * @param userId
+     * @return list of books signed out by the user
+     */
+    List<Book> queryBooksSignedOutByUser(int userId);
+
+    /**
+     * @param userId
+     * @return true if at least one book is signed out by the user
+     */
+    boolean hasBooksSignedOutByUser(int userId);
+
+    /**
+     * @param userId
+     * @return number of books signed out by the user
+     */
+    int countBooksSignedOutByUser(int userId);
+
+    /**
+     * Counts the books each user has signed out, used to rebuild the loan counter at startup.
+     * Users without any book signed out are left out.
+     * @return map of user id to number of books signed out
+     */
+    Map<Integer, Integer> countLoansByUser();
+
+    /**
+     * Retrieves one page of books ordered by id, starting after the afterId cursor.
+     * Title and/or author narrow the page when they are not null.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param afterId only books with a greater id are returned
+     * @param limit maximum number of books returned
      * @return list of books
      */
-    public List<Book> queryBooksByTitle(String title){
-        List<Book> bookList = new ArrayList<>();
-        try{
-            PreparedStatement ps = conn.prepareStatement("select * from books where title = ?");
-            ps.setString(1, title);
-            ResultSet rs = ps.executeQuery();
-            while(rs.next()){
-                int dbBookId = rs.getInt("bookId");
-                String dbAuthor = rs.getString("author");
-                String dbTitle = rs.getString("title");
-                int dbSignedOutBy = rs.getInt("signedOutBy");
-
-                Book dbBook = new Book(dbBookId, dbAuthor, dbTitle, dbSignedOutBy);
-                bookList.add(dbBook);
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return bookList;
+    default List<Book> queryBooksPage(String title, String author, int afterId, int limit){
+        return queryBooksPage(title, author, afterId, limit, BookField.ALL);
     }
 
     /**
-     * Method that uses JDBC to parse the resultset of a query that selects books signed out by a specific user,
-     * places each book into a java array list, and returns the list.
-     * @param userId
+     * Retrieves one page of books ordered by id like queryBooksPage, with only the given fields filled in.
+     * The id is always filled in as well, as the cursor for the next page is taken from it.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param afterId only books with a greater id are returned
+     * @param limit maximum number of books returned
+     * @param fields fields to fill in; the others are left at their defaults
+     * @return list of books
+     */
+    List<Book> queryBooksPage(String title, String author, int afterId, int limit, Set<BookField> fields);
+
+    /**
+     * Retrieves every book matching the optional title and author, with only the given fields filled in.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param fields fields to fill in; the others are left at their defaults
      * @return list of books
      */
-    public List<Book> queryBooksSignedOutByUser(int userId) {
-        List<Book> bookList = new ArrayList<>();
-        try{
-            PreparedStatement ps = conn.prepareStatement("select * from books where signedOutBy = ?");
-            ps.setInt(1, userId);
-            ResultSet rs = ps.executeQuery();
-            while(rs.next()){
-                int dbBookId = rs.getInt("bookId");
-                String dbAuthor = rs.getString("author");
-                String dbTitle = rs.getString("title");
-                int dbSignedOutBy = rs.getInt("signedOutBy");
-
-                Book dbBook = new Book(dbBookId, dbAuthor, dbTitle, dbSignedOutBy);
-                bookList.add(dbBook);
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return bookList;
+    List<Book> queryBooks(String title, String author, Set<BookField> fields);
+
+    /**
+     * Hands every book matching the optional title and author to the callback one at a time, without building
+     * the whole list first.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param callback receives each book in turn
+     * @throws IOException thrown by the callback
+     */
+    default void streamBooks(String title, String author, RowCallback<Book> callback) throws IOException {
+        streamBooks(title, author, BookField.ALL, callback);
     }
 
     /**
-     * Method that uses JDBC to retrieve a book from the database by its id and return it, or null if no book is found.
+     * Streams the books matching the optional title and author like streamBooks, with only the given fields filled in.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param fields fields to fill in; the others are left at their defaults
+     * @param callback receives each book in turn
+     * @throws IOException thrown by the callback, which stops the stream
+     */
+    void streamBooks(String title, String author, Set<BookField> fields, RowCallback<Book> callback) throws IOException;
+
+    /**
      * @param bookId
      * @return book or null
      */
-    public Book queryBooksById(int bookId){
-        try{
-            PreparedStatement ps = conn.prepareStatement("select * from books where bookId = ?");
-            ps.setInt(1, bookId);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()){
-                int dbBookId = rs.getInt("bookId");
-                String dbAuthor = rs.getString("author");
-                String dbTitle = rs.getString("title");
-                int dbSignedOutBy = rs.getInt("signedOutBy");
-
-                Book dbBook = new Book(dbBookId, dbAuthor, dbTitle, dbSignedOutBy);
-                return dbBook;
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return null;
-    }
+    Book queryBooksById(int bookId);
 
     /**
-     * Executes SQL statement to update book's signedOutBy property in the database to current user.
-     * When update is successful, returns updated book.
-     * Otherwise, returns null.
+     * Signs the book out to the user, whoever has it now.
      * @param book
-     * @param userId
-     * @return book or null
+     * @param userId an existing user
+     * @return the book, updated, or null if it could not be signed out
      */
-    public Book updateSignedOutBy(Book book, int userId){
-        try{
-            PreparedStatement ps = conn.prepareStatement("update books set signedOutBy = ? where bookId = ?");
-            ps.setInt(1, userId);
-            ps.setInt(2, book.getBookId());
-            if (ps.executeUpdate() > 0) {
-                book.setSignedOutBy(userId);
-                return book;
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return null;
-    }
+    Book updateSignedOutBy(Book book, int userId);
 
     /**
-     * Executes SQL statement to update book's signedOutBy property in the database to null (no user).
-     * When update is successful, returns updated book.
-     * Otherwise, returns null.
+     * Marks the book as signed out by nobody.
      * @param book
-     * @return book or null
+     * @return the book, updated, or null if it could not be returned
      */
-    public Book updateReturnBook(Book book){
-        try{
-            PreparedStatement ps = conn.prepareStatement("update books set signedOutBy = null where bookId = ?");
-            ps.setInt(1, book.getBookId());
-            if (ps.executeUpdate() > 0) {
-                book.setSignedOutBy(0);
-                return book;
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return null;
-    }
+    Book updateReturnBook(Book book);
+
+    /**
+     * Signs the book out to the user only if nobody has it signed out, atomically,
+     * so two users racing for the same book cannot both succeed.
+     * @param bookId
+     * @param userId
+     * @return the signed out book, or null if the book does not exist or is already signed out
+     */
+    Book updateSignedOutByIfAvailable(int bookId, int userId);
+
+    /**
+     * Returns the book only if it is currently signed out by the user, atomically.
+     * @param bookId
+     * @param userId
+     * @return the returned book, or null if the book does not exist or is not signed out by this user
+     */
+    Book updateReturnBookIfSignedOutBy(int bookId, int userId);
+
+    /**
+     * Reserves the next block of book ids by advancing the book id sequence.
+     * @return the hi value of the reserved block, or 0 if it could not be reserved
+     */
+    int nextBookIdBlock();
 }
@@ -0,0 +1,56 @@
+package DAO;
+
+import Model.Book;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Maps rows of the books table to books. Columns the query did not select are left at their defaults:
+ * 0 for ids, null for title and author.
+ */
+final class BookRowMapper implements RowMapper<Book> {
+    private final int bookId;
+    private final int title;
+    private final int author;
+    private final int signedOutBy;
+
+    private BookRowMapper(int bookId, int title, int author, int signedOutBy) {
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+        this.signedOutBy = signedOutBy;
+    }
+
+    /**
+     * @param rs result set of a query on the books table
+     * @return a mapper reading the columns where this result set has them
+     */
+    static BookRowMapper of(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int bookId = 0, title = 0, author = 0, signedOutBy = 0;
+        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+            String label = metaData.getColumnLabel(column);
+            if (label.equalsIgnoreCase("bookId")) {
+                bookId = column;
+            } else if (label.equalsIgnoreCase("title")) {
+                title = column;
+            } else if (label.equalsIgnoreCase("author")) {
+                author = column;
+            } else if (label.equalsIgnoreCase("signedOutBy")) {
+                signedOutBy = column;
+            }
+        }
+        return new BookRowMapper(bookId, title, author, signedOutBy);
+    }
+
+    @Override
+    public Book map(ResultSet rs) throws SQLException {
+        return new Book(
+                bookId == 0 ? 0 : rs.getInt(bookId),
+                author == 0 ? null : rs.getString(author),
+                title == 0 ? null : rs.getString(title),
+                signedOutBy == 0 ? 0 : rs.getInt(signedOutBy));
+    }
+}
@@ -0,0 +1,10 @@
+package DAO;
+
+/**
+ * Told about every book BookDAO changes in the database, once the change is committed.
+ * Listeners are called on the thread that made the change, so they must be quick and must not throw.
+ */
+@FunctionalInterface
+public interface BookWriteListener {
+    void bookWritten(int bookId);
+}
@@ -0,0 +1,308 @@
+package DAO;
+
+import Metrics.DaoMetrics;
+import Metrics.Histogram;
+import Model.Book;
+import Model.BookField;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * BookDAO on an InMemoryStore, for deployments where even a round trip to embedded H2 costs too much.
+ * Lookups by id are map reads, searches by title, author or borrower read the store's indexes, and pages seek on the
+ * id order of the maps, as the queries of JdbcBookDAO do on the table's indexes. Every book handed out is a copy,
+ * so callers can change it freely, as they can books read from the database.
+ */
+public class InMemoryBookDAO implements BookDAO {
+
+    /**
+     * before every id, for listings that start at the first book
+     */
+    private static final int FIRST = Integer.MIN_VALUE;
+
+    private static final Histogram INSERT_BOOK_TIMER = DaoMetrics.timer("InMemoryBookDAO", "insertBook");
+    private static final Histogram INSERT_BOOKS_TIMER = DaoMetrics.timer("InMemoryBookDAO", "insertBooks");
+    private static final Histogram QUERY_ALL_BOOKS_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryAllBooks");
+    private static final Histogram QUERY_BOOKS_BY_TITLE_AND_AUTHOR_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryBooksByTitleAndAuthor");
+    private static final Histogram QUERY_BOOKS_BY_AUTHOR_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryBooksByAuthor");
+    private static final Histogram QUERY_BOOKS_BY_TITLE_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryBooksByTitle");
+    private static final Histogram QUERY_BOOKS_SIGNED_OUT_BY_USER_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryBooksSignedOutByUser");
+    private static final Histogram HAS_BOOKS_SIGNED_OUT_BY_USER_TIMER = DaoMetrics.timer("InMemoryBookDAO", "hasBooksSignedOutByUser");
+    private static final Histogram COUNT_BOOKS_SIGNED_OUT_BY_USER_TIMER = DaoMetrics.timer("InMemoryBookDAO", "countBooksSignedOutByUser");
+    private static final Histogram COUNT_LOANS_BY_USER_TIMER = DaoMetrics.timer("InMemoryBookDAO", "countLoansByUser");
+    private static final Histogram QUERY_BOOKS_PAGE_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryBooksPage");
+    private static final Histogram QUERY_BOOKS_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryBooks");
+    private static final Histogram STREAM_BOOKS_TIMER = DaoMetrics.timer("InMemoryBookDAO", "streamBooks");
+    private static final Histogram QUERY_BOOKS_BY_ID_TIMER = DaoMetrics.timer("InMemoryBookDAO", "queryBooksById");
+    private static final Histogram UPDATE_SIGNED_OUT_BY_TIMER = DaoMetrics.timer("InMemoryBookDAO", "updateSignedOutBy");
+    private static final Histogram UPDATE_RETURN_BOOK_TIMER = DaoMetrics.timer("InMemoryBookDAO", "updateReturnBook");
+    private static final Histogram UPDATE_SIGNED_OUT_BY_IF_AVAILABLE_TIMER = DaoMetrics.timer("InMemoryBookDAO", "updateSignedOutByIfAvailable");
+    private static final Histogram UPDATE_RETURN_BOOK_IF_SIGNED_OUT_BY_TIMER = DaoMetrics.timer("InMemoryBookDAO", "updateReturnBookIfSignedOutBy");
+    private static final Histogram NEXT_BOOK_ID_BLOCK_TIMER = DaoMetrics.timer("InMemoryBookDAO", "nextBookIdBlock");
+
+    private final InMemoryStore store;
+    private final List<BookWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    public InMemoryBookDAO(InMemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void addWriteListener(BookWriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    private void notifyWritten(int bookId) {
+        for (BookWriteListener listener : writeListeners) {
+            listener.bookWritten(bookId);
+        }
+    }
+
+    @Override
+    public Book insertBook(Book book) {
+        return timed(INSERT_BOOK_TIMER, () -> insert(book));
+    }
+
+    private Book insert(Book book) {
+        if (store.insertBook(book)) {
+            notifyWritten(book.getBookId());
+            return book;
+        }
+        return null;
+    }
+
+    /**
+     * Inserts the books one at a time; with nothing to round trip to, chunking saves nothing.
+     */
+    @Override
+    public List<Book> insertBooks(List<Book> books, int chunkSize) {
+        return timed(INSERT_BOOKS_TIMER, () -> {
+            List<Book> inserted = new ArrayList<>(books.size());
+            for (Book book : books) {
+                inserted.add(insert(book));
+            }
+            return inserted;
+        });
+    }
+
+    @Override
+    public List<Book> queryAllBooks() {
+        return timed(QUERY_ALL_BOOKS_TIMER, () -> list(null, null, BookField.ALL));
+    }
+
+    @Override
+    public List<Book> queryBooksByTitleAndAuthor(String title, String author) {
+        return timed(QUERY_BOOKS_BY_TITLE_AND_AUTHOR_TIMER, () -> list(title, author, BookField.ALL));
+    }
+
+    @Override
+    public List<Book> queryBooksByAuthor(String author) {
+        return timed(QUERY_BOOKS_BY_AUTHOR_TIMER, () -> list(null, author, BookField.ALL));
+    }
+
+    @Override
+    public List<Book> queryBooksByTitle(String title) {
+        return timed(QUERY_BOOKS_BY_TITLE_TIMER, () -> list(title, null, BookField.ALL));
+    }
+
+    @Override
+    public List<Book> queryBooksSignedOutByUser(int userId) {
+        return timed(QUERY_BOOKS_SIGNED_OUT_BY_USER_TIMER,
+                () -> signedOutBy(userId).map(InMemoryBookDAO::copy).collect(Collectors.toList()));
+    }
+
+    @Override
+    public boolean hasBooksSignedOutByUser(int userId) {
+        return timed(HAS_BOOKS_SIGNED_OUT_BY_USER_TIMER, () -> signedOutBy(userId).findAny().isPresent());
+    }
+
+    @Override
+    public int countBooksSignedOutByUser(int userId) {
+        return timed(COUNT_BOOKS_SIGNED_OUT_BY_USER_TIMER, () -> (int) signedOutBy(userId).count());
+    }
+
+    @Override
+    public Map<Integer, Integer> countLoansByUser() {
+        return timed(COUNT_LOANS_BY_USER_TIMER, () -> {
+            Map<Integer, Integer> loans = new HashMap<>();
+            for (int userId : store.loans().keySet()) {
+                int count = (int) signedOutBy(userId).count();
+                if (count > 0) {
+                    loans.put(userId, count);
+                }
+            }
+            return loans;
+        });
+    }
+
+    @Override
+    public List<Book> queryBooksPage(String title, String author, int afterId, int limit, Set<BookField> fields) {
+        Set<BookField> withBookId = EnumSet.noneOf(BookField.class);
+        withBookId.addAll(fields);
+        withBookId.add(BookField.BOOK_ID);
+        return timed(QUERY_BOOKS_PAGE_TIMER, () -> matching(title, author, afterId).limit(limit)
+                .map(book -> project(book, withBookId))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<Book> queryBooks(String title, String author, Set<BookField> fields) {
+        return timed(QUERY_BOOKS_TIMER, () -> list(title, author, fields));
+    }
+
+    private List<Book> list(String title, String author, Set<BookField> fields) {
+        return matching(title, author, FIRST).map(book -> project(book, fields)).collect(Collectors.toList());
+    }
+
+    @Override
+    public void streamBooks(String title, String author, Set<BookField> fields, RowCallback<Book> callback) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Iterator<Book> books = matching(title, author, FIRST).iterator();
+            while (books.hasNext()) {
+                callback.accept(project(books.next(), fields));
+            }
+        } finally {
+            STREAM_BOOKS_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * @return the stored books matching the optional title and author with a greater id than afterId, in id order,
+     * read from the narrowest index that applies
+     */
+    private Stream<Book> matching(String title, String author, int afterId) {
+        Stream<Book> candidates;
+        if (title != null) {
+            candidates = books(store.bookIdsWithTitle(title), afterId);
+        } else if (author != null) {
+            candidates = books(store.bookIdsByAuthor(author), afterId);
+        } else {
+            candidates = store.booksAfter(afterId).values().stream();
+        }
+        return candidates.filter(book -> (title == null || title.equals(book.getTitle()))
+                && (author == null || author.equals(book.getAuthor())));
+    }
+
+    /**
+     * @return the stored books with the ids after afterId, skipping any deleted since the ids were read
+     */
+    private Stream<Book> books(NavigableSet<Integer> bookIds, int afterId) {
+        return bookIds.tailSet(afterId, false).stream().map(store::getBook).filter(Objects::nonNull);
+    }
+
+    private Stream<Book> signedOutBy(int userId) {
+        return books(store.bookIdsSignedOutBy(userId), FIRST).filter(book -> book.getSignedOutBy() == userId);
+    }
+
+    private static Book copy(Book book) {
+        return new Book(book.getBookId(), book.getAuthor(), book.getTitle(), book.getSignedOutBy());
+    }
+
+    /**
+     * @return a copy of the book with only the given fields set, the others left at their defaults
+     */
+    private static Book project(Book book, Set<BookField> fields) {
+        if (fields.containsAll(BookField.ALL)) {
+            return copy(book);
+        }
+        Book projected = new Book();
+        if (fields.contains(BookField.BOOK_ID)) {
+            projected.setBookId(book.getBookId());
+        }
+        if (fields.contains(BookField.TITLE)) {
+            projected.setTitle(book.getTitle());
+        }
+        if (fields.contains(BookField.AUTHOR)) {
+            projected.setAuthor(book.getAuthor());
+        }
+        if (fields.contains(BookField.SIGNED_OUT_BY)) {
+            projected.setSignedOutBy(book.getSignedOutBy());
+        }
+        return projected;
+    }
+
+    @Override
+    public Book queryBooksById(int bookId) {
+        return timed(QUERY_BOOKS_BY_ID_TIMER, () -> {
+            Book book = store.getBook(bookId);
+            return book == null ? null : copy(book);
+        });
+    }
+
+    @Override
+    public Book updateSignedOutBy(Book book, int userId) {
+        return timed(UPDATE_SIGNED_OUT_BY_TIMER, () -> {
+            // 0 means nobody to the store, so it would return the book; like the JDBC foreign key, refuse it
+            if (userId <= 0 || store.updateSignedOutBy(book.getBookId(), holder -> true, userId) == null) {
+                return null;
+            }
+            notifyWritten(book.getBookId());
+            book.setSignedOutBy(userId);
+            return book;
+        });
+    }
+
+    @Override
+    public Book updateReturnBook(Book book) {
+        return timed(UPDATE_RETURN_BOOK_TIMER, () -> {
+            if (store.updateSignedOutBy(book.getBookId(), holder -> true, 0) == null) {
+                return null;
+            }
+            notifyWritten(book.getBookId());
+            book.setSignedOutBy(0);
+            return book;
+        });
+    }
+
+    @Override
+    public Book updateSignedOutByIfAvailable(int bookId, int userId) {
+        return timed(UPDATE_SIGNED_OUT_BY_IF_AVAILABLE_TIMER, () -> userId <= 0 ? null
+                : updated(store.updateSignedOutBy(bookId, holder -> holder == 0, userId)));
+    }
+
+    @Override
+    public Book updateReturnBookIfSignedOutBy(int bookId, int userId) {
+        return timed(UPDATE_RETURN_BOOK_IF_SIGNED_OUT_BY_TIMER,
+                () -> updated(store.updateSignedOutBy(bookId, holder -> holder != 0 && holder == userId, 0)));
+    }
+
+    private Book updated(Book book) {
+        if (book == null) {
+            return null;
+        }
+        notifyWritten(book.getBookId());
+        return copy(book);
+    }
+
+    @Override
+    public int nextBookIdBlock() {
+        return timed(NEXT_BOOK_ID_BLOCK_TIMER, store::nextBookIdBlock);
+    }
+
+    /**
+     * Times the call like the JDBC DAO times its queries, so the same metrics, and the admission control reading
+     * them, work whichever engine is in use.
+     */
+    static <T> T timed(Histogram timer, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            timer.recordSince(start);
+        }
+    }
+}
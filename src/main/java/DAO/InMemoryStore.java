@@ -0,0 +1,569 @@
+package DAO;
+
+import Metrics.DaoMetrics;
+import Metrics.Histogram;
+import Model.Book;
+import Model.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * The data of the in-memory storage engine: users and books in concurrent maps ordered by id, indexes on title,
+ * author and signedOutBy like the books table's, and the id sequences. InMemoryUserDAO and InMemoryBookDAO share one
+ * store, so a checkout can check that the user exists and a deletion that the user has no books signed out, as the
+ * foreign key does in H2.
+ *
+ * Every change is appended to a write-ahead log before it is applied, one at a time under a lock, so the log holds
+ * the changes in the order they were made. A record holds the new state of a whole row rather than a difference,
+ * so replaying one twice does no harm. Once snapshotEvery records have been logged, the whole store is written to a
+ * snapshot and the log is emptied. Opening a store loads the snapshot and replays the log on top of it; a record cut
+ * short by a crash fails its checksum and is dropped, along with anything after it, as its write never returned.
+ *
+ * Reads take no lock and see each change once it has been applied. A change is handed to the operating system before
+ * its write returns, which survives the process crashing; with syncWrites it is also forced to disk, so it survives
+ * the machine going down too, at the cost of a disk flush per write.
+ */
+public class InMemoryStore implements Closeable {
+
+    static final String LOG_FILE = "library.wal";
+    static final String SNAPSHOT_FILE = "library.snapshot";
+
+    private static final byte PUT_USER = 1;
+    private static final byte DELETE_USER = 2;
+    private static final byte PUT_BOOK = 3;
+    private static final byte BOOK_ID_HI = 4;
+    private static final byte USER_ID_HI = 5;
+    /**
+     * length and checksum in front of every record
+     */
+    private static final int HEADER_BYTES = 8;
+
+    private static final Histogram APPEND_TIMER = DaoMetrics.timer("InMemoryStore", "append");
+    private static final Histogram SNAPSHOT_TIMER = DaoMetrics.timer("InMemoryStore", "snapshot");
+
+    /**
+     * Writes the fields of a log record after its type.
+     */
+    @FunctionalInterface
+    private interface Fields {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final ConcurrentSkipListMap<Integer, User> users = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Integer> userIdsByName = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Book> books = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<Integer>> bookIdsByTitle = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<Integer>> bookIdsByAuthor = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, NavigableSet<Integer>> bookIdsBySignedOutBy = new ConcurrentHashMap<>();
+    private volatile int bookIdHi;
+    private volatile int userIdHi;
+
+    /**
+     * guards the log and every change; a lock rather than synchronized, as writes wait on the disk
+     * and a virtual thread must not block inside a monitor
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Path directory;
+    private final int snapshotEvery;
+    private final boolean syncWrites;
+    private FileChannel log;
+    private volatile int loggedRecords;
+
+    private InMemoryStore(Path directory, int snapshotEvery, boolean syncWrites) {
+        this.directory = directory;
+        this.snapshotEvery = snapshotEvery;
+        this.syncWrites = syncWrites;
+    }
+
+    /**
+     * Opens the store kept in the directory, recovering everything written to it before it was last closed or the
+     * process died, or creates an empty one.
+     * @param directory holds the log and the snapshot; created if missing
+     * @param snapshotEvery number of logged changes after which a snapshot is taken and the log emptied
+     * @param syncWrites whether every change is forced to disk before its write returns
+     * @return the store
+     * @throws IOException if the directory cannot be used or the snapshot is damaged
+     */
+    public static InMemoryStore open(Path directory, int snapshotEvery, boolean syncWrites) throws IOException {
+        InMemoryStore store = new InMemoryStore(directory, snapshotEvery, syncWrites);
+        store.recover();
+        return store;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel in = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                long valid = replay(in);
+                // snapshots are written in full before they replace the last one, so damage is not a crash
+                if (valid != in.size()) {
+                    throw new IOException("Snapshot " + snapshot + " is damaged after byte " + valid);
+                }
+            }
+        }
+        log = FileChannel.open(directory.resolve(LOG_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loggedRecords = 0;
+        long valid = replay(log);
+        if (valid < log.size()) {
+            // the end of a write cut short by a crash
+            log.truncate(valid);
+            log.force(false);
+        }
+        log.position(valid);
+    }
+
+    /**
+     * Applies the records in the file, from its start, until its end or the first damaged record.
+     * @return the number of bytes holding whole, undamaged records
+     */
+    private long replay(FileChannel in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in.position(0))));
+        long size = in.size();
+        long valid = 0;
+        while (valid + HEADER_BYTES <= size) {
+            int length = data.readInt();
+            int checksum = data.readInt();
+            if (length <= 0 || valid + HEADER_BYTES + length > size) {
+                break;
+            }
+            byte[] record = new byte[length];
+            data.readFully(record);
+            if (checksum(record) != checksum) {
+                break;
+            }
+            apply(record);
+            valid += HEADER_BYTES + length;
+            loggedRecords++;
+        }
+        return valid;
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] record(byte type, Fields fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        fields.write(out);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] userRecord(User user) throws IOException {
+        return record(PUT_USER, out -> {
+            out.writeInt(user.getUserId());
+            writeString(out, user.getUsername());
+        });
+    }
+
+    private static byte[] bookRecord(Book book) throws IOException {
+        return record(PUT_BOOK, out -> {
+            out.writeInt(book.getBookId());
+            writeString(out, book.getAuthor());
+            writeString(out, book.getTitle());
+            out.writeInt(book.getSignedOutBy());
+        });
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * @return the record with its length and checksum in front, as it is stored
+     */
+    private static ByteBuffer frame(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + record.length);
+        buffer.putInt(record.length).putInt(checksum(record)).put(record).flip();
+        return buffer;
+    }
+
+    /**
+     * Changes the maps as the record says. Used both for live changes and for recovery, so the two cannot disagree.
+     */
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        switch (type) {
+            case PUT_USER:
+                putUser(new User(in.readInt(), readString(in)));
+                break;
+            case DELETE_USER:
+                removeUser(in.readInt());
+                break;
+            case PUT_BOOK:
+                putBook(new Book(in.readInt(), readString(in), readString(in), in.readInt()));
+                break;
+            case BOOK_ID_HI:
+                bookIdHi = in.readInt();
+                break;
+            case USER_ID_HI:
+                userIdHi = in.readInt();
+                break;
+            default:
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    private void putUser(User user) {
+        User previous = users.put(user.getUserId(), user);
+        if (previous != null && previous.getUsername() != null) {
+            userIdsByName.remove(previous.getUsername(), previous.getUserId());
+        }
+        if (user.getUsername() != null) {
+            userIdsByName.put(user.getUsername(), user.getUserId());
+        }
+    }
+
+    private void removeUser(int userId) {
+        User previous = users.remove(userId);
+        if (previous != null && previous.getUsername() != null) {
+            userIdsByName.remove(previous.getUsername(), userId);
+        }
+    }
+
+    private void putBook(Book book) {
+        // the row first, so anyone finding the id in an index finds the book
+        Book previous = books.put(book.getBookId(), book);
+        reindex(bookIdsByTitle, previous == null ? null : previous.getTitle(), book.getTitle(), book.getBookId());
+        reindex(bookIdsByAuthor, previous == null ? null : previous.getAuthor(), book.getAuthor(), book.getBookId());
+        reindex(bookIdsBySignedOutBy, previous == null ? null : holder(previous), holder(book), book.getBookId());
+    }
+
+    private static Integer holder(Book book) {
+        return book.getSignedOutBy() == 0 ? null : book.getSignedOutBy();
+    }
+
+    /**
+     * Moves the book from one index key to another, adding it under the new key before taking it from the old,
+     * so it is never missing from a search it matches. Only called by the single writer.
+     */
+    private static <K> void reindex(Map<K, NavigableSet<Integer>> index, K before, K after, int bookId) {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        if (after != null) {
+            index.computeIfAbsent(after, key -> new ConcurrentSkipListSet<>()).add(bookId);
+        }
+        if (before != null) {
+            index.computeIfPresent(before, (key, bookIds) -> {
+                bookIds.remove(bookId);
+                return bookIds.isEmpty() ? null : bookIds;
+            });
+        }
+    }
+
+    /**
+     * Logs the change, then applies it. The caller holds the write lock.
+     * If the log cannot be written the change is not applied, and whatever part of it was written is cut off again.
+     */
+    private void write(byte[] record) throws IOException {
+        long start = System.nanoTime();
+        long end = log.position();
+        try {
+            ByteBuffer buffer = frame(record);
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            if (syncWrites) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            log.truncate(end);
+            log.position(end);
+            throw e;
+        } finally {
+            APPEND_TIMER.recordSince(start);
+        }
+        apply(record);
+        if (++loggedRecords >= snapshotEvery) {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                // the change is logged; the next write tries again
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the whole store to a new snapshot, replacing the last one, then empties the log.
+     * Changes wait while the snapshot is written; reads do not.
+     * @throws IOException if the snapshot could not be written, leaving the last snapshot and the log as they were
+     */
+    public void snapshot() throws IOException {
+        writeLock.lock();
+        long start = System.nanoTime();
+        try {
+            Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 BufferedOutputStream out = new BufferedOutputStream(file)) {
+                int lastUserId = userIdHi;
+                int lastBookId = bookIdHi;
+                writeFramed(out, record(USER_ID_HI, data -> data.writeInt(lastUserId)));
+                writeFramed(out, record(BOOK_ID_HI, data -> data.writeInt(lastBookId)));
+                // users before books, as in the log, where a book can only name an existing user
+                for (User user : users.values()) {
+                    writeFramed(out, userRecord(user));
+                }
+                for (Book book : books.values()) {
+                    writeFramed(out, bookRecord(book));
+                }
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            // everything in the log is in the snapshot now
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+            loggedRecords = 0;
+        } finally {
+            SNAPSHOT_TIMER.recordSince(start);
+            writeLock.unlock();
+        }
+    }
+
+    private static void writeFramed(BufferedOutputStream out, byte[] record) throws IOException {
+        out.write(frame(record).array());
+    }
+
+    /**
+     * @return number of changes in the log since the last snapshot
+     */
+    public int getLoggedRecords() {
+        return loggedRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            log.force(true);
+            log.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the user was stored; false if its id or username is taken or the log could not be written
+     */
+    boolean insertUser(User user) {
+        writeLock.lock();
+        try {
+            if (users.containsKey(user.getUserId())
+                    || (user.getUsername() != null && userIdsByName.containsKey(user.getUsername()))) {
+                return false;
+            }
+            write(userRecord(user));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if the user was deleted; false if there is no such user, it still has books signed out
+     * or the log could not be written
+     */
+    boolean deleteUser(int userId) {
+        writeLock.lock();
+        try {
+            if (!users.containsKey(userId) || bookIdsBySignedOutBy.containsKey(userId)) {
+                return false;
+            }
+            write(record(DELETE_USER, out -> out.writeInt(userId)));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stores the book, not signed out by anyone.
+     * @return true if the book was stored; false if its id is taken or the log could not be written
+     */
+    boolean insertBook(Book book) {
+        writeLock.lock();
+        try {
+            if (books.containsKey(book.getBookId())) {
+                return false;
+            }
+            write(bookRecord(new Book(book.getBookId(), book.getAuthor(), book.getTitle())));
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Changes who has the book signed out, if whoever has it now passes the check, in one step.
+     * @param bookId
+     * @param holder checks the user who has the book now, 0 for nobody
+     * @param signedOutBy an existing user, or 0 for nobody
+     * @return the book as it now is, or null if there is no such book, the check failed, the user does not exist
+     * or the log could not be written
+     */
+    Book updateSignedOutBy(int bookId, IntPredicate holder, int signedOutBy) {
+        writeLock.lock();
+        try {
+            Book book = books.get(bookId);
+            if (book == null || !holder.test(book.getSignedOutBy())
+                    || (signedOutBy != 0 && !users.containsKey(signedOutBy))) {
+                return null;
+            }
+            Book updated = new Book(bookId, book.getAuthor(), book.getTitle(), signedOutBy);
+            write(bookRecord(updated));
+            return updated;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the next value of the book id sequence, or 0 if the log could not be written
+     */
+    int nextBookIdBlock() {
+        writeLock.lock();
+        try {
+            int next = bookIdHi + 1;
+            write(record(BOOK_ID_HI, out -> out.writeInt(next)));
+            return next;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the next value of the user id sequence, or 0 if the log could not be written
+     */
+    int nextUserIdBlock() {
+        writeLock.lock();
+        try {
+            int next = userIdHi + 1;
+            write(record(USER_ID_HI, out -> out.writeInt(next)));
+            return next;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Reads hand out the stored objects, which are replaced rather than changed; the DAOs copy them for callers.
+
+    User getUser(int userId) {
+        return users.get(userId);
+    }
+
+    boolean hasUsername(String username) {
+        return userIdsByName.containsKey(username);
+    }
+
+    /**
+     * @return users with a greater id than afterId, in id order
+     */
+    NavigableMap<Integer, User> usersAfter(int afterId) {
+        return users.tailMap(afterId, false);
+    }
+
+    Book getBook(int bookId) {
+        return books.get(bookId);
+    }
+
+    /**
+     * @return books with a greater id than afterId, in id order
+     */
+    NavigableMap<Integer, Book> booksAfter(int afterId) {
+        return books.tailMap(afterId, false);
+    }
+
+    Collection<Book> books() {
+        return books.values();
+    }
+
+    /**
+     * @return ids of the books with this title, in order; may include books changed since, so check each book
+     */
+    NavigableSet<Integer> bookIdsWithTitle(String title) {
+        return bookIdsByTitle.getOrDefault(title, Collections.emptyNavigableSet());
+    }
+
+    /**
+     * @return ids of the books by this author, in order; may include books changed since, so check each book
+     */
+    NavigableSet<Integer> bookIdsByAuthor(String author) {
+        return bookIdsByAuthor.getOrDefault(author, Collections.emptyNavigableSet());
+    }
+
+    /**
+     * @return ids of the books signed out by this user, in order; may include books changed since, so check each book
+     */
+    NavigableSet<Integer> bookIdsSignedOutBy(int userId) {
+        return bookIdsBySignedOutBy.getOrDefault(userId, Collections.emptyNavigableSet());
+    }
+
+    /**
+     * @return ids of the books signed out, by the user who has them
+     */
+    Map<Integer, NavigableSet<Integer>> loans() {
+        return bookIdsBySignedOutBy;
+    }
+}
@@ -0,0 +1,107 @@
+package DAO;
+
+import Metrics.DaoMetrics;
+import Metrics.Histogram;
+import Model.User;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * UserDAO on an InMemoryStore, sharing the store with the InMemoryBookDAO whose books the users sign out.
+ * Every user handed out is a copy.
+ */
+public class InMemoryUserDAO implements UserDAO {
+
+    private static final Histogram CREATE_USER_TIMER = DaoMetrics.timer("InMemoryUserDAO", "createUser");
+    private static final Histogram GET_ALL_USERS_TIMER = DaoMetrics.timer("InMemoryUserDAO", "getAllUsers");
+    private static final Histogram GET_USERS_PAGE_TIMER = DaoMetrics.timer("InMemoryUserDAO", "getUsersPage");
+    private static final Histogram GET_USER_BY_ID_TIMER = DaoMetrics.timer("InMemoryUserDAO", "getUserById");
+    private static final Histogram USER_EXISTS_TIMER = DaoMetrics.timer("InMemoryUserDAO", "userExists");
+    private static final Histogram DELETE_USER_TIMER = DaoMetrics.timer("InMemoryUserDAO", "deleteUser");
+    private static final Histogram NEXT_USER_ID_BLOCK_TIMER = DaoMetrics.timer("InMemoryUserDAO", "nextUserIdBlock");
+
+    private final InMemoryStore store;
+    private final List<UserWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    public InMemoryUserDAO(InMemoryStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void addWriteListener(UserWriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    private void notifyWritten(int userId) {
+        for (UserWriteListener listener : writeListeners) {
+            listener.userWritten(userId);
+        }
+    }
+
+    @Override
+    public User createUser(User user) {
+        return InMemoryBookDAO.timed(CREATE_USER_TIMER, () -> {
+            if (store.insertUser(user)) {
+                notifyWritten(user.getUserId());
+                return user;
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<User> getAllUsers() {
+        return InMemoryBookDAO.timed(GET_ALL_USERS_TIMER, () -> page(Integer.MIN_VALUE, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public List<User> getUsersPage(int afterId, int limit) {
+        return InMemoryBookDAO.timed(GET_USERS_PAGE_TIMER, () -> page(afterId, limit));
+    }
+
+    private List<User> page(int afterId, int limit) {
+        return store.usersAfter(afterId).values().stream().limit(limit)
+                .map(InMemoryUserDAO::copy)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public User getUserById(int userId) {
+        return InMemoryBookDAO.timed(GET_USER_BY_ID_TIMER, () -> {
+            User user = store.getUser(userId);
+            return user == null ? null : copy(user);
+        });
+    }
+
+    @Override
+    public Boolean userExists(String username) {
+        return InMemoryBookDAO.timed(USER_EXISTS_TIMER, () -> username != null && store.hasUsername(username));
+    }
+
+    @Override
+    public Boolean userExists(int userId) {
+        return InMemoryBookDAO.timed(USER_EXISTS_TIMER, () -> store.getUser(userId) != null);
+    }
+
+    @Override
+    public User deleteUser(User user) {
+        return InMemoryBookDAO.timed(DELETE_USER_TIMER, () -> {
+            if (store.deleteUser(user.getUserId())) {
+                notifyWritten(user.getUserId());
+                return user;
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public int nextUserIdBlock() {
+        return InMemoryBookDAO.timed(NEXT_USER_ID_BLOCK_TIMER, store::nextUserIdBlock);
+    }
+
+    private static User copy(User user) {
+        return new User(user.getUserId(), user.getUsername());
+    }
+}
@@ -0,0 +1,986 @@
+package DAO;
+
+import Cache.BookCache;
+import Cache.NoOpBookCache;
+import Metrics.DaoMetrics;
+import Metrics.Histogram;
+import Model.Book;
+import Model.BookField;
+import Util.Config;
+import Util.ReadRouting;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+public class JdbcBookDAO implements BookDAO {
+
+    public static final String INSERT_BOOK = "insert into books (bookId, author, title, signedOutBy) values (?, ?, ?, null)";
+    /**
+     * The columns every query that reads whole books selects, in the order a Book is written.
+     */
+    public static final String BOOK_COLUMNS = "bookId, title, author, signedOutBy";
+    public static final String SELECT_ALL_BOOKS = "select " + BOOK_COLUMNS + " from books";
+    public static final String SELECT_BY_TITLE_AND_AUTHOR = SELECT_ALL_BOOKS + " where title = ? and author = ?";
+    public static final String SELECT_BY_AUTHOR = SELECT_ALL_BOOKS + " where author = ?";
+    public static final String SELECT_BY_TITLE = SELECT_ALL_BOOKS + " where title = ?";
+    public static final String SELECT_BY_SIGNED_OUT_BY = SELECT_ALL_BOOKS + " where signedOutBy = ?";
+    public static final String EXISTS_SIGNED_OUT_BY = "select exists (select 1 from books where signedOutBy = ?)";
+    public static final String COUNT_SIGNED_OUT_BY = "select count(*) from books where signedOutBy = ?";
+    public static final String COUNT_LOANS_BY_USER = "select signedOutBy, count(*) from books " +
+            "where signedOutBy is not null group by signedOutBy";
+    public static final String SELECT_BY_ID = SELECT_ALL_BOOKS + " where bookId = ?";
+    public static final String UPDATE_SIGNED_OUT_BY = "update books set signedOutBy = ? where bookId = ?";
+    public static final String SELECT_PAGE = SELECT_ALL_BOOKS + " where bookId > ? order by bookId limit ?";
+    public static final String SELECT_PAGE_BY_TITLE = SELECT_ALL_BOOKS + " where title = ? and bookId > ? order by bookId limit ?";
+    public static final String SELECT_PAGE_BY_AUTHOR = SELECT_ALL_BOOKS + " where author = ? and bookId > ? order by bookId limit ?";
+    public static final String SELECT_PAGE_BY_TITLE_AND_AUTHOR = SELECT_ALL_BOOKS + " where title = ? and author = ? and bookId > ? order by bookId limit ?";
+    public static final String UPDATE_RETURN_BOOK = "update books set signedOutBy = null where bookId = ?";
+    public static final String NEXT_ID_BLOCK = "select next value for book_id_hi";
+    public static final String UPDATE_SIGNED_OUT_BY_IF_AVAILABLE =
+            "update books set signedOutBy = ? where bookId = ? and signedOutBy is null";
+    public static final String UPDATE_RETURN_BOOK_IF_SIGNED_OUT_BY =
+            "update books set signedOutBy = null where bookId = ? and signedOutBy = ?";
+
+    private static final Map<Integer, String> SELECT_BOOKS_QUERIES = new ConcurrentHashMap<>();
+
+    /**
+     * Number of rows pulled from the database at a time while streaming.
+     */
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private static final Histogram INSERT_BOOK_TIMER = DaoMetrics.timer("BookDAO", "insertBook");
+    private static final Histogram INSERT_BOOKS_TIMER = DaoMetrics.timer("BookDAO", "insertBooks");
+    private static final Histogram QUERY_ALL_BOOKS_TIMER = DaoMetrics.timer("BookDAO", "queryAllBooks");
+    private static final Histogram QUERY_BOOKS_BY_TITLE_AND_AUTHOR_TIMER = DaoMetrics.timer("BookDAO", "queryBooksByTitleAndAuthor");
+    private static final Histogram QUERY_BOOKS_BY_AUTHOR_TIMER = DaoMetrics.timer("BookDAO", "queryBooksByAuthor");
+    private static final Histogram QUERY_BOOKS_BY_TITLE_TIMER = DaoMetrics.timer("BookDAO", "queryBooksByTitle");
+    private static final Histogram QUERY_BOOKS_SIGNED_OUT_BY_USER_TIMER = DaoMetrics.timer("BookDAO", "queryBooksSignedOutByUser");
+    private static final Histogram HAS_BOOKS_SIGNED_OUT_BY_USER_TIMER = DaoMetrics.timer("BookDAO", "hasBooksSignedOutByUser");
+    private static final Histogram COUNT_BOOKS_SIGNED_OUT_BY_USER_TIMER = DaoMetrics.timer("BookDAO", "countBooksSignedOutByUser");
+    private static final Histogram COUNT_LOANS_BY_USER_TIMER = DaoMetrics.timer("BookDAO", "countLoansByUser");
+    private static final Histogram QUERY_BOOKS_TIMER = DaoMetrics.timer("BookDAO", "queryBooks");
+    private static final Histogram QUERY_BOOKS_PAGE_TIMER = DaoMetrics.timer("BookDAO", "queryBooksPage");
+    private static final Histogram STREAM_BOOKS_TIMER = DaoMetrics.timer("BookDAO", "streamBooks");
+    private static final Histogram QUERY_BOOKS_BY_ID_TIMER = DaoMetrics.timer("BookDAO", "queryBooksById");
+    private static final Histogram UPDATE_SIGNED_OUT_BY_TIMER = DaoMetrics.timer("BookDAO", "updateSignedOutBy");
+    private static final Histogram UPDATE_RETURN_BOOK_TIMER = DaoMetrics.timer("BookDAO", "updateReturnBook");
+    private static final Histogram UPDATE_SIGNED_OUT_BY_IF_AVAILABLE_TIMER = DaoMetrics.timer("BookDAO", "updateSignedOutByIfAvailable");
+    private static final Histogram UPDATE_RETURN_BOOK_IF_SIGNED_OUT_BY_TIMER = DaoMetrics.timer("BookDAO", "updateReturnBookIfSignedOutBy");
+    private static final Histogram NEXT_BOOK_ID_BLOCK_TIMER = DaoMetrics.timer("BookDAO", "nextBookIdBlock");
+
+    private DataSource dataSource;
+    private List<DataSource> shards;
+    private List<DataSource> replicaShards;
+    private StatementCache statementCache = StatementCache.getInstance();
+    private BookCache bookCache;
+    private final List<BookWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    public JdbcBookDAO(DataSource dataSource){
+        this(dataSource, new NoOpBookCache());
+    }
+
+    /**
+     * @param dataSource
+     * @param bookCache read-through cache for lookups by id, kept up to date by every write in this DAO
+     */
+    public JdbcBookDAO(DataSource dataSource, BookCache bookCache){
+        this(dataSource, dataSource, bookCache);
+    }
+
+    /**
+     * Listings and searches are read from the replica, which may lag behind the primary, unless ReadRouting sends
+     * the calling thread's reads to the primary. Writes, and every read a write or checkout decision rests on,
+     * including lookups by id, which feed the book cache, go to the primary.
+     * @param dataSource the primary
+     * @param replicaDataSource read replica of the primary, or the primary itself
+     * @param bookCache read-through cache for lookups by id, kept up to date by every write in this DAO
+     */
+    public JdbcBookDAO(DataSource dataSource, DataSource replicaDataSource, BookCache bookCache){
+        this(List.of(dataSource), List.of(replicaDataSource), bookCache);
+    }
+
+    /**
+     * Spreads the books over several databases, each book living in the shard its id hashes to (see shardOf).
+     * Inserts, lookups by id and checkouts go to that one shard; listings, searches and loan checks ask every shard
+     * at once on the fan-out pool and merge the answers. The id sequence stays in the first shard, the library
+     * database, which also holds the users; the other shards cannot check that a book's signedOutBy names a user, so
+     * checkouts of their books look the user up in the library database first.
+     * The number of shards must never change once books have been stored, or books would be looked for in the
+     * wrong shard.
+     * @param shards the library database, then the extra book shards
+     * @param bookCache read-through cache for lookups by id, kept up to date by every write in this DAO
+     */
+    public JdbcBookDAO(List<DataSource> shards, BookCache bookCache){
+        this(shards, shards, bookCache);
+    }
+
+    private JdbcBookDAO(List<DataSource> shards, List<DataSource> replicaShards, BookCache bookCache){
+        this.dataSource = shards.get(0);
+        this.shards = List.copyOf(shards);
+        this.replicaShards = List.copyOf(replicaShards);
+        this.bookCache = bookCache;
+    }
+
+    /**
+     * Picks the shard a book lives in. Ids are handed out in consecutive blocks, so they are mixed before being
+     * reduced to a shard number, spreading each block evenly.
+     * @param bookId
+     * @param shardCount
+     * @return shard number, from 0 to shardCount - 1
+     */
+    public static int shardOf(int bookId, int shardCount) {
+        int hash = bookId * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    /**
+     * @return the database holding the book with this id
+     */
+    private DataSource shardFor(int bookId) {
+        return shards.get(shardOf(bookId, shards.size()));
+    }
+
+    /**
+     * @return where listings and searches are read from
+     */
+    private List<DataSource> readShards() {
+        return ReadRouting.isPrimary() ? shards : replicaShards;
+    }
+
+    /**
+     * Runs one task per shard, in parallel on the fan-out pool when there is more than one, and returns their
+     * results in shard order. Tasks handle their own SQLExceptions.
+     * @param tasks number of tasks
+     * @param task runs the task for the given shard number
+     * @return results in shard order
+     */
+    private static <T> List<T> fanOut(int tasks, IntFunction<T> task) {
+        if (tasks == 1) {
+            return Collections.singletonList(task.apply(0));
+        }
+        List<Callable<T>> calls = new ArrayList<>(tasks);
+        for (int shard = 0; shard < tasks; shard++) {
+            int taskShard = shard;
+            calls.add(() -> task.apply(taskShard));
+        }
+        List<T> results = new ArrayList<>(tasks);
+        try {
+            for (Future<T> result : FanOutPool.POOL.invokeAll(calls)) {
+                results.add(result.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("A shard query failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the shards", e);
+        }
+        return results;
+    }
+
+    /**
+     * Runs the per-shard tasks of every fan-out. Created on first use, sized by db.shards.fanOutThreads; by default
+     * as many threads as there are connections across the shards' pools, as more would only wait for a connection.
+     */
+    private static class FanOutPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Config.getInt("db.shards.fanOutThreads",
+                Math.max(2, Config.getInt("db.shards", 1)) * Config.getInt("db.pool.maxSize", 10)),
+                pool -> {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("library-fan-out-" + thread.getPoolIndex());
+                    return thread;
+                }, null, false);
+    }
+
+    /**
+     * Sets the parameters of a prepared statement.
+     */
+    @FunctionalInterface
+    private interface Parameters {
+        void set(PreparedStatement ps) throws SQLException;
+    }
+
+    /**
+     * Runs a query for books on every given shard and returns all of their books, shard after shard.
+     * A shard the query fails on contributes the books read before it failed.
+     * @param sources shards to ask
+     * @param sql query selecting book columns
+     * @param parameters sets the query's parameters
+     * @return list of books
+     */
+    private List<Book> queryShards(List<DataSource> sources, String sql, Parameters parameters) {
+        List<List<Book>> results = fanOut(sources.size(), shard -> {
+            List<Book> bookList = new ArrayList<>();
+            try (Connection conn = sources.get(shard).getConnection()) {
+                PreparedStatement ps = statementCache.prepare(conn, sql);
+                parameters.set(ps);
+                try (ResultSet rs = ps.executeQuery()) {
+                    RowMapper<Book> mapper = BookRowMapper.of(rs);
+                    while(rs.next()){
+                        bookList.add(mapper.map(rs));
+                    }
+                }
+            }catch(SQLException e){
+                e.printStackTrace();
+            }
+            return bookList;
+        });
+        if (results.size() == 1) {
+            return results.get(0);
+        }
+        List<Book> bookList = new ArrayList<>();
+        for (List<Book> shardBooks : results) {
+            bookList.addAll(shardBooks);
+        }
+        return bookList;
+    }
+
+    /**
+     * Registers a listener to be told about every book this DAO inserts or updates from now on.
+     * @param listener
+     */
+    @Override
+    public void addWriteListener(BookWriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    private void notifyWritten(int bookId) {
+        for (BookWriteListener listener : writeListeners) {
+            listener.bookWritten(bookId);
+        }
+    }
+
+    /**
+     * Method that uses JDBC to insert a book into the database.
+     * @param book
+     */
+    @Override
+    public Book insertBook(Book book){
+        long start = System.nanoTime();
+        try (Connection conn = shardFor(book.getBookId()).getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, INSERT_BOOK);
+            ps.setInt(1, book.getBookId());
+            ps.setString(2, book.getAuthor());
+            ps.setString(3, book.getTitle());
+            if (ps.executeUpdate() > 0) {
+                bookCache.invalidate(book.getBookId());
+                notifyWritten(book.getBookId());
+                return book;
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        } finally {
+            INSERT_BOOK_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Inserts many books using JDBC batching, one transaction per chunk of rows.
+     * If a chunk is rejected it is rolled back and its rows are inserted one at a time instead,
+     * so a single bad row does not fail its neighbours.
+     * @param books books to insert, with their ids already assigned
+     * @param chunkSize number of rows sent to the database per batch and committed together
+     * @return list the same size as books holding each inserted book, or null where the insert failed
+     */
+    @Override
+    public List<Book> insertBooks(List<Book> books, int chunkSize){
+        long start = System.nanoTime();
+        List<Book> inserted;
+        try {
+            if (shards.size() == 1) {
+                inserted = insertChunks(dataSource, books, chunkSize);
+            } else {
+                // each shard gets its own books, in their original order, and inserts them in parallel with the others
+                List<List<Integer>> positions = new ArrayList<>();
+                for (int shard = 0; shard < shards.size(); shard++) {
+                    positions.add(new ArrayList<>());
+                }
+                for (int position = 0; position < books.size(); position++) {
+                    positions.get(shardOf(books.get(position).getBookId(), shards.size())).add(position);
+                }
+                List<List<Book>> results = fanOut(shards.size(), shard -> {
+                    List<Book> shardBooks = new ArrayList<>(positions.get(shard).size());
+                    for (int position : positions.get(shard)) {
+                        shardBooks.add(books.get(position));
+                    }
+                    return insertChunks(shards.get(shard), shardBooks, chunkSize);
+                });
+                inserted = new ArrayList<>(Collections.nCopies(books.size(), (Book) null));
+                for (int shard = 0; shard < shards.size(); shard++) {
+                    for (int index = 0; index < positions.get(shard).size(); index++) {
+                        inserted.set(positions.get(shard).get(index), results.get(shard).get(index));
+                    }
+                }
+            }
+        } finally {
+            INSERT_BOOKS_TIMER.recordSince(start);
+        }
+        for (Book book : inserted) {
+            if (book != null) {
+                bookCache.invalidate(book.getBookId());
+                notifyWritten(book.getBookId());
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Inserts the books into one database in batches of chunkSize, see insertBooks.
+     * @return list the same size as books holding each inserted book, or null where the insert failed
+     */
+    private List<Book> insertChunks(DataSource source, List<Book> books, int chunkSize){
+        List<Book> inserted = new ArrayList<>(books.size());
+        try (Connection conn = source.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            PreparedStatement ps = statementCache.prepare(conn, INSERT_BOOK);
+            try {
+                for (int from = 0; from < books.size(); from += chunkSize) {
+                    List<Book> chunk = books.subList(from, Math.min(from + chunkSize, books.size()));
+                    conn.setAutoCommit(false);
+                    try {
+                        for (Book book : chunk) {
+                            ps.setInt(1, book.getBookId());
+                            ps.setString(2, book.getAuthor());
+                            ps.setString(3, book.getTitle());
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                        conn.commit();
+                        inserted.addAll(chunk);
+                    } catch (SQLException e) {
+                        ps.clearBatch();
+                        conn.rollback();
+                        conn.setAutoCommit(true);
+                        for (Book book : chunk) {
+                            inserted.add(insertOne(ps, book));
+                        }
+                    }
+                }
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        // rows never attempted because the connection failed are reported as not inserted
+        while (inserted.size() < books.size()) {
+            inserted.add(null);
+        }
+        return inserted;
+    }
+
+    private Book insertOne(PreparedStatement ps, Book book) {
+        try {
+            ps.setInt(1, book.getBookId());
+            ps.setString(2, book.getAuthor());
+            ps.setString(3, book.getTitle());
+            return ps.executeUpdate() > 0 ? book : null;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Method that uses JDBC to parse the resultset of a query that selects all books,
+     * places each book into a java array list, and returns the list.
+     * @return list of books
+     */
+    @Override
+    public List<Book> queryAllBooks(){
+        long start = System.nanoTime();
+        try {
+            return queryShards(readShards(), SELECT_ALL_BOOKS, ps -> {});
+        } finally {
+            QUERY_ALL_BOOKS_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Method that uses JDBC to parse the resultset of a query that selects books with matching title and author,
+     * places each book into a java array list, and returns the list.
+     * @param title
+     * @param author
+     * @return list of books
+     */
+    @Override
+    public List<Book> queryBooksByTitleAndAuthor(String title, String author){
+        long start = System.nanoTime();
+        try {
+            return queryShards(readShards(), SELECT_BY_TITLE_AND_AUTHOR, ps -> {
+                ps.setString(1, title);
+                ps.setString(2, author);
+            });
+        } finally {
+            QUERY_BOOKS_BY_TITLE_AND_AUTHOR_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Method that uses JDBC to parse the resultset of a query that selects books with a matching author,
+     * places each book into a java array list, and returns the list.
+     * @param author
+     * @return list of books
+     */
+    @Override
+    public List<Book> queryBooksByAuthor(String author){
+        long start = System.nanoTime();
+        try {
+            return queryShards(readShards(), SELECT_BY_AUTHOR, ps -> ps.setString(1, author));
+        } finally {
+            QUERY_BOOKS_BY_AUTHOR_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * method that uses JDBC to parse the resultset of a query that selects books with a matching title,
+     * places each book into a java array list, and returns the list.
+     * @param title
+     * @return list of books
+     */
+    @Override
+    public List<Book> queryBooksByTitle(String title){
+        long start = System.nanoTime();
+        try {
+            return queryShards(readShards(), SELECT_BY_TITLE, ps -> ps.setString(1, title));
+        } finally {
+            QUERY_BOOKS_BY_TITLE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Method that uses JDBC to parse the resultset of a query that selects books signed out by a specific user,
+     * places each book into a java array list, and returns the list.
+     * @param userId
+     * @return list of books
+     */
+    @Override
+    public List<Book> queryBooksSignedOutByUser(int userId) {
+        long start = System.nanoTime();
+        try {
+            return queryShards(readShards(), SELECT_BY_SIGNED_OUT_BY, ps -> ps.setInt(1, userId));
+        } finally {
+            QUERY_BOOKS_SIGNED_OUT_BY_USER_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Method that uses JDBC to check whether a user has any book signed out.
+     * The database stops at the first matching index entry, so no book rows are read or returned.
+     * @param userId
+     * @return true if at least one book is signed out by the user
+     */
+    @Override
+    public boolean hasBooksSignedOutByUser(int userId) {
+        long start = System.nanoTime();
+        try {
+            return fanOut(shards.size(), shard -> hasBooksSignedOutByUser(shards.get(shard), userId)).contains(true);
+        } finally {
+            HAS_BOOKS_SIGNED_OUT_BY_USER_TIMER.recordSince(start);
+        }
+    }
+
+    private boolean hasBooksSignedOutByUser(DataSource source, int userId) {
+        try (Connection conn = source.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, EXISTS_SIGNED_OUT_BY);
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()){
+                    return rs.getBoolean(1);
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Method that uses JDBC to count the books signed out by a user, without reading the books themselves.
+     * @param userId
+     * @return number of books signed out by the user
+     */
+    @Override
+    public int countBooksSignedOutByUser(int userId) {
+        long start = System.nanoTime();
+        try {
+            int count = 0;
+            for (int shardCount : fanOut(shards.size(), shard -> countBooksSignedOutByUser(shards.get(shard), userId))) {
+                count += shardCount;
+            }
+            return count;
+        } finally {
+            COUNT_BOOKS_SIGNED_OUT_BY_USER_TIMER.recordSince(start);
+        }
+    }
+
+    private int countBooksSignedOutByUser(DataSource source, int userId) {
+        try (Connection conn = source.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, COUNT_SIGNED_OUT_BY);
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()){
+                    return rs.getInt(1);
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return 0;
+    }
+
+    /**
+     * Method that uses JDBC to count the books each user has signed out, used to rebuild the loan counter at startup.
+     * Users without any book signed out are left out.
+     * @return map of user id to number of books signed out
+     */
+    @Override
+    public Map<Integer, Integer> countLoansByUser() {
+        long start = System.nanoTime();
+        try {
+            Map<Integer, Integer> loans = new HashMap<>();
+            for (Map<Integer, Integer> shardLoans : fanOut(shards.size(), shard -> countLoansByUser(shards.get(shard)))) {
+                shardLoans.forEach((userId, count) -> loans.merge(userId, count, Integer::sum));
+            }
+            return loans;
+        } finally {
+            COUNT_LOANS_BY_USER_TIMER.recordSince(start);
+        }
+    }
+
+    private Map<Integer, Integer> countLoansByUser(DataSource source) {
+        Map<Integer, Integer> loans = new HashMap<>();
+        try (Connection conn = source.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, COUNT_LOANS_BY_USER);
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    loans.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return loans;
+    }
+
+    /**
+     * Method that uses JDBC to retrieve one page of books ordered by id, reading only the given fields.
+     * The page starts after the afterId cursor by seeking on the primary key, so every page costs the same
+     * no matter how deep into the catalog it is.
+     * The id is always read as well, as the cursor for the next page is taken from it.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param afterId only books with a greater id are returned
+     * @param limit maximum number of books returned
+     * @param fields fields to read; the others are left at their defaults
+     * @return list of books
+     */
+    @Override
+    public List<Book> queryBooksPage(String title, String author, int afterId, int limit, Set<BookField> fields){
+        long start = System.nanoTime();
+        try {
+            List<DataSource> sources = readShards();
+            List<Book> bookList = queryShards(sources, selectBooks(withBookId(fields), title != null, author != null, true),
+                    ps -> {
+                        int index = setFilters(ps, title, author);
+                        ps.setInt(index++, afterId);
+                        ps.setInt(index, limit);
+                    });
+            if (sources.size() > 1) {
+                // each shard returned its own first page; the page is the first limit books of all of them
+                bookList.sort(Comparator.comparingInt(Book::getBookId));
+                if (bookList.size() > limit) {
+                    bookList = new ArrayList<>(bookList.subList(0, limit));
+                }
+            }
+            return bookList;
+        } finally {
+            QUERY_BOOKS_PAGE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Method that uses JDBC to retrieve every book matching the optional title and author, reading only the given
+     * fields, so a listing of ids and titles never reads an author.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param fields fields to read; the others are left at their defaults
+     * @return list of books
+     */
+    @Override
+    public List<Book> queryBooks(String title, String author, Set<BookField> fields){
+        long start = System.nanoTime();
+        try {
+            return queryShards(readShards(), selectBooks(fields, title != null, author != null, false),
+                    ps -> setFilters(ps, title, author));
+        } finally {
+            QUERY_BOOKS_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Builds the query for a listing of the books table that selects only the given columns,
+     * narrowed by title and/or author and, for a page, seeking past a cursor on the id.
+     * Built once for each combination and then reused, so the statement cache sees the same string each time.
+     * For every field, the query is the same as the matching SELECT_ constant.
+     * @param fields columns to select
+     * @param byTitle whether the first parameter is a title to match
+     * @param byAuthor whether the next parameter is an author to match
+     * @param page whether the last two parameters are the cursor and the limit of a page
+     * @return sql
+     */
+    public static String selectBooks(Set<BookField> fields, boolean byTitle, boolean byAuthor, boolean page) {
+        int key = 0;
+        for (BookField field : fields) {
+            key |= 1 << field.ordinal();
+        }
+        key = key << 3 | (byTitle ? 4 : 0) | (byAuthor ? 2 : 0) | (page ? 1 : 0);
+        return SELECT_BOOKS_QUERIES.computeIfAbsent(key, k -> {
+            StringJoiner columns = new StringJoiner(", ");
+            for (BookField field : BookField.values()) {
+                if (fields.contains(field)) {
+                    columns.add(field.getFieldName());
+                }
+            }
+            List<String> conditions = new ArrayList<>();
+            if (byTitle) {
+                conditions.add("title = ?");
+            }
+            if (byAuthor) {
+                conditions.add("author = ?");
+            }
+            if (page) {
+                conditions.add("bookId > ?");
+            }
+            StringBuilder sql = new StringBuilder("select ").append(columns).append(" from books");
+            if (!conditions.isEmpty()) {
+                sql.append(" where ").append(String.join(" and ", conditions));
+            }
+            if (page) {
+                sql.append(" order by bookId limit ?");
+            }
+            return sql.toString();
+        });
+    }
+
+    private static Set<BookField> withBookId(Set<BookField> fields) {
+        if (fields.contains(BookField.BOOK_ID)) {
+            return fields;
+        }
+        EnumSet<BookField> withBookId = EnumSet.copyOf(fields);
+        withBookId.add(BookField.BOOK_ID);
+        return withBookId;
+    }
+
+    /**
+     * Sets the title and author parameters of a query built by selectBooks.
+     * @return index of the next parameter
+     */
+    private static int setFilters(PreparedStatement ps, String title, String author) throws SQLException {
+        int index = 1;
+        if (title != null) {
+            ps.setString(index++, title);
+        }
+        if (author != null) {
+            ps.setString(index++, author);
+        }
+        return index;
+    }
+
+    /**
+     * Method that uses JDBC to hand every book matching the optional title and author to the callback
+     * while the cursor is still open, rather than collecting them into a list, so memory use stays flat
+     * however many rows match. Rows are fetched lazily in blocks of STREAM_FETCH_SIZE, reading only the given fields.
+     * If the callback throws, the statement is cancelled and the exception is rethrown.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param fields fields to read; the others are left at their defaults
+     * @param callback receives each book in turn
+     * @throws IOException thrown by the callback, which stops the query
+     */
+    @Override
+    public void streamBooks(String title, String author, Set<BookField> fields, RowCallback<Book> callback) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String sql = selectBooks(fields, title != null, author != null, false);
+            // one shard after the other, as the callback is not safe to call from several threads
+            for (DataSource source : readShards()) {
+                streamBooks(source, sql, title, author, callback);
+            }
+        } finally {
+            STREAM_BOOKS_TIMER.recordSince(start);
+        }
+    }
+
+    private void streamBooks(DataSource source, String sql, String title, String author, RowCallback<Book> callback) throws IOException {
+        try (Connection conn = source.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, sql);
+            setFilters(ps, title, author);
+            ps.setFetchSize(STREAM_FETCH_SIZE);
+            // without lazy execution embedded H2 builds the whole result before returning the first row
+            setLazyQueryExecution(conn, true);
+            try (ResultSet rs = ps.executeQuery()) {
+                RowMapper<Book> mapper = BookRowMapper.of(rs);
+                while(rs.next()){
+                    callback.accept(mapper.map(rs));
+                }
+            } catch (IOException e) {
+                ps.cancel();
+                throw e;
+            } finally {
+                setLazyQueryExecution(conn, false);
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+    }
+
+    private void setLazyQueryExecution(Connection conn, boolean lazy) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("set lazy_query_execution " + lazy);
+        }
+    }
+
+    /**
+     * Method that retrieves a book by its id and returns it, or null if no book is found.
+     * The book cache is checked first; only a miss uses JDBC to read the book from the database.
+     * @param bookId
+     * @return book or null
+     */
+    @Override
+    public Book queryBooksById(int bookId){
+        long start = System.nanoTime();
+        try {
+            return bookCache.get(bookId, this::selectBookById);
+        } finally {
+            QUERY_BOOKS_BY_ID_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Method that uses JDBC to retrieve a book from the database by its id and return it, or null if no book is found.
+     * @param bookId
+     * @return book or null
+     */
+    private Book selectBookById(int bookId){
+        try (Connection conn = shardFor(bookId).getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, SELECT_BY_ID);
+            ps.setInt(1, bookId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()){
+                    return BookRowMapper.of(rs).map(rs);
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Executes SQL statement to update book's signedOutBy property in the database to current user.
+     * When update is successful, returns updated book.
+     * Otherwise, returns null.
+     * @param book
+     * @param userId
+     * @return book or null
+     */
+    @Override
+    public Book updateSignedOutBy(Book book, int userId){
+        long start = System.nanoTime();
+        if (!userExistsFor(book.getBookId(), userId)) {
+            UPDATE_SIGNED_OUT_BY_TIMER.recordSince(start);
+            return null;
+        }
+        try (Connection conn = shardFor(book.getBookId()).getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, UPDATE_SIGNED_OUT_BY);
+            ps.setInt(1, userId);
+            ps.setInt(2, book.getBookId());
+            if (ps.executeUpdate() > 0) {
+                bookCache.invalidate(book.getBookId());
+                notifyWritten(book.getBookId());
+                book.setSignedOutBy(userId);
+                return book;
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        } finally {
+            UPDATE_SIGNED_OUT_BY_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Executes SQL statement to update book's signedOutBy property in the database to null (no user).
+     * When update is successful, returns updated book.
+     * Otherwise, returns null.
+     * @param book
+     * @return book or null
+     */
+    @Override
+    public Book updateReturnBook(Book book){
+        long start = System.nanoTime();
+        try (Connection conn = shardFor(book.getBookId()).getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, UPDATE_RETURN_BOOK);
+            ps.setInt(1, book.getBookId());
+            if (ps.executeUpdate() > 0) {
+                bookCache.invalidate(book.getBookId());
+                notifyWritten(book.getBookId());
+                book.setSignedOutBy(0);
+                return book;
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        } finally {
+            UPDATE_RETURN_BOOK_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Signs the book out to the user only if nobody has it signed out, as a single conditional update,
+     * so two users racing for the same book cannot both succeed.
+     * The updated row is read back before the update commits, while no one else can change it.
+     * @param bookId
+     * @param userId
+     * @return the signed out book, or null if the book or the user does not exist, or the book is already signed out
+     */
+    @Override
+    public Book updateSignedOutByIfAvailable(int bookId, int userId){
+        long start = System.nanoTime();
+        try {
+            if (!userExistsFor(bookId, userId)) {
+                return null;
+            }
+            return updateIf(UPDATE_SIGNED_OUT_BY_IF_AVAILABLE, userId, bookId, bookId);
+        } finally {
+            UPDATE_SIGNED_OUT_BY_IF_AVAILABLE_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Returns the book only if it is currently signed out by the user, as a single conditional update.
+     * The updated row is read back before the update commits, while no one else can change it.
+     * @param bookId
+     * @param userId
+     * @return the returned book, or null if the book does not exist or is not signed out by this user
+     */
+    @Override
+    public Book updateReturnBookIfSignedOutBy(int bookId, int userId){
+        long start = System.nanoTime();
+        try {
+            return updateIf(UPDATE_RETURN_BOOK_IF_SIGNED_OUT_BY, bookId, userId, bookId);
+        } finally {
+            UPDATE_RETURN_BOOK_IF_SIGNED_OUT_BY_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Checks, before a checkout, that the user exists. The library database's foreign key does this for its own
+     * books, but the other shards have no users table to point one at, so for their books the user is looked up in
+     * the library database first.
+     * @param bookId book about to be signed out
+     * @param userId user it is about to be signed out to
+     * @return false if the book lives in another shard and the user is not in the library database
+     */
+    private boolean userExistsFor(int bookId, int userId) {
+        if (shardFor(bookId) == dataSource) {
+            return true;
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, JdbcUserDAO.SELECT_ID_BY_ID);
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Runs a conditional update of one book and, if it matched, reads the book back in the same transaction.
+     * H2's "select from final table (update ...)" is not used for this: it does not check the condition again
+     * after waiting for a concurrent update's row lock, so two racing checkouts could both succeed.
+     * @param update conditional update taking two int parameters
+     * @return the updated book, or null if the update matched no row
+     */
+    private Book updateIf(String update, int first, int second, int bookId) {
+        try (Connection conn = shardFor(bookId).getConnection()) {
+            conn.setAutoCommit(false);
+            Book dbBook = null;
+            try {
+                PreparedStatement ps = statementCache.prepare(conn, update);
+                ps.setInt(1, first);
+                ps.setInt(2, second);
+                if (ps.executeUpdate() == 1) {
+                    PreparedStatement select = statementCache.prepare(conn, SELECT_BY_ID);
+                    select.setInt(1, bookId);
+                    try (ResultSet rs = select.executeQuery()) {
+                        if (rs.next()) {
+                            dbBook = BookRowMapper.of(rs).map(rs);
+                        }
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            if (dbBook != null) {
+                // not put: a racing write to the same book may commit after this one yet reach the cache first
+                bookCache.invalidate(dbBook.getBookId());
+                notifyWritten(dbBook.getBookId());
+            }
+            return dbBook;
+        }catch(SQLException e){
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Reserves the next block of book ids by advancing the book id sequence.
+     * @return the hi value of the reserved block, or 0 if it could not be reserved
+     */
+    @Override
+    public int nextBookIdBlock(){
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, NEXT_ID_BLOCK);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()){
+                    return rs.getInt(1);
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        } finally {
+            NEXT_BOOK_ID_BLOCK_TIMER.recordSince(start);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,270 @@
+package DAO;
+
+import Metrics.DaoMetrics;
+import Metrics.Histogram;
+import Model.User;
+import Util.ReadRouting;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class JdbcUserDAO implements UserDAO {
+    public static final String INSERT_USER = "insert into users (userId, username) values (?, ?)";
+    public static final String USER_COLUMNS = "userId, username";
+    public static final String SELECT_ALL_USERS = "select " + USER_COLUMNS + " from users";
+    public static final String SELECT_BY_ID = SELECT_ALL_USERS + " where userId = ?";
+    public static final String SELECT_BY_USERNAME = "select userId from users where username = ?";
+    public static final String SELECT_ID_BY_ID = "select userId from users where userId = ?";
+    public static final String SELECT_PAGE = SELECT_ALL_USERS + " where userId > ? order by userId limit ?";
+    public static final String NEXT_ID_BLOCK = "select next value for user_id_hi";
+    public static final String DELETE_USER = "delete from users where userId = ?";
+
+    private static final Histogram CREATE_USER_TIMER = DaoMetrics.timer("UserDAO", "createUser");
+    private static final Histogram GET_ALL_USERS_TIMER = DaoMetrics.timer("UserDAO", "getAllUsers");
+    private static final Histogram GET_USERS_PAGE_TIMER = DaoMetrics.timer("UserDAO", "getUsersPage");
+    private static final Histogram GET_USER_BY_ID_TIMER = DaoMetrics.timer("UserDAO", "getUserById");
+    private static final Histogram USER_EXISTS_TIMER = DaoMetrics.timer("UserDAO", "userExists");
+    private static final Histogram DELETE_USER_TIMER = DaoMetrics.timer("UserDAO", "deleteUser");
+    private static final Histogram NEXT_USER_ID_BLOCK_TIMER = DaoMetrics.timer("UserDAO", "nextUserIdBlock");
+
+    DataSource dataSource;
+    DataSource replicaDataSource;
+    StatementCache statementCache = StatementCache.getInstance();
+    private final List<UserWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+
+    public JdbcUserDAO(DataSource dataSource){
+        this(dataSource, dataSource);
+    }
+
+    /**
+     * Listings of users are read from the replica, unless ReadRouting sends the calling thread's reads to the primary.
+     * Writes and lookups of single users, which registration and deletion rest on, go to the primary.
+     * @param dataSource the primary
+     * @param replicaDataSource read replica of the primary, or the primary itself
+     */
+    public JdbcUserDAO(DataSource dataSource, DataSource replicaDataSource){
+        this.dataSource = dataSource;
+        this.replicaDataSource = replicaDataSource;
+    }
+
+    /**
+     * Registers a listener to be told about every user this DAO creates or deletes from now on.
+     * @param listener
+     */
+    @Override
+    public void addWriteListener(UserWriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    private void notifyWritten(int userId) {
+        for (UserWriteListener listener : writeListeners) {
+            listener.userWritten(userId);
+        }
+    }
+
+    /**
+     * @return where listings of users are read from
+     */
+    private DataSource readDataSource() {
+        return ReadRouting.isPrimary() ? dataSource : replicaDataSource;
+    }
+
+    /**
+     * Method creates a new user record in the database based off of the input user object.
+     * @param user
+     */
+    @Override
+    public User createUser(User user) {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, INSERT_USER);
+            ps.setInt(1, user.getUserId());
+            ps.setString(2, user.getUsername());
+            if (ps.executeUpdate() == 1) {
+                notifyWritten(user.getUserId());
+                return user;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            CREATE_USER_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Method retrieves all users from the database.
+     * If there are no users, the returned list will be empty.
+     * @return list of users
+     */
+    @Override
+    public List<User> getAllUsers() {
+        List<User> userList = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection conn = readDataSource().getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, SELECT_ALL_USERS);
+            try (ResultSet rs = ps.executeQuery()) {
+                RowMapper<User> mapper = UserRowMapper.of(rs);
+                while(rs.next()){
+                    userList.add(mapper.map(rs));
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        } finally {
+            GET_ALL_USERS_TIMER.recordSince(start);
+        }
+        return userList;
+    }
+
+    /**
+     * Method retrieves one page of users ordered by id, seeking past the afterId cursor on the primary key.
+     * @param afterId only users with a greater id are returned
+     * @param limit maximum number of users returned
+     * @return list of users
+     */
+    @Override
+    public List<User> getUsersPage(int afterId, int limit) {
+        List<User> userList = new ArrayList<>();
+        long start = System.nanoTime();
+        try (Connection conn = readDataSource().getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, SELECT_PAGE);
+            ps.setInt(1, afterId);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                RowMapper<User> mapper = UserRowMapper.of(rs);
+                while(rs.next()){
+                    userList.add(mapper.map(rs));
+                }
+            }
+        }catch(SQLException e){
+            e.printStackTrace();
+        } finally {
+            GET_USERS_PAGE_TIMER.recordSince(start);
+        }
+        return userList;
+    }
+
+    /**
+     * Method retrieves a specified user from the database by their unique id.
+     * @param userId
+     * @return user or null
+     */
+    @Override
+    public User getUserById(int userId) {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, SELECT_BY_ID);
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return UserRowMapper.of(rs).map(rs);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            GET_USER_BY_ID_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Method verifies whether a user exists within the database based on the input username.
+     * @param username
+     * @return boolean
+     */
+    @Override
+    public Boolean userExists(String username) {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, SELECT_BY_USERNAME);
+            ps.setString(1, username);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            USER_EXISTS_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    /**
+     * Method verifies whether a user exists within the database based on the input user id.
+     * @param userId
+     * @return boolean
+     */
+    @Override
+    public Boolean userExists(int userId) {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, SELECT_ID_BY_ID);
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            USER_EXISTS_TIMER.recordSince(start);
+        }
+        return false;
+    }
+
+    /**
+     * Method deletes specific user record from the database based off the input user's id.
+     * @param user
+     * @return user or null
+     */
+    @Override
+    public User deleteUser(User user) {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, DELETE_USER);
+            ps.setInt(1, user.getUserId());
+            if (ps.executeUpdate() == 1) {
+                notifyWritten(user.getUserId());
+                return user;
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            DELETE_USER_TIMER.recordSince(start);
+        }
+        return null;
+    }
+
+    /**
+     * Method reserves the next block of user ids by advancing the user id sequence.
+     * @return the hi value of the reserved block, or 0 if it could not be reserved
+     */
+    @Override
+    public int nextUserIdBlock() {
+        long start = System.nanoTime();
+        try (Connection conn = dataSource.getConnection()) {
+            PreparedStatement ps = statementCache.prepare(conn, NEXT_ID_BLOCK);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            NEXT_USER_ID_BLOCK_TIMER.recordSince(start);
+        }
+        return 0;
+    }
+}
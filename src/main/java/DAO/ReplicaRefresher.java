@@ -0,0 +1,289 @@
+package DAO;
+
+import Metrics.DaoMetrics;
+import Metrics.Histogram;
+import Metrics.MetricsRegistry;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps a read replica, a second database with the same schema, up to date with the primary by copying users and
+ * books across. Registered as a write listener on both DAOs, it collects the ids of the rows every write changed and
+ * marks the replica stale; a background task looks every refreshMs and only copies when it is, so a burst of writes
+ * costs one refresh and an idle catalog costs none.
+ * A refresh copies only the changed rows, deleting the replica's copy of each and inserting the primary's, if it
+ * still has one. The first refresh, and one with more than maxChangedRows changes, copies the whole tables instead.
+ * Either way the primary is read from one snapshot and the replica written in one transaction, so readers of the
+ * replica see either the previous copy or the new one.
+ */
+public class ReplicaRefresher implements BookWriteListener, UserWriteListener {
+
+    public static final String DELETE_BOOKS = "delete from books";
+    public static final String DELETE_USERS = "delete from users";
+    public static final String COPY_BOOK = "insert into books (" + JdbcBookDAO.BOOK_COLUMNS + ") values (?, ?, ?, ?)";
+    public static final String COPY_USER = "insert into users (" + JdbcUserDAO.USER_COLUMNS + ") values (?, ?)";
+    public static final String DELETE_BOOK = "delete from books where bookId = ?";
+
+    private static final int BATCH_SIZE = 1000;
+    private static final Histogram REFRESH_TIMER = DaoMetrics.timer("ReplicaRefresher", "refresh");
+    private static final LongAdder ROW_REFRESHES = MetricsRegistry.getInstance().counter("library_replica_refreshes_total",
+            "Read replica refreshes, by whether they copied the changed rows or the whole tables.", "copy", "rows");
+    private static final LongAdder TABLE_REFRESHES = MetricsRegistry.getInstance().counter("library_replica_refreshes_total",
+            "Read replica refreshes, by whether they copied the changed rows or the whole tables.", "copy", "tables");
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private final LongSupplier catalogVersion;
+    private final int maxChangedRows;
+    private final AtomicBoolean stale = new AtomicBoolean(true);
+    private final Set<Integer> changedBooks = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> changedUsers = ConcurrentHashMap.newKeySet();
+    /**
+     * Catalog version the replica holds every write up to, -1 until the first refresh.
+     */
+    private volatile long refreshedVersion = -1;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param primary
+     * @param replica database with the schema already set up; its books and users are replaced on the first refresh
+     * @param catalogVersion reads the version advanced by every committed book write, see CatalogVersions
+     */
+    public ReplicaRefresher(DataSource primary, DataSource replica, LongSupplier catalogVersion) {
+        this(primary, replica, catalogVersion, 10_000);
+    }
+
+    /**
+     * @param primary
+     * @param replica database with the schema already set up; its books and users are replaced on the first refresh
+     * @param catalogVersion reads the version advanced by every committed book write, see CatalogVersions
+     * @param maxChangedRows changed rows a refresh copies one by one; with more, it copies the whole tables
+     */
+    public ReplicaRefresher(DataSource primary, DataSource replica, LongSupplier catalogVersion, int maxChangedRows) {
+        this.primary = primary;
+        this.replica = replica;
+        this.catalogVersion = catalogVersion;
+        this.maxChangedRows = maxChangedRows;
+    }
+
+    @Override
+    public void bookWritten(int bookId) {
+        // the id first, so a refresh that sees the replica stale also sees what changed
+        changedBooks.add(bookId);
+        stale.set(true);
+    }
+
+    @Override
+    public void userWritten(int userId) {
+        changedUsers.add(userId);
+        stale.set(true);
+    }
+
+    /**
+     * Starts refreshing the replica in the background whenever it is stale.
+     * @param refreshMs how often to look; the longest the replica lags behind a write, plus the copy itself
+     */
+    public void start(long refreshMs) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "library-replica");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshIfStale, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        MetricsRegistry.getInstance().gauge("library_replica_lag_versions",
+                "Book writes committed on the primary but not yet copied to the read replica.",
+                () -> catalogVersion.getAsLong() - Math.max(refreshedVersion, 0));
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * @return true if a refresh was needed, whether or not it succeeded
+     */
+    public boolean refreshIfStale() {
+        if (!stale.get()) {
+            return false;
+        }
+        refresh();
+        return true;
+    }
+
+    /**
+     * Copies the users and books changed since the last refresh from the primary to the replica, or the whole tables
+     * on the first refresh and when too many changed.
+     * A failure leaves the replica as it was and marked stale, with the changes still to copy, so the next look
+     * tries again.
+     * @return true if the replica now holds a copy taken after this call started
+     */
+    public boolean refresh() {
+        // writes from now on need another refresh
+        stale.set(false);
+        // taken before reading, so the replica is never credited with a write it might not hold
+        long version = catalogVersion.getAsLong();
+        // drained before reading too: a write committing after this is copied now or by the next refresh
+        List<Integer> books = drain(changedBooks);
+        List<Integer> users = drain(changedUsers);
+        boolean wholeTables = refreshedVersion < 0 || books.size() + users.size() > maxChangedRows;
+        long start = System.nanoTime();
+        try (Connection from = primary.getConnection(); Connection to = replica.getConnection()) {
+            from.setAutoCommit(false);
+            from.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            to.setAutoCommit(false);
+            try {
+                if (wholeTables) {
+                    try (Statement statement = to.createStatement()) {
+                        statement.executeUpdate(DELETE_BOOKS);
+                        statement.executeUpdate(DELETE_USERS);
+                    }
+                    copy(from, JdbcUserDAO.SELECT_ALL_USERS, to, COPY_USER);
+                    copy(from, JdbcBookDAO.SELECT_ALL_BOOKS, to, COPY_BOOK);
+                } else {
+                    // books first, as they may point at a user being deleted
+                    delete(to, DELETE_BOOK, books);
+                    delete(to, JdbcUserDAO.DELETE_USER, users);
+                    copy(from, JdbcUserDAO.SELECT_BY_ID, users, to, COPY_USER);
+                    copy(from, JdbcBookDAO.SELECT_BY_ID, books, to, COPY_BOOK);
+                }
+                to.commit();
+                from.commit();
+            } catch (SQLException e) {
+                to.rollback();
+                from.rollback();
+                throw e;
+            }
+            refreshedVersion = version;
+            (wholeTables ? TABLE_REFRESHES : ROW_REFRESHES).increment();
+            return true;
+        } catch (SQLException | RuntimeException e) {
+            e.printStackTrace();
+            changedBooks.addAll(books);
+            changedUsers.addAll(users);
+            stale.set(true);
+            return false;
+        } finally {
+            REFRESH_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * @return the ids taken out of the set
+     */
+    private static List<Integer> drain(Set<Integer> changed) {
+        List<Integer> ids = new ArrayList<>();
+        for (Iterator<Integer> it = changed.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+            it.remove();
+        }
+        return ids;
+    }
+
+    /**
+     * Runs the delete, whose one parameter is an id, for every id.
+     */
+    private static void delete(Connection to, String delete, List<Integer> ids) throws SQLException {
+        try (PreparedStatement ps = to.prepareStatement(delete)) {
+            int batched = 0;
+            for (int id : ids) {
+                ps.setInt(1, id);
+                ps.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Inserts the row the query, whose one parameter is an id, returns for every id that still has one.
+     */
+    private static void copy(Connection from, String query, List<Integer> ids, Connection to, String insert)
+            throws SQLException {
+        try (PreparedStatement select = from.prepareStatement(query);
+             PreparedStatement ps = to.prepareStatement(insert)) {
+            int batched = 0;
+            for (int id : ids) {
+                select.setInt(1, id);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (!rs.next()) {
+                        continue;
+                    }
+                    int columns = rs.getMetaData().getColumnCount();
+                    for (int column = 1; column <= columns; column++) {
+                        ps.setObject(column, rs.getObject(column));
+                    }
+                }
+                ps.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Inserts every row the query returns with the insert, whose parameters are the query's columns in order.
+     */
+    private static void copy(Connection from, String query, Connection to, String insert) throws SQLException {
+        try (PreparedStatement select = from.prepareStatement(query);
+             ResultSet rs = select.executeQuery();
+             PreparedStatement ps = to.prepareStatement(insert)) {
+            int columns = rs.getMetaData().getColumnCount();
+            int batched = 0;
+            while (rs.next()) {
+                for (int column = 1; column <= columns; column++) {
+                    ps.setObject(column, rs.getObject(column));
+                }
+                ps.addBatch();
+                if (++batched == BATCH_SIZE) {
+                    ps.executeBatch();
+                    batched = 0;
+                }
+            }
+            if (batched > 0) {
+                ps.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * @return catalog version the replica holds every book write up to, or -1 before the first refresh
+     */
+    public long getRefreshedVersion() {
+        return refreshedVersion;
+    }
+
+    /**
+     * @return true if writes have been made since the last refresh started
+     */
+    public boolean isStale() {
+        return stale.get();
+    }
+}
@@ -0,0 +1,13 @@
+package DAO;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a streamed query one at a time, while the result set is still open.
+ * Throwing an IOException, for example because the client reading the rows has gone away, stops the query.
+ * @param <T> the type each row is mapped to
+ */
+@FunctionalInterface
+public interface RowCallback<T> {
+    void accept(T row) throws IOException;
+}
@@ -0,0 +1,15 @@
+package DAO;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set to an object.
+ * Implementations look up where their columns are once, when created for a result set, and then read every row
+ * by column index rather than searching the columns by name for each value.
+ * @param <T> the type each row is mapped to
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    T map(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,111 @@
+package DAO;
+
+import Util.Config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps prepared statements alive between requests so the same SQL is not re-parsed on every call.
+ * Each physical connection gets its own bounded, least-recently-used cache keyed by SQL text.
+ * Statements handed out by this cache belong to it and must not be closed by the caller;
+ * their result sets still must be.
+ * A connection is only ever used by the thread that borrowed it, so the per-connection maps need no locking.
+ */
+public class StatementCache {
+
+    private static final StatementCache instance = new StatementCache(Config.getInt("db.statementCache.size", 32));
+
+    private final int maxStatementsPerConnection;
+    private final Map<Connection, Map<String, PreparedStatement>> caches = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public StatementCache(int maxStatementsPerConnection) {
+        this.maxStatementsPerConnection = maxStatementsPerConnection;
+    }
+
+    /**
+     * @return the cache shared by every DAO
+     */
+    public static StatementCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns a prepared statement for the sql on the physical connection behind conn,
+     * preparing it only if this connection has not prepared it before.
+     * @param conn a connection borrowed from the pool
+     * @param sql
+     * @return a cached, parameter-cleared prepared statement
+     */
+    public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        Connection physical = conn.unwrap(Connection.class);
+        Map<String, PreparedStatement> cache = caches.get(physical);
+        if (cache == null) {
+            // a new physical connection is rare, so use it as the moment to drop caches of retired connections
+            caches.keySet().removeIf(StatementCache::isClosed);
+            cache = caches.computeIfAbsent(physical, c -> new LruStatements());
+        }
+
+        PreparedStatement ps = cache.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            hits.increment();
+            ps.clearParameters();
+            return ps;
+        }
+        misses.increment();
+        ps = physical.prepareStatement(sql);
+        cache.put(sql, ps);
+        return ps;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static boolean isClosed(Connection conn) {
+        try {
+            return conn.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Access-ordered map that closes the least recently used statement once it grows past its bound.
+     */
+    private class LruStatements extends LinkedHashMap<String, PreparedStatement> {
+        LruStatements() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= maxStatementsPerConnection) {
+                return false;
+            }
+            evictions.increment();
+            try {
+                eldest.getValue().close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+    }
+}
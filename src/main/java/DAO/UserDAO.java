@@ -2,132 +2,69 @@ package DAO;
 
 import Model.User;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
-public class UserDAO {
-    Connection conn;
-    public UserDAO(Connection conn){
-        this.conn = conn;
-    }
+/**
+ * Stores the users of the library. JdbcUserDAO keeps them in H2; InMemoryUserDAO keeps them in memory, made durable
+ * by a write-ahead log. Both behave the same: failed writes return null rather than throwing.
+ */
+public interface UserDAO {
 
     /**
-     * Method creates a new user record in the database based off of the input user object.
-     * @param user
+     * Registers a listener to be told about every user this DAO creates or deletes from now on.
+     * @param listener
+     */
+    void addWriteListener(UserWriteListener listener);
+
+    /**
+     * Stores a new user.
+     * @param user user with its id already assigned
+     * @return the user, or null if its id or username is taken
      */
-    public User createUser(User user) {
-        try {
-            PreparedStatement ps = conn.prepareStatement("insert into users (userId, username) values (?, ?)");
-            ps.setInt(1, user.getUserId());
-            ps.setString(2, user.getUsername());
-            if (ps.executeUpdate() == 1) {
-                return user;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
+    User createUser(User user);
 
     /**
-     * Method retrieves all users from the database.
      * If there are no users, the returned list will be empty.
      * @return list of users
      */
-    public List getAllUsers() {
-        List<User> userList = new ArrayList<>();
-        try{
-            PreparedStatement ps = conn.prepareStatement("select * from users");
-            ResultSet rs = ps.executeQuery();
-            while(rs.next()){
-                int dbUserId = rs.getInt("userId");
-                String dbUsername = rs.getString("username");
+    List<User> getAllUsers();
 
-                User dbUser = new User(dbUserId, dbUsername);
-                userList.add(dbUser);
-            }
-        }catch(SQLException e){
-            e.printStackTrace();
-        }
-        return userList;
-    }
+    /**
+     * Retrieves one page of users ordered by id, starting after the afterId cursor.
+     * @param afterId only users with a greater id are returned
+     * @param limit maximum number of users returned
+     * @return list of users
+     */
+    List<User> getUsersPage(int afterId, int limit);
 
     /**
-     * Method retrieves a specified user from the database by their unique id.
      * @param userId
      * @return user or null
      */
-    public User getUserById(int userId) {
-        try {
-            PreparedStatement ps = conn.prepareStatement("select * from users where userId = ?");
-            ps.setInt(1, userId);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return new User(rs.getInt("userId"), rs.getString("username"));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
+    User getUserById(int userId);
 
     /**
-     * Method verifies whether a user exists within the database based on the input username.
      * @param username
-     * @return boolean
+     * @return true if a user has this username
      */
-    public Boolean userExists(String username) {
-        try {
-            PreparedStatement ps = conn.prepareStatement("select * from users where username = ?");
-            ps.setString(1, username);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return true;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return false;
-    }
+    Boolean userExists(String username);
 
     /**
-     * Method verifies whether a user exists within the database based on the input user id.
      * @param userId
-     * @return boolean
+     * @return true if a user has this id
      */
-    public Boolean userExists(int userId) {
-        try {
-            PreparedStatement ps = conn.prepareStatement("select * from users where userId = ?");
-            ps.setInt(1, userId);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return true;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return false;
-    }
+    Boolean userExists(int userId);
 
     /**
-     * Method deletes specific user record from the database based off the input user's id.
+     * Deletes the user with the input user's id.
      * @param user
-     * @return user or null
+     * @return the user, or null if there is no such user or it still has books signed out
+     */
+    User deleteUser(User user);
+
+    /**
+     * Reserves the next block of user ids by advancing the user id sequence.
+     * @return the hi value of the reserved block, or 0 if it could not be reserved
      */
-    public User deleteUser(User user) {
-        try {
-            PreparedStatement ps = conn.prepareStatement("delete from users where userId = ?");
-            ps.setInt(1, user.getUserId());
-            if (ps.executeUpdate() == 1) {
-                return user;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
-    }
+    int nextUserIdBlock();
 }
@@ -0,0 +1,43 @@
+package DAO;
+
+import Model.User;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Maps rows of the users table to users.
+ */
+final class UserRowMapper implements RowMapper<User> {
+    private final int userId;
+    private final int username;
+
+    private UserRowMapper(int userId, int username) {
+        this.userId = userId;
+        this.username = username;
+    }
+
+    /**
+     * @param rs result set of a query on the users table
+     * @return a mapper reading the columns where this result set has them
+     */
+    static UserRowMapper of(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int userId = 0, username = 0;
+        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+            String label = metaData.getColumnLabel(column);
+            if (label.equalsIgnoreCase("userId")) {
+                userId = column;
+            } else if (label.equalsIgnoreCase("username")) {
+                username = column;
+            }
+        }
+        return new UserRowMapper(userId, username);
+    }
+
+    @Override
+    public User map(ResultSet rs) throws SQLException {
+        return new User(userId == 0 ? 0 : rs.getInt(userId), username == 0 ? null : rs.getString(username));
+    }
+}
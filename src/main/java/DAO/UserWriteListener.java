@@ -0,0 +1,10 @@
+package DAO;
+
+/**
+ * Told about every user UserDAO creates or deletes, once the change is committed.
+ * Listeners are called on the thread that made the change, so they must be quick and must not throw.
+ */
+@FunctionalInterface
+public interface UserWriteListener {
+    void userWritten(int userId);
+}
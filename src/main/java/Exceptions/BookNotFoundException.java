@@ -0,0 +1,5 @@
+package Exceptions;
+
+public class BookNotFoundException extends Exception{
+
+}
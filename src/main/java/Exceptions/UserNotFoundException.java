@@ -0,0 +1,4 @@
+package Exceptions;
+
+public class UserNotFoundException extends RuntimeException{
+}
@@ -0,0 +1,50 @@
+package Metrics;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Timers for DAO methods, one series per DAO and method in library_dao_call_duration_seconds.
+ * Each DAO creates its timers once, as constants, and records every call into them.
+ */
+public class DaoMetrics {
+
+    private static final CopyOnWriteArrayList<Histogram> timers = new CopyOnWriteArrayList<>();
+
+    private DaoMetrics() {
+    }
+
+    /**
+     * @param dao simple name of the DAO class
+     * @param method name of the DAO method
+     * @return the timer for that method
+     */
+    public static Histogram timer(String dao, String method) {
+        Histogram timer = MetricsRegistry.getInstance().histogram("library_dao_call_duration_seconds",
+                "Time spent in each DAO method, including waiting for a pooled connection.",
+                "dao", dao, "method", method);
+        timers.addIfAbsent(timer);
+        return timer;
+    }
+
+    /**
+     * @return the number of DAO calls timed since startup, across every DAO and method
+     */
+    public static long totalCalls() {
+        long calls = 0;
+        for (Histogram timer : timers) {
+            calls += timer.getCount();
+        }
+        return calls;
+    }
+
+    /**
+     * @return the time spent in those calls, in nanoseconds
+     */
+    public static long totalNanos() {
+        long nanos = 0;
+        for (Histogram timer : timers) {
+            nanos += timer.getSum();
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,164 @@
+package Metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Holds every metric the service records and renders them in the Prometheus text exposition format.
+ * Counters are striped LongAdders and timings are lock-free {@link Histogram}s, so recording never blocks
+ * a request. Looking a metric up takes a map lookup, so hot paths should keep the instance they are given.
+ * Metrics are identified by name plus label pairs, e.g. counter("library_http_requests_total", help, "status", "200").
+ */
+public class MetricsRegistry {
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * @return the registry shared by the whole service
+     */
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param name metric name
+     * @param help description shown in the exposition
+     * @param labels alternating label names and values
+     * @return the counter, created on first use
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").series.computeIfAbsent(labelsOf(labels), l -> new LongAdder());
+    }
+
+    /**
+     * Registers a counter kept elsewhere, such as a pool's or cache's own statistics, read each time the
+     * metrics are scraped. Replaces any earlier one with the same labels.
+     * @param name metric name
+     * @param help description shown in the exposition
+     * @param value reads the current count, which must only ever increase
+     * @param labels alternating label names and values
+     */
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").series.put(labelsOf(labels), value);
+    }
+
+    /**
+     * @param name metric name, whose quantiles are exposed in seconds
+     * @param help description shown in the exposition
+     * @param labels alternating label names and values
+     * @return the histogram, created on first use
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "summary").series.computeIfAbsent(labelsOf(labels), l -> new Histogram());
+    }
+
+    /**
+     * @param name metric name, whose quantiles are exposed as recorded
+     * @param help description shown in the exposition
+     * @param labels alternating label names and values
+     * @return a histogram of plain numbers, such as sizes or counts, created on first use
+     */
+    public Histogram distribution(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "summary").series.computeIfAbsent(labelsOf(labels), l -> new Histogram(1));
+    }
+
+    /**
+     * Registers a value that is read each time the metrics are scraped, replacing any earlier one with the same labels.
+     * @param name metric name
+     * @param help description shown in the exposition
+     * @param value reads the current value
+     * @param labels alternating label names and values
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").series.put(labelsOf(labels), value);
+    }
+
+    /**
+     * @return every metric in Prometheus text format, version 0.0.4
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : new TreeMap<>(families).values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : new TreeMap<>(family.series).entrySet()) {
+                write(out, family.name, series.getKey(), series.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private void write(StringBuilder out, String name, String labels, Object metric) {
+        if (metric instanceof LongAdder) {
+            sample(out, name, labels, ((LongAdder) metric).sum());
+        } else if (metric instanceof DoubleSupplier) {
+            sample(out, name, labels, ((DoubleSupplier) metric).getAsDouble());
+        } else {
+            Histogram histogram = (Histogram) metric;
+            long[] values = histogram.getQuantiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                String quantile = "quantile=\"" + QUANTILES[i] + "\"";
+                sample(out, name, labels.isEmpty() ? quantile : labels + "," + quantile, values[i] / histogram.getScale());
+            }
+            sample(out, name + "_sum", labels, histogram.getSum() / histogram.getScale());
+            sample(out, name + "_count", labels, histogram.getCount());
+        }
+    }
+
+    private void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static String labelsOf(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            out.append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return out.toString();
+    }
+
+    private static class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
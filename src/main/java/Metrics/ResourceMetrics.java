@@ -0,0 +1,65 @@
+package Metrics;
+
+import Cache.BookCache;
+import DAO.StatementCache;
+import Util.ConnectionPool;
+import Util.DatabaseExecutor;
+
+/**
+ * Publishes the statistics the connection pool, database executor, statement cache and book cache already keep,
+ * so they appear on /metrics next to the request and DAO timings.
+ */
+public class ResourceMetrics {
+
+    private ResourceMetrics() {
+    }
+
+    /**
+     * @param pool pool of the library database, or null when the in-memory engine is used
+     * @param database
+     * @param statementCache
+     * @param bookCache
+     */
+    public static void register(ConnectionPool pool, DatabaseExecutor database, StatementCache statementCache,
+                                BookCache bookCache) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+
+        if (pool != null) {
+            String connections = "library_db_pool_connections";
+            String connectionsHelp = "Pooled database connections by state.";
+            metrics.gauge(connections, connectionsHelp, () -> pool.getStats().getActive(), "state", "active");
+            metrics.gauge(connections, connectionsHelp, () -> pool.getStats().getIdle(), "state", "idle");
+            metrics.gauge(connections, connectionsHelp, () -> pool.getStats().getMaxSize(), "state", "max");
+            metrics.gauge("library_db_pool_waiting_threads", "Threads waiting to borrow a connection.",
+                    () -> pool.getStats().getWaiting());
+            metrics.counter("library_db_pool_acquires_total", "Connections borrowed from the pool.",
+                    () -> pool.getStats().getAcquireCount());
+            metrics.counter("library_db_pool_acquire_timeouts_total", "Borrows that gave up waiting for a connection.",
+                    () -> pool.getStats().getAcquireTimeouts());
+            metrics.gauge("library_db_pool_acquire_max_seconds", "Longest wait to borrow a connection.",
+                    () -> pool.getStats().getAcquireMaxMillis() / 1000);
+        }
+
+        metrics.gauge("library_db_executor_active_threads", "Database executor threads running a task.",
+                database::getActive);
+        metrics.gauge("library_db_executor_queued_tasks", "Tasks waiting for a database executor thread.",
+                database::getQueued);
+        metrics.counter("library_db_executor_completed_tasks_total", "Tasks the database executor has finished.",
+                database::getCompleted);
+
+        String statements = "library_statement_cache_requests_total";
+        String statementsHelp = "Prepared statement lookups by result.";
+        metrics.counter(statements, statementsHelp, statementCache::getHits, "result", "hit");
+        metrics.counter(statements, statementsHelp, statementCache::getMisses, "result", "miss");
+        metrics.counter("library_statement_cache_evictions_total", "Prepared statements closed to make room.",
+                statementCache::getEvictions);
+
+        String books = "library_book_cache_requests_total";
+        String booksHelp = "Book lookups by id by cache result.";
+        metrics.counter(books, booksHelp, () -> bookCache.getStats().getHits(), "result", "hit");
+        metrics.counter(books, booksHelp, () -> bookCache.getStats().getMisses(), "result", "miss");
+        metrics.counter("library_book_cache_evictions_total", "Books evicted from the cache.",
+                () -> bookCache.getStats().getEvictions());
+        metrics.gauge("library_book_cache_size", "Books currently cached.", () -> bookCache.getStats().getSize());
+    }
+}
@@ -0,0 +1,53 @@
+package Metrics;
+
+import io.javalin.util.JavalinLogger;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Times the phases of starting the service, logging each one and exposing it as
+ * library_startup_phase_seconds{phase="..."}, so a slow boot can be traced to the phase that slowed it.
+ */
+public class StartupPhases {
+
+    private final MetricsRegistry metrics;
+
+    public StartupPhases(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs one phase of startup and records how long it took.
+     * @param phase name of the phase, used as the metric label
+     * @param work the phase
+     * @return what the phase returned
+     */
+    public <T> T time(String phase, Supplier<T> work) {
+        long start = System.nanoTime();
+        T result = work.get();
+        record(phase, (System.nanoTime() - start) / 1e9);
+        return result;
+    }
+
+    public void time(String phase, Runnable work) {
+        time(phase, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Records the time from the start of the JVM to now, which includes loading classes before main ran.
+     * @param phase name of the phase, used as the metric label
+     */
+    public void sinceJvmStart(String phase) {
+        record(phase, ManagementFactory.getRuntimeMXBean().getUptime() / 1e3);
+    }
+
+    private void record(String phase, double seconds) {
+        JavalinLogger.info(String.format("Startup phase %s took %.3f s", phase, seconds));
+        metrics.gauge("library_startup_phase_seconds", "Time taken by each phase of starting the service.",
+                () -> seconds, "phase", phase);
+    }
+}
@@ -0,0 +1,80 @@
+package Model;
+
+import java.util.Objects;
+
+/**
+ * The outcome of one entry of a bulk book upload, reported at the same index as the entry in the request.
+ */
+public class BookBatchResult {
+    /**
+     * The book was saved; book holds it with its id.
+     */
+    public static final String CREATED = "created";
+    /**
+     * The entry was malformed or its title or author was empty, so it was not saved.
+     */
+    public static final String INVALID = "invalid";
+    /**
+     * The entry was valid but the database rejected it.
+     */
+    public static final String FAILED = "failed";
+
+    private int index;
+    private String status;
+    private Book book;
+
+    public BookBatchResult(){
+    }
+
+    public BookBatchResult(int index, String status, Book book) {
+        this.index = index;
+        this.status = status;
+        this.book = book;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Book getBook() {
+        return book;
+    }
+
+    public void setBook(Book book) {
+        this.book = book;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BookBatchResult that = (BookBatchResult) o;
+        return index == that.index && Objects.equals(status, that.status) && Objects.equals(book, that.book);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, status, book);
+    }
+
+    @Override
+    public String toString() {
+        return "BookBatchResult{" +
+                "index=" + index +
+                ", status='" + status + '\'' +
+                ", book=" + book +
+                '}';
+    }
+}
@@ -0,0 +1,64 @@
+package Model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The fields of a book, named as both the column in the books table and the property in the JSON.
+ * Used to narrow a listing to the fields a client asked for.
+ */
+public enum BookField {
+    BOOK_ID("bookId"),
+    TITLE("title"),
+    AUTHOR("author"),
+    SIGNED_OUT_BY("signedOutBy");
+
+    /**
+     * Every field, in the order they are selected and written.
+     */
+    public static final Set<BookField> ALL = Collections.unmodifiableSet(EnumSet.allOf(BookField.class));
+
+    private final String fieldName;
+
+    BookField(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * @return the column and JSON property name
+     */
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Reads a comma separated list of field names, e.g. "bookId,title". Names are matched ignoring case.
+     * @param fields
+     * @return the fields named
+     * @throws IllegalArgumentException when a name is not a book field, or none is given
+     */
+    public static Set<BookField> parse(String fields) {
+        EnumSet<BookField> parsed = EnumSet.noneOf(BookField.class);
+        for (String name : fields.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            BookField match = null;
+            for (BookField field : values()) {
+                if (field.fieldName.equalsIgnoreCase(name)) {
+                    match = field;
+                }
+            }
+            if (match == null) {
+                throw new IllegalArgumentException("Not a book field: " + name);
+            }
+            parsed.add(match);
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalArgumentException("No book fields given");
+        }
+        return parsed.size() == ALL.size() ? ALL : Collections.unmodifiableSet(parsed);
+    }
+}
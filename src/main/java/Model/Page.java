@@ -0,0 +1,60 @@
+package Model;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One page of a keyset-paginated listing.
+ * nextCursor is passed back as the 'after' query parameter to fetch the following page,
+ * and is null when there are no more results.
+ * @param <T> the type of item listed
+ */
+public class Page<T> {
+    private List<T> items;
+    private String nextCursor;
+
+    public Page(){
+    }
+
+    public Page(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Page<?> page = (Page<?>) o;
+        return Objects.equals(items, page.items) && Objects.equals(nextCursor, page.nextCursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(items, nextCursor);
+    }
+
+    @Override
+    public String toString() {
+        return "Page{" +
+                "items=" + items +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
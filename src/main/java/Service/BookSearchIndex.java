@@ -0,0 +1,163 @@
+package Service;
+
+import Model.Book;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over the words of every book's title and author, for partial word-level search.
+ * Each word maps to the ids of the books containing it, kept in sorted maps so a query word also matches
+ * every indexed word it is a prefix of ("joy" finds "joyland"). A search only touches the postings of the
+ * words it matches, so it does not slow down as the catalog grows.
+ * The index keeps its own copies of the books; BookService updates it on every add, checkout and return.
+ */
+public class BookSearchIndex {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final double TITLE_WEIGHT = 2.0;
+    private static final double AUTHOR_WEIGHT = 1.0;
+    /**
+     * A query word equal to an indexed word counts this many times more than one that is only its prefix.
+     */
+    private static final double EXACT_MATCH_BOOST = 2.0;
+
+    private final Map<Integer, Book> books = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<Integer>> titleTokens = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Set<Integer>> authorTokens = new ConcurrentSkipListMap<>();
+
+    /**
+     * Replaces the contents of the index with the given books, used to build it at startup.
+     * @param allBooks every book in the catalog
+     */
+    public void rebuild(Collection<Book> allBooks) {
+        books.clear();
+        titleTokens.clear();
+        authorTokens.clear();
+        for (Book book : allBooks) {
+            add(book);
+        }
+    }
+
+    /**
+     * Adds a newly saved book to the index.
+     * @param book
+     */
+    public void add(Book book) {
+        books.put(book.getBookId(), copy(book));
+        for (String token : tokenize(book.getTitle())) {
+            titleTokens.computeIfAbsent(token, t -> ConcurrentHashMap.newKeySet()).add(book.getBookId());
+        }
+        for (String token : tokenize(book.getAuthor())) {
+            authorTokens.computeIfAbsent(token, t -> ConcurrentHashMap.newKeySet()).add(book.getBookId());
+        }
+    }
+
+    /**
+     * Refreshes the indexed copy of a book whose availability changed.
+     * Title and author never change once a book is saved, so the postings stay as they are.
+     * @param book
+     */
+    public void update(Book book) {
+        if (books.containsKey(book.getBookId())) {
+            books.put(book.getBookId(), copy(book));
+        } else {
+            add(book);
+        }
+    }
+
+    /**
+     * @return number of books in the index
+     */
+    public int size() {
+        return books.size();
+    }
+
+    /**
+     * Finds the books whose title or author contain every word of the query, either whole or as a prefix.
+     * Books are ranked by relevance: title matches outweigh author matches and whole-word matches outweigh prefixes.
+     * Equally relevant books are ordered by id.
+     * @param query free text, e.g. "king joy"
+     * @param limit maximum number of books returned
+     * @return list of books, most relevant first
+     */
+    public List<Book> search(String query, int limit) {
+        List<String> queryTokens = tokenize(query);
+        if (queryTokens.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Integer, Double> scores = null;
+        for (String queryToken : queryTokens) {
+            Map<Integer, Double> tokenScores = new HashMap<>();
+            score(titleTokens, queryToken, TITLE_WEIGHT, tokenScores);
+            score(authorTokens, queryToken, AUTHOR_WEIGHT, tokenScores);
+
+            // every query word must match, so keep only books matched by all words so far
+            if (scores == null) {
+                scores = tokenScores;
+            } else {
+                scores.keySet().retainAll(tokenScores.keySet());
+                for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+                    entry.setValue(entry.getValue() + tokenScores.get(entry.getKey()));
+                }
+            }
+            if (scores.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+
+        Map<Integer, Double> finalScores = scores;
+        List<Book> results = new ArrayList<>();
+        finalScores.keySet().stream()
+                .sorted(Comparator.comparing((Integer id) -> finalScores.get(id)).reversed().thenComparing(id -> id))
+                .limit(limit)
+                .forEach(id -> {
+                    Book book = books.get(id);
+                    if (book != null) {
+                        results.add(copy(book));
+                    }
+                });
+        return results;
+    }
+
+    /**
+     * Adds the score of every indexed word the query word is equal to or a prefix of.
+     */
+    private void score(ConcurrentSkipListMap<String, Set<Integer>> tokens, String queryToken, double weight,
+                       Map<Integer, Double> scores) {
+        NavigableMap<String, Set<Integer>> matches = tokens.subMap(queryToken, true, queryToken + Character.MAX_VALUE, false);
+        for (Map.Entry<String, Set<Integer>> match : matches.entrySet()) {
+            double score = match.getKey().equals(queryToken) ? weight * EXACT_MATCH_BOOST : weight;
+            for (Integer bookId : match.getValue()) {
+                scores.merge(bookId, score, Double::sum);
+            }
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase())) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static Book copy(Book book) {
+        return new Book(book.getBookId(), book.getAuthor(), book.getTitle(), book.getSignedOutBy());
+    }
+}
@@ -1,46 +1,225 @@
 package Service;
 
 import DAO.BookDAO;
+import DAO.BookWriteListener;
+import DAO.RowCallback;
+import DAO.UserDAO;
+import Exceptions.BookNotFoundException;
 import Exceptions.BookSignedOutException;
+import Exceptions.UserNotFoundException;
+import Metrics.MetricsRegistry;
 import Model.Book;
+import Model.BookBatchResult;
+import Model.BookField;
+import Model.Page;
+import Util.DatabaseExecutor;
+import Util.IdAllocator;
+import Util.ReadRouting;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BookService implements BookWriteListener {
+    /**
+     * How many times a book with a generated id is inserted before giving up.
+     * Retrying only matters for databases that still hold books numbered before ids were allocated in blocks.
+     */
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
+    private static final LongAdder CHECKOUT_CONFLICTS = MetricsRegistry.getInstance().counter(
+            "library_checkout_conflicts_total", "Checkouts refused because another user has the book signed out.");
 
-public class BookService {
     private BookDAO bookDAO;
+    private UserDAO userDAO;
+    private IdAllocator idAllocator;
+    private BookSearchIndex searchIndex;
+    private LoanCounter loanCounter;
+    private DatabaseExecutor database;
+    /**
+     * coalesces identical listings asked for at once, keyed by the query they run
+     */
+    private final SingleFlight<List<Object>, Object> listings = new SingleFlight<>("books");
+    private final List<BookWriteListener> writeListeners = new CopyOnWriteArrayList<>();
 
     public BookService(BookDAO bookDAO){
+        this(bookDAO, new BookSearchIndex());
+    }
+
+    /**
+     * @param bookDAO
+     * @param searchIndex word index over the catalog, already built from the DAO; kept up to date by this service
+     */
+    public BookService(BookDAO bookDAO, BookSearchIndex searchIndex){
+        this(bookDAO, searchIndex, null);
+    }
+
+    /**
+     * @param bookDAO
+     * @param searchIndex word index over the catalog, already built from the DAO; kept up to date by this service
+     * @param loanCounter count of books signed out per user, already built from the DAO; kept up to date by
+     *                    this service. May be null when nothing reads it.
+     */
+    public BookService(BookDAO bookDAO, BookSearchIndex searchIndex, LoanCounter loanCounter){
+        this(bookDAO, searchIndex, loanCounter, DatabaseExecutor.getInstance());
+    }
+
+    /**
+     * @param bookDAO
+     * @param searchIndex word index over the catalog, already built from the DAO; kept up to date by this service
+     * @param loanCounter count of books signed out per user, kept up to date by this service, or null
+     * @param database executor the asynchronous methods run their DAO calls on
+     */
+    public BookService(BookDAO bookDAO, BookSearchIndex searchIndex, LoanCounter loanCounter, DatabaseExecutor database){
+        this(bookDAO, null, searchIndex, loanCounter, database);
+    }
+
+    /**
+     * @param bookDAO
+     * @param userDAO looked up when a checkout is refused, to tell a missing user from a book held by someone else
+     * @param searchIndex word index over the catalog, already built from the DAO; kept up to date by this service
+     * @param loanCounter count of books signed out per user, kept up to date by this service, or null
+     */
+    public BookService(BookDAO bookDAO, UserDAO userDAO, BookSearchIndex searchIndex, LoanCounter loanCounter){
+        this(bookDAO, userDAO, searchIndex, loanCounter, DatabaseExecutor.getInstance());
+    }
+
+    /**
+     * @param bookDAO
+     * @param userDAO looked up when a checkout is refused, to tell a missing user from a book held by someone else;
+     *                null to report every refused checkout of an existing book as a conflict
+     * @param searchIndex word index over the catalog, already built from the DAO; kept up to date by this service
+     * @param loanCounter count of books signed out per user, kept up to date by this service, or null
+     * @param database executor the asynchronous methods run their DAO calls on
+     */
+    public BookService(BookDAO bookDAO, UserDAO userDAO, BookSearchIndex searchIndex, LoanCounter loanCounter,
+                       DatabaseExecutor database){
         this.bookDAO = bookDAO;
+        this.userDAO = userDAO;
+        this.idAllocator = new IdAllocator(bookDAO::nextBookIdBlock);
+        this.searchIndex = searchIndex;
+        this.loanCounter = loanCounter;
+        this.database = database;
+    }
+
+    /**
+     * Registers a listener to be told about every book write this service sees, after its listings have stopped
+     * sharing results read before the write. Anything that tells clients a write happened, such as CatalogVersions
+     * bumping the ETag, should listen here rather than on the DAO, or a client could be sent the new ETag with rows
+     * read before the write.
+     * @param listener
+     */
+    public void addWriteListener(BookWriteListener listener) {
+        writeListeners.add(listener);
+    }
+
+    /**
+     * Stops listings asked for from now on from sharing the result of one that started before this write, then
+     * passes the write on to this service's own listeners.
+     * Register the service as a write listener of its BookDAO so every write is seen.
+     * @param bookId
+     */
+    @Override
+    public void bookWritten(int bookId) {
+        listings.invalidate();
+        for (BookWriteListener listener : writeListeners) {
+            listener.bookWritten(bookId);
+        }
     }
 
     /**
      * Saves the book to the database (duplicates are not an issue).
      * Returns null if either the book title or author are empty, as they are invalid inputs.
-     * Generates randomized unique id for the book.
+     * Assigns the book a unique id from the id allocator, so no query is needed to check the id is free.
      * Title and author are 'sanitized' by removing leading and trailing white space, as well as lower-casing inputs.
      * @param book
      * @return book or null
      */
     public Book addBook(Book book) {
-        if (book.getTitle().isBlank() || book.getAuthor().isBlank()) {
+        if (!normalize(book)) {
             return null;
         }
 
-        int id = 0;
+        // if book id is the default (0), replace it with a unique allocated id
+        Book addedBook;
+        if (book.getBookId() != 0) {
+            addedBook = bookDAO.insertBook(book);
+        } else {
+            addedBook = null;
+            for (int attempt = 0; attempt < MAX_INSERT_ATTEMPTS && addedBook == null; attempt++) {
+                book.setBookId(idAllocator.nextId());
+                addedBook = bookDAO.insertBook(book);
+            }
+        }
 
-        // if book id is the default (0), replace it with a unique randomized id
-        if (book.getBookId() == id) {
-            do {
-                id = (int) (Math.random() * Integer.MAX_VALUE);
-            } while (bookDAO.queryBooksById(id) != null);
+        if (addedBook != null) {
+            searchIndex.add(addedBook);
+        }
+        return addedBook;
+    }
+
+    /**
+     * Saves many books at once, applying the same rules as addBook to each.
+     * Invalid entries are skipped, every valid one is given an allocated id (or keeps the id it came with),
+     * and the valid books are inserted in batches of chunkSize rows, each batch committed as one transaction.
+     * @param books entries to save; a null entry is one that could not be read
+     * @param chunkSize number of rows inserted per batch
+     * @return one result per entry, in the same order
+     */
+    public List<BookBatchResult> addBooks(List<Book> books, int chunkSize) {
+        List<BookBatchResult> results = new ArrayList<>(books.size());
+        List<Book> validBooks = new ArrayList<>();
+        for (int i = 0; i < books.size(); i++) {
+            Book book = books.get(i);
+            if (book == null || !normalize(book)) {
+                results.add(new BookBatchResult(i, BookBatchResult.INVALID, book));
+                continue;
+            }
+            if (book.getBookId() == 0) {
+                book.setBookId(idAllocator.nextId());
+            }
+            validBooks.add(book);
+            results.add(null);
+        }
 
-            book.setBookId(id);
+        List<Book> insertedBooks = bookDAO.insertBooks(validBooks, chunkSize);
+        int next = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) != null) {
+                continue;
+            }
+            Book insertedBook = insertedBooks.get(next);
+            if (insertedBook != null) {
+                searchIndex.add(insertedBook);
+                results.set(i, new BookBatchResult(i, BookBatchResult.CREATED, insertedBook));
+            } else {
+                results.set(i, new BookBatchResult(i, BookBatchResult.FAILED, validBooks.get(next)));
+            }
+            next++;
         }
+        return results;
+    }
 
+    /**
+     * Checks a book is valid and 'sanitizes' its title and author, removing leading and trailing white space
+     * and lower-casing them.
+     * @param book
+     * @return false if the title or author is missing or empty
+     */
+    private boolean normalize(Book book) {
+        if (book.getTitle() == null || book.getAuthor() == null
+                || book.getTitle().isBlank() || book.getAuthor().isBlank()) {
+            return false;
+        }
         book.setTitle(book.getTitle().trim().toLowerCase());
         book.setAuthor(book.getAuthor().trim().toLowerCase());
-
-        return bookDAO.insertBook(book);
+        return true;
     }
 
     /**
@@ -52,6 +231,106 @@ public class BookService {
         return bookList;
     }
 
+    /**
+     * Retrieves the books matching the title and/or author, or every book when neither is given.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @return list of books
+     */
+    public List<Book> getBooks(String title, String author){
+        if (title != null && author != null) {
+            return getBooksByTitleAndAuthor(title, author);
+        } else if (title != null) {
+            return getBooksByTitle(title);
+        } else if (author != null) {
+            return getBooksByAuthor(author);
+        }
+        return getAllBooks();
+    }
+
+    /**
+     * Retrieves the books matching the title and/or author like getBooks, reading only the given fields
+     * from the database; the other fields are left at their defaults.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param fields fields to read
+     * @return list of books
+     */
+    public List<Book> getBooks(String title, String author, Set<BookField> fields){
+        if (fields.equals(BookField.ALL)) {
+            return getBooks(title, author);
+        }
+        return bookDAO.queryBooks(title, author, fields);
+    }
+
+    /**
+     * Searches the word index for books whose title or author contain every word of the query,
+     * whole or as a prefix, most relevant first. The database is not queried.
+     * @param query free text, e.g. "king joy"
+     * @param limit maximum number of books returned
+     * @return list of books
+     */
+    public List<Book> searchBooks(String query, int limit){
+        return searchIndex.search(query, limit);
+    }
+
+    /**
+     * Streams every book matching the optional title and author to the callback without building a list.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param callback receives each book in turn
+     * @throws IOException thrown by the callback, which stops the query
+     */
+    public void streamBooks(String title, String author, RowCallback<Book> callback) throws IOException {
+        bookDAO.streamBooks(title, author, callback);
+    }
+
+    /**
+     * Streams like streamBooks, reading only the given fields from the database.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param fields fields to read
+     * @param callback receives each book in turn
+     * @throws IOException thrown by the callback, which stops the query
+     */
+    public void streamBooks(String title, String author, Set<BookField> fields, RowCallback<Book> callback) throws IOException {
+        bookDAO.streamBooks(title, author, fields, callback);
+    }
+
+    /**
+     * Retrieves one page of books ordered by id, optionally narrowed by title and/or author.
+     * One extra row is read to learn whether another page follows; if it does, the page carries
+     * the id of its last book as the cursor for the next one.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param after cursor returned with the previous page, or null for the first page
+     * @param limit maximum number of books on the page
+     * @return page of books
+     */
+    public Page<Book> getBooksPage(String title, String author, Integer after, int limit){
+        return getBooksPage(title, author, after, limit, BookField.ALL);
+    }
+
+    /**
+     * Retrieves one page of books like getBooksPage, reading only the given fields from the database.
+     * The id is read regardless, as the cursor is taken from it.
+     * @param title title to match, or null for any title
+     * @param author author to match, or null for any author
+     * @param after cursor returned with the previous page, or null for the first page
+     * @param limit maximum number of books on the page
+     * @param fields fields to read
+     * @return page of books
+     */
+    public Page<Book> getBooksPage(String title, String author, Integer after, int limit, Set<BookField> fields){
+        int afterId = after == null ? Integer.MIN_VALUE : after;
+        List<Book> bookList = bookDAO.queryBooksPage(title, author, afterId, limit + 1, fields);
+        if (bookList.size() <= limit) {
+            return new Page<>(bookList, null);
+        }
+        bookList = bookList.subList(0, limit);
+        return new Page<>(bookList, String.valueOf(bookList.get(limit - 1).getBookId()));
+    }
+
     /**
      * Retrieves a list of books from the database that match both title and author.
      * If there are no matches, the returned list will be empty.
@@ -98,38 +377,186 @@ public class BookService {
 
     /**
      * Intermediary method determining how to update book's signedOutBy property.
-     * When user has already signed out book, will call method to return book.
-     * When book is not currently signed out, will call method to sign book out.
+     * When book is not currently signed out, signs it out to the user.
+     * When user has already signed out book, returns it.
+     * Each attempt is a single conditional update, so concurrent requests for the same book cannot both win;
+     * a checkout costs one transaction on the database.
      * When book is currently signed out by another user, will throw exception.
      * @param bookId
      * @param userId
+     * @throws BookNotFoundException when there is no book with the id
+     * @throws BookSignedOutException when another user has the book signed out
+     * @throws UserNotFoundException when there is no user with the id, so the book cannot be signed out to them
      */
-    public Book updateBookSignedOutBy(int bookId, int userId) throws BookSignedOutException {
-        Book bookToUpdate = bookDAO.queryBooksById(bookId);
+    public Book updateBookSignedOutBy(int bookId, int userId) throws BookSignedOutException, BookNotFoundException {
+        Book signedOutBook = bookDAO.updateSignedOutByIfAvailable(bookId, userId);
+        if (signedOutBook != null) {
+            searchIndex.update(signedOutBook);
+            if (loanCounter != null) {
+                loanCounter.checkedOut(userId);
+            }
+            return signedOutBook;
+        }
 
-        if (bookToUpdate.getSignedOutBy() == userId) {
-            return returnBook(bookToUpdate);
-        } else if (bookToUpdate.getSignedOutBy() == 0) {
-            return signOutBook(bookToUpdate, userId);
-        } else {
-            throw new BookSignedOutException();
+        Book returnedBook = bookDAO.updateReturnBookIfSignedOutBy(bookId, userId);
+        if (returnedBook != null) {
+            searchIndex.update(returnedBook);
+            if (loanCounter != null) {
+                loanCounter.returned(userId);
+            }
+            return returnedBook;
+        }
+
+        // neither update matched: only now find out whether the book or the user is missing, or the book is held
+        // by someone else
+        if (bookDAO.queryBooksById(bookId) == null) {
+            throw new BookNotFoundException();
         }
+        if (userDAO != null && !userDAO.userExists(userId)) {
+            throw new UserNotFoundException();
+        }
+        CHECKOUT_CONFLICTS.increment();
+        throw new BookSignedOutException();
     }
 
     /**
-     * Makes call to bookDAO to update book's signedOutBy property to current user
+     * Makes call to bookDAO to update book's signedOutBy property to current user.
+     * The loan counter trusts the book's signedOutBy to say who held it before.
      * @param book
      * @param userId
      */
     public Book signOutBook(Book book, int userId) {
-        return bookDAO.updateSignedOutBy(book, userId);
+        int previousUserId = book.getSignedOutBy();
+        Book signedOutBook = bookDAO.updateSignedOutBy(book, userId);
+        if (signedOutBook != null) {
+            searchIndex.update(signedOutBook);
+            if (loanCounter != null && previousUserId != userId) {
+                if (previousUserId != 0) {
+                    loanCounter.returned(previousUserId);
+                }
+                loanCounter.checkedOut(userId);
+            }
+        }
+        return signedOutBook;
     }
 
     /**
-     * Makes call to bookDAO to update book's signedOutBy property to null (no user)
+     * Makes call to bookDAO to update book's signedOutBy property to null (no user).
+     * The loan counter trusts the book's signedOutBy to say who held it before.
      * @param book
      */
     public Book returnBook(Book book) {
-        return bookDAO.updateReturnBook(book);
+        int previousUserId = book.getSignedOutBy();
+        Book returnedBook = bookDAO.updateReturnBook(book);
+        if (returnedBook != null) {
+            searchIndex.update(returnedBook);
+            if (loanCounter != null && previousUserId != 0) {
+                loanCounter.returned(previousUserId);
+            }
+        }
+        return returnedBook;
+    }
+
+    /*
+     * Asynchronous variants. Each runs its synchronous counterpart on the database executor and returns at once;
+     * the future completes with the same result, or exceptionally with the same exception.
+     * searchBooks has no variant, as it only reads the in-memory index.
+     * Listings and pages asked for while an identical one is running share its result instead of querying again.
+     */
+
+    public CompletableFuture<Book> addBookAsync(Book book) {
+        return database.submit(() -> addBook(book));
+    }
+
+    public CompletableFuture<List<BookBatchResult>> addBooksAsync(List<Book> books, int chunkSize) {
+        return database.submit(() -> addBooks(books, chunkSize));
+    }
+
+    public CompletableFuture<List<Book>> getAllBooksAsync() {
+        return coalesced(listingKey(null, null, BookField.ALL), this::getAllBooks);
+    }
+
+    /**
+     * Streams on a database thread, so the callback is called from that thread.
+     */
+    public CompletableFuture<Void> streamBooksAsync(String title, String author, RowCallback<Book> callback) {
+        return database.submit(() -> {
+            streamBooks(title, author, callback);
+            return null;
+        });
+    }
+
+    /**
+     * Streams on a database thread, so the callback is called from that thread.
+     */
+    public CompletableFuture<Void> streamBooksAsync(String title, String author, Set<BookField> fields,
+                                                   RowCallback<Book> callback) {
+        return database.submit(() -> {
+            streamBooks(title, author, fields, callback);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Page<Book>> getBooksPageAsync(String title, String author, Integer after, int limit) {
+        return getBooksPageAsync(title, author, after, limit, BookField.ALL);
+    }
+
+    public CompletableFuture<Page<Book>> getBooksPageAsync(String title, String author, Integer after, int limit,
+                                                           Set<BookField> fields) {
+        return coalesced(Arrays.asList("page", title, author, fields, after, limit, ReadRouting.isPrimary()),
+                () -> getBooksPage(title, author, after, limit, fields));
+    }
+
+    public CompletableFuture<List<Book>> getBooksAsync(String title, String author, Set<BookField> fields) {
+        return coalesced(listingKey(title, author, fields), () -> getBooks(title, author, fields));
+    }
+
+    public CompletableFuture<List<Book>> getBooksByTitleAndAuthorAsync(String title, String author) {
+        return coalesced(listingKey(title, author, BookField.ALL), () -> getBooksByTitleAndAuthor(title, author));
+    }
+
+    public CompletableFuture<List<Book>> getBooksByAuthorAsync(String author) {
+        return coalesced(listingKey(null, author, BookField.ALL), () -> getBooksByAuthor(author));
+    }
+
+    public CompletableFuture<List<Book>> getBooksByTitleAsync(String title) {
+        return coalesced(listingKey(title, null, BookField.ALL), () -> getBooksByTitle(title));
+    }
+
+    /**
+     * Keys a listing by the query it runs, so getAllBooks and getBooks with no title or author share one key.
+     * Reads routed to the primary are kept apart from those that may go to the replica.
+     */
+    private static List<Object> listingKey(String title, String author, Set<BookField> fields) {
+        return Arrays.asList("list", title, author, fields, ReadRouting.isPrimary());
+    }
+
+    /**
+     * Runs the listing on a database thread, unless an identical one is already running, whose result is shared.
+     * Shared lists and pages must not be modified by the caller.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> coalesced(List<Object> key, Callable<T> listing) {
+        return (CompletableFuture<T>) listings.execute(key, () -> (CompletableFuture<Object>) database.submit(listing));
+    }
+
+    public CompletableFuture<Book> getBookByIdAsync(int bookId) {
+        return database.submit(() -> getBookById(bookId));
+    }
+
+    /**
+     * @return future completed exceptionally with BookNotFoundException, BookSignedOutException or
+     * UserNotFoundException as the synchronous method would throw them
+     */
+    public CompletableFuture<Book> updateBookSignedOutByAsync(int bookId, int userId) {
+        return database.submit(() -> updateBookSignedOutBy(bookId, userId));
+    }
+
+    public CompletableFuture<Book> signOutBookAsync(Book book, int userId) {
+        return database.submit(() -> signOutBook(book, userId));
+    }
+
+    public CompletableFuture<Book> returnBookAsync(Book book) {
+        return database.submit(() -> returnBook(book));
     }
 }
@@ -0,0 +1,70 @@
+package Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory count of the books each user has signed out, so checking a user's loans needs no query.
+ * BookService keeps it up to date on every checkout and return, and it is rebuilt from the database at startup.
+ * The count only sees changes made through this process, so the database stays the source of truth: deleting a
+ * user asks every shard whether the user still has books signed out rather than trusting this count alone, as only
+ * the library database has a foreign key that would refuse the delete.
+ */
+public class LoanCounter {
+
+    private final Map<Integer, Integer> loans = new ConcurrentHashMap<>();
+
+    /**
+     * Replaces every count with the given ones, used to build the counter at startup.
+     * @param loansByUser map of user id to number of books signed out
+     */
+    public void rebuild(Map<Integer, Integer> loansByUser) {
+        loans.clear();
+        loansByUser.forEach((userId, count) -> {
+            if (count > 0) {
+                loans.put(userId, count);
+            }
+        });
+    }
+
+    /**
+     * Records that a user signed out a book.
+     * @param userId
+     */
+    public void checkedOut(int userId) {
+        add(userId, 1);
+    }
+
+    /**
+     * Records that a user returned a book. BookService records changes after the DAO call returns and outside any
+     * lock, so a return may be recorded before the checkout it undoes; the count then dips below zero until the
+     * checkout catches up, rather than the return being lost.
+     * @param userId
+     */
+    public void returned(int userId) {
+        add(userId, -1);
+    }
+
+    /**
+     * Users whose count comes back to zero are removed from the map.
+     */
+    private void add(int userId, int delta) {
+        loans.merge(userId, delta, (count, change) -> count + change == 0 ? null : count + change);
+    }
+
+    /**
+     * @param userId
+     * @return number of books signed out by the user
+     */
+    public int count(int userId) {
+        return Math.max(loans.getOrDefault(userId, 0), 0);
+    }
+
+    /**
+     * @param userId
+     * @return true if the user has at least one book signed out
+     */
+    public boolean hasLoans(int userId) {
+        return count(userId) > 0;
+    }
+}
@@ -0,0 +1,117 @@
+package Service;
+
+import Metrics.Histogram;
+import Metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent calls: while a call for a key is running, later calls for the same key wait for
+ * its result instead of running again, so a crowd asking for the same listing costs one query.
+ * A caller only joins a call that started after the last {@link #invalidate()}, so it never gets a result read
+ * before a write that had already completed when it arrived, provided invalidate is called before the write is
+ * made visible any other way, such as by a new ETag. Joined callers share the result object, which must
+ * therefore be treated as read-only.
+ * Counts in library_singleflight_executions_total, library_singleflight_shared_executions_total and
+ * library_singleflight_saved_calls_total how many calls ran, how many of them were shared, and how many calls
+ * sharing saved; library_singleflight_joined_calls records how many calls each execution saved.
+ * @param <K> key identifying identical calls
+ * @param <V> result of a call
+ */
+public class SingleFlight<K, V> {
+
+    private static class Flight<V> {
+        final long epoch;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        final AtomicInteger joined = new AtomicInteger();
+
+        Flight(long epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong epoch = new AtomicLong();
+    private final LongAdder executions;
+    private final LongAdder sharedExecutions;
+    private final LongAdder savedCalls;
+    private final Histogram joinedCalls;
+
+    /**
+     * @param name what is being coalesced, used as the metric label
+     */
+    public SingleFlight(String name) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        executions = metrics.counter("library_singleflight_executions_total",
+                "Calls run by single-flight coalescing.", "name", name);
+        sharedExecutions = metrics.counter("library_singleflight_shared_executions_total",
+                "Calls whose result was shared with at least one identical concurrent call.", "name", name);
+        savedCalls = metrics.counter("library_singleflight_saved_calls_total",
+                "Identical concurrent calls answered with the result of a call already running.", "name", name);
+        joinedCalls = metrics.distribution("library_singleflight_joined_calls",
+                "Identical concurrent calls that shared each execution's result.", "name", name);
+    }
+
+    /**
+     * @param key identifies the call; equal keys must mean equal results
+     * @param call starts the call, unless an identical one is already running
+     * @return the result of this call, or of the identical one already running
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        long current = epoch.get();
+        while (true) {
+            Flight<V> running = flights.get(key);
+            if (running != null && running.epoch == current) {
+                running.joined.incrementAndGet();
+                savedCalls.increment();
+                // a copy, so a caller cancelling its future cannot cancel the others'
+                return running.result.copy();
+            }
+            Flight<V> flight = new Flight<>(current);
+            boolean started = running == null ? flights.putIfAbsent(key, flight) == null
+                    : flights.replace(key, running, flight);
+            if (started) {
+                start(key, flight, call);
+                return flight.result.copy();
+            }
+        }
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> call) {
+        executions.increment();
+        CompletableFuture<V> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, e) -> {
+            // removed before completing, so no caller joins a call whose result is already handed out
+            flights.remove(key, flight);
+            int joined = flight.joined.get();
+            joinedCalls.record(joined);
+            if (joined > 0) {
+                sharedExecutions.increment();
+            }
+            if (e == null) {
+                flight.result.complete(value);
+            } else {
+                flight.result.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Stops later callers from joining the calls already running, as their results may predate a write.
+     * Called after every write to what the calls read.
+     */
+    public void invalidate() {
+        epoch.incrementAndGet();
+    }
+}
@@ -3,22 +3,52 @@ package Service;
 import DAO.UserDAO;
 import DAO.BookDAO;
 import Exceptions.UserHasBooksSignedOut;
-import Model.Book;
+import Model.Page;
 import Model.User;
+import Util.DatabaseExecutor;
+import Util.IdAllocator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class UserService {
     UserDAO userDAO;
     BookDAO bookDAO;
+    IdAllocator idAllocator;
+    LoanCounter loanCounter;
+    DatabaseExecutor database;
     public UserService(UserDAO userDAO, BookDAO bookDAO){
+        this(userDAO, bookDAO, null);
+    }
+
+    /**
+     * @param userDAO
+     * @param bookDAO
+     * @param loanCounter count of books signed out per user, shared with the BookService that keeps it up to date,
+     *                    or null to ask the database instead
+     */
+    public UserService(UserDAO userDAO, BookDAO bookDAO, LoanCounter loanCounter){
+        this(userDAO, bookDAO, loanCounter, DatabaseExecutor.getInstance());
+    }
+
+    /**
+     * @param userDAO
+     * @param bookDAO
+     * @param loanCounter count of books signed out per user, or null to ask the database instead
+     * @param database executor the asynchronous methods run their DAO calls on
+     */
+    public UserService(UserDAO userDAO, BookDAO bookDAO, LoanCounter loanCounter, DatabaseExecutor database){
         this.userDAO = userDAO;
         this.bookDAO = bookDAO;
+        this.idAllocator = new IdAllocator(userDAO::nextUserIdBlock);
+        this.loanCounter = loanCounter;
+        this.database = database;
     }
 
     /**
      * Saves the user to the database.
-     * Returns null if username is empty, as it is an invalid input.
-     * Generates randomized unique id for the user.
+     * Returns null if username is empty or already in use, as it is an invalid input.
+     * Assigns the user a unique id from the id allocator, so no query is needed to check the id is free.
      * Lower-cases username prior to saving user.
      * @param user
      * @return user or null
@@ -28,17 +58,11 @@ public class UserService {
             return null;
         }
 
-        int id = 0;
-
         if (userDAO.userExists(user.getUsername())) {
             return null;
-            // if user id is the default (0), replace it with a unique randomized id
-        } else if (user.getUserId() == id) {
-            do {
-                id = (int) (Math.random() * Integer.MAX_VALUE);
-            } while (userDAO.userExists(id));
-
-            user.setUserId(id);
+            // if user id is the default (0), replace it with a unique allocated id
+        } else if (user.getUserId() == 0) {
+            user.setUserId(idAllocator.nextId());
         }
 
         user.setUsername(user.getUsername().toLowerCase());
@@ -49,18 +73,65 @@ public class UserService {
     /**
      * Method calls DAO to retrieve a list of all users in the database.
      */
-    public List getAllUsers() {
+    public List<User> getAllUsers() {
         return userDAO.getAllUsers();
     }
 
+    /**
+     * Method calls DAO to retrieve one page of users ordered by id.
+     * If another page follows, the page carries the id of its last user as the cursor for the next one.
+     * @param after cursor returned with the previous page, or null for the first page
+     * @param limit maximum number of users on the page
+     * @return page of users
+     */
+    public Page<User> getUsersPage(Integer after, int limit) {
+        int afterId = after == null ? Integer.MIN_VALUE : after;
+        List<User> userList = userDAO.getUsersPage(afterId, limit + 1);
+        if (userList.size() <= limit) {
+            return new Page<>(userList, null);
+        }
+        userList = userList.subList(0, limit);
+        return new Page<>(userList, String.valueOf(userList.get(limit - 1).getUserId()));
+    }
+
     /**
      * Method verifies whether user has books signed out.
+     * Answered from the loan counter when there is one, otherwise by an EXISTS query that reads no book rows.
      * @param userId
      * @return boolean
      */
     public boolean hasBooksSignedOut(int userId) {
-        List<Book> books = bookDAO.queryBooksSignedOutByUser(userId);
-        return books.size() > 0;
+        if (loanCounter != null) {
+            return loanCounter.hasLoans(userId);
+        }
+        return bookDAO.hasBooksSignedOutByUser(userId);
+    }
+
+    /**
+     * Checks whether a user has books signed out before deleting them. The loan counter can refuse at once, but a
+     * count of none is always checked against every shard of the database: only the library database has a foreign
+     * key that would stop the delete, so books in the other shards would be left held by no one.
+     * @param userId
+     * @return boolean
+     */
+    private boolean hasBooksSignedOutForDelete(int userId) {
+        if (loanCounter != null && loanCounter.hasLoans(userId)) {
+            return true;
+        }
+        return bookDAO.hasBooksSignedOutByUser(userId);
+    }
+
+    /**
+     * Method counts the books a user has signed out, e.g. to enforce a loan limit.
+     * Answered from the loan counter when there is one, otherwise by a COUNT query that reads no book rows.
+     * @param userId
+     * @return number of books signed out
+     */
+    public int countBooksSignedOut(int userId) {
+        if (loanCounter != null) {
+            return loanCounter.count(userId);
+        }
+        return bookDAO.countBooksSignedOutByUser(userId);
     }
 
     /**
@@ -93,7 +164,7 @@ public class UserService {
     public User deleteUser(int currentUserId, int userToDeleteId) throws UserHasBooksSignedOut {
         if (currentUserId == userToDeleteId) {
             User userToDelete = userDAO.getUserById(userToDeleteId);
-            if (!hasBooksSignedOut(userToDeleteId)) {
+            if (!hasBooksSignedOutForDelete(userToDeleteId)) {
                 return userDAO.deleteUser(userToDelete);
             } else {
                 throw new UserHasBooksSignedOut();
@@ -102,4 +173,58 @@ public class UserService {
             return null;
         }
     }
+
+    /*
+     * Asynchronous variants. Each runs on the database executor and returns at once;
+     * the future completes with the same result, or exceptionally with the same exception.
+     */
+
+    public CompletableFuture<User> createUserAsync(User user) {
+        return database.submit(() -> createUser(user));
+    }
+
+    public CompletableFuture<List<User>> getAllUsersAsync() {
+        return database.submit(this::getAllUsers);
+    }
+
+    public CompletableFuture<Page<User>> getUsersPageAsync(Integer after, int limit) {
+        return database.submit(() -> getUsersPage(after, limit));
+    }
+
+    /**
+     * Completes at once when the loan counter can answer, so no database thread is taken.
+     */
+    public CompletableFuture<Boolean> hasBooksSignedOutAsync(int userId) {
+        if (loanCounter != null) {
+            return CompletableFuture.completedFuture(loanCounter.hasLoans(userId));
+        }
+        return database.submit(() -> hasBooksSignedOut(userId));
+    }
+
+    /**
+     * Asynchronous variant of deleteUser, checking signed out books the same way. Looking up the user and checking
+     * their signed out books do not depend on each other, so both run at the same time and the delete follows once
+     * both have answered.
+     * @param currentUserId
+     * @param userToDeleteId
+     * @return future completed with the deleted user, with null if the credentials do not match or there is no
+     * such user, or exceptionally with UserHasBooksSignedOut
+     */
+    public CompletableFuture<User> deleteUserAsync(int currentUserId, int userToDeleteId) {
+        if (currentUserId != userToDeleteId) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<User> userToDelete = database.submit(() -> userDAO.getUserById(userToDeleteId));
+        CompletableFuture<Boolean> hasBooks = loanCounter != null && loanCounter.hasLoans(userToDeleteId)
+                ? CompletableFuture.completedFuture(true)
+                : database.submit(() -> bookDAO.hasBooksSignedOutByUser(userToDeleteId));
+        return userToDelete.thenCombine(hasBooks, (user, booksSignedOut) -> {
+            if (booksSignedOut) {
+                throw new CompletionException(new UserHasBooksSignedOut());
+            }
+            return user;
+        }).thenCompose(user -> user == null
+                ? CompletableFuture.completedFuture(null)
+                : database.submit(() -> userDAO.deleteUser(user)));
+    }
 }
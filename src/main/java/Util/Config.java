@@ -0,0 +1,45 @@
+package Util;
+
+/**
+ * Reads runtime settings for the library service.
+ * A setting named "db.pool.maxSize" is looked up first as the system property "library.db.pool.maxSize",
+ * then as the environment variable "LIBRARY_DB_POOL_MAXSIZE", and falls back to the given default.
+ */
+public class Config {
+
+    private Config() {
+    }
+
+    /**
+     * @param name setting name without the "library." prefix
+     * @param defaultValue value used when the setting is absent
+     * @return the configured value or the default
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty("library." + name);
+        if (value == null) {
+            value = System.getenv("LIBRARY_" + name.replace('.', '_').toUpperCase());
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static double getDouble(String name, double defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
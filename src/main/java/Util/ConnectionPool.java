@@ -0,0 +1,91 @@
+package Util;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+
+import javax.sql.DataSource;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of JDBC connections shared by every DAO, so concurrent requests no longer serialize on one connection.
+ * Sizing and timeouts are read from {@link Config} under the "db.pool." prefix:
+ * minIdle, maxSize, idleTimeoutMs (idle eviction), acquireTimeoutMs, leakDetectionMs and maxLifetimeMs.
+ * Connections are validated on borrow with {@link java.sql.Connection#isValid(int)}.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final HikariDataSource dataSource;
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAccumulator acquireMaxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder acquireTimeouts = new LongAdder();
+
+    public ConnectionPool(String name, String url, String username, String password) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMinimumIdle(Config.getInt("db.pool.minIdle", 2));
+        config.setMaximumPoolSize(Config.getInt("db.pool.maxSize", 10));
+        config.setIdleTimeout(Config.getLong("db.pool.idleTimeoutMs", 600_000));
+        config.setConnectionTimeout(Config.getLong("db.pool.acquireTimeoutMs", 5_000));
+        config.setLeakDetectionThreshold(Config.getLong("db.pool.leakDetectionMs", 20_000));
+        config.setMaxLifetime(Config.getLong("db.pool.maxLifetimeMs", 1_800_000));
+        config.setValidationTimeout(Config.getLong("db.pool.validationTimeoutMs", 1_000));
+        config.setRegisterMbeans(true);
+        config.setMetricsTrackerFactory((poolName, poolStats) -> new AcquireTracker());
+        this.dataSource = new HikariDataSource(config);
+    }
+
+    /**
+     * @return the pooled DataSource to hand to the DAOs
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @return current connection counts and cumulative acquire latency
+     */
+    public PoolStats getStats() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        long count = acquireCount.sum();
+        double meanMillis = count == 0 ? 0 : acquireNanos.sum() / (double) count / 1_000_000;
+        return new PoolStats(
+                pool.getActiveConnections(),
+                pool.getIdleConnections(),
+                pool.getTotalConnections(),
+                pool.getThreadsAwaitingConnection(),
+                dataSource.getMaximumPoolSize(),
+                count,
+                acquireTimeouts.sum(),
+                meanMillis,
+                acquireMaxNanos.get() / 1_000_000.0);
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+
+    /**
+     * Receives the acquire timings Hikari measures on every borrow.
+     */
+    private class AcquireTracker implements IMetricsTracker {
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquireCount.increment();
+            acquireNanos.add(elapsedAcquiredNanos);
+            acquireMaxNanos.accumulate(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            acquireTimeouts.increment();
+        }
+    }
+}
@@ -1,25 +1,26 @@
 package Util;
 
-import org.h2.tools.RunScript;
-
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * The ConnectionUtil class will be utilized to create an active connection to our database. This class utilizes the singleton design pattern.
+ * The ConnectionSingleton class will be utilized to provide access to our database. This class utilizes the singleton design pattern.
  * We will be utilizing an in-memory called h2database for the sql demos.
  *
- * DO NOT CHANGE ANYTHING IN THIS CLASS
+ * Rather than handing out one shared connection, it owns a single {@link ConnectionPool} whose DataSource
+ * is given to every DAO.
  */
 public class ConnectionSingleton {
 
     /**
      * url will represent our connection string. Since this is an in-memory db, we will represent a file location to store the data
      */
-    private static String url = "jdbc:h2:./h2/db";
+    private static String url = Config.getString("db.url", "jdbc:h2:./h2/db");
     /**
      * Default username for connecting to h2
      */
@@ -29,43 +30,177 @@ public class ConnectionSingleton {
      */
     private static String password = "sa";
     /**
-     * a static object which represents the connection to h2. Because it is static, any DAO interacting
-     * with this connection object is referring to the same object.
+     * a static object which represents the pool of connections to h2. Because it is static, any DAO interacting
+     * with this pool is referring to the same object.
      */
-    private static Connection connection = null;
+    private static ConnectionPool pool = null;
     /**
-     * @return an active connection to the database and set up the database tables if this is the first time the
-     * Connection has been established
+     * connection string of the read replica, an in-memory database by default
      */
-    public static Connection getConnection(){
-        if(connection == null){
-            try {
-                connection = DriverManager.getConnection(url, username, password);
-                resetTestDatabase();
-            } catch (SQLException e) {
-                e.printStackTrace();
+    private static String replicaUrl = Config.getString("db.replica.url", "jdbc:h2:mem:library-replica;DB_CLOSE_DELAY=-1");
+    /**
+     * the pool of connections to the read replica, created when first asked for
+     */
+    private static ConnectionPool replicaPool = null;
+    /**
+     * connection string of the extra book shards, {n} standing for the shard number
+     */
+    private static String shardUrl = Config.getString("db.shards.url", "jdbc:h2:./h2/db-shard{n}");
+    /**
+     * the pools of connections to the extra book shards, shard 1 first
+     */
+    private static final List<ConnectionPool> shardPools = new ArrayList<>();
+    /**
+     * whether startup keeps the data already in the databases, only bringing their schema up to date. Set boot.mode
+     * to production for that; by default every startup recreates the tables empty, for the tests and demos.
+     */
+    private static boolean keepData = Config.getString("boot.mode", "reset").equals("production");
+    /**
+     * guards creating the pool; a lock rather than synchronized, because setting up the tables talks to the database
+     * and a virtual thread must not block inside a monitor
+     */
+    private static final ReentrantLock poolLock = new ReentrantLock();
+
+    /**
+     * @return the pool of connections to the database, setting up the database tables if this is the first time the
+     * pool has been created: recreated empty, or in production boot mode upgraded in place
+     */
+    public static ConnectionPool getPool(){
+        poolLock.lock();
+        try {
+            if(pool == null){
+                pool = new ConnectionPool("library", url, username, password);
+                if (keepData) {
+                    upgrade(pool, SchemaMigrator.LIBRARY);
+                } else {
+                    resetTestDatabase();
+                }
+            }
+
+            return pool;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * @return the pool of connections to the read replica, created empty with the schema set up the first time;
+     * ReplicaRefresher fills it from the primary
+     */
+    public static ConnectionPool getReplicaPool(){
+        poolLock.lock();
+        try {
+            if(replicaPool == null){
+                ConnectionPool created = new ConnectionPool("library-replica", replicaUrl, username, password);
+                try (Connection connection = created.getDataSource().getConnection();
+                     Statement statement = connection.createStatement()) {
+                    statement.execute("drop all objects");
+                    SchemaMigrator.LIBRARY.migrate(created.getDataSource());
+                } catch (SQLException e) {
+                    created.close();
+                    throw new IllegalStateException("Could not set up the read replica", e);
+                }
+                replicaPool = created;
             }
+
+            return replicaPool;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * @param shards number of shards, at least 1
+     * @return the DataSources of the book shards: the library database first, then the extra book shards,
+     * each created empty with the book shard schema set up the first time it is asked for
+     */
+    public static List<DataSource> getShardDataSources(int shards){
+        List<DataSource> dataSources = new ArrayList<>();
+        dataSources.add(getDataSource());
+        poolLock.lock();
+        try {
+            while (shardPools.size() < shards - 1) {
+                int shard = shardPools.size() + 1;
+                ConnectionPool created = new ConnectionPool("library-shard-" + shard,
+                        shardUrl.replace("{n}", String.valueOf(shard)), username, password);
+                try {
+                    if (keepData) {
+                        SchemaMigrator.BOOK_SHARD.upgrade(created.getDataSource());
+                    } else {
+                        resetShard(created);
+                    }
+                } catch (SQLException e) {
+                    created.close();
+                    throw new IllegalStateException("Could not set up book shard " + shard, e);
+                }
+                shardPools.add(created);
+            }
+            for (int shard = 1; shard < shards; shard++) {
+                dataSources.add(shardPools.get(shard - 1).getDataSource());
+            }
+            return dataSources;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    /**
+     * Brings the schema of the pool's database up to date, keeping its data; gives up on startup if it cannot.
+     */
+    private static void upgrade(ConnectionPool created, SchemaMigrator migrator) {
+        try {
+            migrator.upgrade(created.getDataSource());
+        } catch (SQLException e) {
+            created.close();
+            pool = null;
+            throw new IllegalStateException("Could not bring the database schema up to date", e);
+        }
+    }
+
+    private static void resetShard(ConnectionPool shardPool) throws SQLException {
+        try (Connection connection = shardPool.getDataSource().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("drop all objects");
         }
+        SchemaMigrator.BOOK_SHARD.migrate(shardPool.getDataSource());
+    }
 
-        return connection;
+    /**
+     * @return the pooled DataSource to be given to the DAOs
+     */
+    public static DataSource getDataSource(){
+        return getPool().getDataSource();
     }
+
     /**
      * For the purpose of testing, we will need to drop and recreate our database tables to keep it consistent across
-     * all tests. The method will read the sql file in resources. This will be performed before every test.
+     * all tests. The method drops everything and replays the schema migrations, in the library database and in every
+     * book shard created so far. This will be performed before every test.
      */
     public static void resetTestDatabase(){
-//        if there is no connection, use the getConnection method to set it up
-        if(connection == null){
-            getConnection();
+//        if there is no pool, use the getPool method to set it up
+        if(pool == null){
+            getPool();
         }else {
-//            otherwise, recreate the tables without setting up a new connection
+//            otherwise, recreate the tables on a borrowed connection
+            try (Connection connection = pool.getDataSource().getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("drop all objects");
+                SchemaMigrator.LIBRARY.migrate(pool.getDataSource());
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            poolLock.lock();
             try {
-                FileReader sqlReader = new FileReader("src/main/resources/Tables.sql");
-                RunScript.execute(connection, sqlReader);
-            } catch (SQLException | FileNotFoundException e) {
+                for (ConnectionPool shardPool : shardPools) {
+                    resetShard(shardPool);
+                }
+            } catch (SQLException e) {
                 e.printStackTrace();
+            } finally {
+                poolLock.unlock();
             }
         }
     }
 
-}
\ No newline at end of file
+}
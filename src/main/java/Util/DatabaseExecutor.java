@@ -0,0 +1,92 @@
+package Util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads dedicated to blocking JDBC work, used by the asynchronous service methods so request
+ * threads never wait on the database. Sized from {@link Config}: db.executor.threads (defaults to the connection
+ * pool's db.pool.maxSize, as more threads would only queue for a connection) and db.executor.queueSize.
+ * When the queue is full, new work is refused with a RejectedExecutionException rather than queued without limit.
+ * Tasks run on this executor must never wait for other tasks on it, or a full pool could deadlock.
+ */
+public class DatabaseExecutor {
+
+    private static final DatabaseExecutor instance = new DatabaseExecutor(
+            Config.getInt("db.executor.threads", Config.getInt("db.pool.maxSize", 10)),
+            Config.getInt("db.executor.queueSize", 10_000));
+
+    private final ThreadPoolExecutor executor;
+
+    public DatabaseExecutor(int threads, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = task -> {
+            Thread thread = new Thread(task, "library-db-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return the executor shared by every service
+     */
+    public static DatabaseExecutor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Runs the task on a database thread, with its reads routed the way the calling thread's are (see ReadRouting).
+     * @param task blocking work, typically one or more DAO calls
+     * @return future completed with the task's result, or exceptionally with whatever it threw,
+     * or with a RejectedExecutionException if the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        boolean readFromPrimary = ReadRouting.isPrimary();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(ReadRouting.call(readFromPrimary, task));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return number of tasks waiting for a database thread
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of database threads currently running a task
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return total tasks that finished running
+     */
+    public long getCompleted() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
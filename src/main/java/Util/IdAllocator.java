@@ -0,0 +1,72 @@
+package Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * Hands out unique ids from blocks reserved in the database, hi/lo style.
+ * Each value taken from the hi sequence reserves the ids hi * BLOCK_SIZE up to (hi + 1) * BLOCK_SIZE - 1,
+ * which are then handed out from memory without any locking; the database is only visited once per block.
+ * BLOCK_SIZE must never change once ids have been issued, or new blocks could overlap old ones.
+ * Refills take a ReentrantLock rather than a monitor, because they query the database and a virtual thread
+ * blocked inside a synchronized block would pin its carrier thread.
+ */
+public class IdAllocator {
+
+    public static final int BLOCK_SIZE = 1000;
+
+    private final IntSupplier nextHi;
+    private final ReentrantLock refillLock = new ReentrantLock();
+    private volatile Block block = new Block(0, 0);
+
+    /**
+     * @param nextHi reserves the next block, normally by reading the next value of a database sequence
+     */
+    public IdAllocator(IntSupplier nextHi) {
+        this.nextHi = nextHi;
+    }
+
+    /**
+     * @return an id no other call to this allocator, in this or any earlier run, has returned
+     */
+    public int nextId() {
+        while (true) {
+            Block current = block;
+            int id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return id;
+            }
+            refill(current);
+        }
+    }
+
+    /**
+     * Reserves a new block unless another thread already replaced the exhausted one.
+     */
+    private void refill(Block exhausted) {
+        refillLock.lock();
+        try {
+            if (block != exhausted) {
+                return;
+            }
+            int hi = nextHi.getAsInt();
+            if (hi <= 0 || hi > Integer.MAX_VALUE / BLOCK_SIZE - 1) {
+                throw new IllegalStateException("Could not reserve a block of ids, sequence returned " + hi);
+            }
+            block = new Block(hi * BLOCK_SIZE, hi * BLOCK_SIZE + BLOCK_SIZE);
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    private static class Block {
+        final AtomicInteger next;
+        final int end;
+
+        Block(int start, int end) {
+            this.next = new AtomicInteger(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package Util;
+
+/**
+ * Point-in-time snapshot of the connection pool, used to size the pool for checkout peaks.
+ * Connection counts are live values; acquire figures are cumulative since the pool started.
+ */
+public class PoolStats {
+    private final int active;
+    private final int idle;
+    private final int total;
+    private final int waiting;
+    private final int maxSize;
+    private final long acquireCount;
+    private final long acquireTimeouts;
+    private final double acquireMeanMillis;
+    private final double acquireMaxMillis;
+
+    public PoolStats(int active, int idle, int total, int waiting, int maxSize,
+                     long acquireCount, long acquireTimeouts, double acquireMeanMillis, double acquireMaxMillis) {
+        this.active = active;
+        this.idle = idle;
+        this.total = total;
+        this.waiting = waiting;
+        this.maxSize = maxSize;
+        this.acquireCount = acquireCount;
+        this.acquireTimeouts = acquireTimeouts;
+        this.acquireMeanMillis = acquireMeanMillis;
+        this.acquireMaxMillis = acquireMaxMillis;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getWaiting() {
+        return waiting;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    public long getAcquireTimeouts() {
+        return acquireTimeouts;
+    }
+
+    public double getAcquireMeanMillis() {
+        return acquireMeanMillis;
+    }
+
+    public double getAcquireMaxMillis() {
+        return acquireMaxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats{" +
+                "active=" + active +
+                ", idle=" + idle +
+                ", total=" + total +
+                ", waiting=" + waiting +
+                ", maxSize=" + maxSize +
+                ", acquireCount=" + acquireCount +
+                ", acquireTimeouts=" + acquireTimeouts +
+                ", acquireMeanMillis=" + acquireMeanMillis +
+                ", acquireMaxMillis=" + acquireMaxMillis +
+                '}';
+    }
+}
@@ -0,0 +1,65 @@
+package Util;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Decides, per thread, whether DAO reads that would normally go to the read replica must go to the primary instead,
+ * e.g. for a client that has just written and must see its own write.
+ * The choice is carried over to the database threads by {@link DatabaseExecutor#submit(Callable)}, so it holds for
+ * asynchronous service calls made from the thread that set it.
+ */
+public final class ReadRouting {
+
+    private static final ThreadLocal<Boolean> PRIMARY = ThreadLocal.withInitial(() -> false);
+
+    private ReadRouting() {
+    }
+
+    /**
+     * @return true if reads on this thread must go to the primary
+     */
+    public static boolean isPrimary() {
+        return PRIMARY.get();
+    }
+
+    /**
+     * Routes the reads made on this thread from now on. Threads are reused, so set this at the start of every request.
+     * @param primary true to read from the primary, false to allow the replica
+     */
+    public static void setPrimary(boolean primary) {
+        PRIMARY.set(primary);
+    }
+
+    /**
+     * Runs the task with this thread's reads routed as given, then restores the previous routing.
+     * @param primary true to read from the primary, false to allow the replica
+     * @param task
+     * @return the task's result
+     * @throws Exception whatever the task throws
+     */
+    public static <T> T call(boolean primary, Callable<T> task) throws Exception {
+        boolean previous = PRIMARY.get();
+        PRIMARY.set(primary);
+        try {
+            return task.call();
+        } finally {
+            PRIMARY.set(previous);
+        }
+    }
+
+    /**
+     * Runs the reads with this thread's reads routed to the primary, then restores the previous routing.
+     * @param reads
+     * @return the reads' result
+     */
+    public static <T> T onPrimary(Supplier<T> reads) {
+        boolean previous = PRIMARY.get();
+        PRIMARY.set(true);
+        try {
+            return reads.get();
+        } finally {
+            PRIMARY.set(previous);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package Util;
+
+import org.h2.tools.RunScript;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Brings a database schema up to date by running versioned sql scripts from the classpath.
+ * Scripts are named "V{version}__{description}.sql" and listed in order; the versions already applied
+ * are recorded in the schema_version table, so only pending scripts run.
+ * A script that has been released must never be edited, add a new one instead.
+ */
+public class SchemaMigrator {
+
+    /**
+     * The migrations for the library database.
+     */
+    public static final SchemaMigrator LIBRARY = new SchemaMigrator("db/migration", List.of(
+            "V1__create_tables.sql",
+            "V2__add_search_indexes.sql",
+            "V3__add_id_sequences.sql"
+    ));
+
+    /**
+     * The migrations for the extra book shards, which hold only books. Users, the id sequences and the
+     * reference from a book to the user who signed it out stay in the library database, which is shard 0.
+     */
+    public static final SchemaMigrator BOOK_SHARD = new SchemaMigrator("db/shard", List.of(
+            "V1__create_books.sql"
+    ));
+
+    private final String location;
+    private final List<String> scripts;
+
+    public SchemaMigrator(String location, List<String> scripts) {
+        this.location = location;
+        this.scripts = scripts;
+    }
+
+    /**
+     * Applies every script newer than the current schema version, in order.
+     * @param dataSource
+     * @return the number of scripts applied
+     */
+    public int migrate(DataSource dataSource) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            try (Statement st = conn.createStatement()) {
+                st.execute("create table if not exists schema_version (version int primary key, " +
+                        "script varchar(255) not null, appliedOn timestamp default current_timestamp)");
+            }
+            int current = currentVersion(conn);
+            int applied = 0;
+            for (String script : scripts) {
+                int version = versionOf(script);
+                if (version <= current) {
+                    continue;
+                }
+                runScript(conn, script);
+                try (PreparedStatement ps = conn.prepareStatement("insert into schema_version (version, script) values (?, ?)")) {
+                    ps.setInt(1, version);
+                    ps.setString(2, script);
+                    ps.executeUpdate();
+                }
+                applied++;
+            }
+            return applied;
+        }
+    }
+
+    /**
+     * Brings the schema of a database holding data worth keeping up to date, refusing one already at a version
+     * this build does not know, as written by a newer release; its scripts might have changed the data in ways this
+     * build would get wrong.
+     * @param dataSource
+     * @return the number of scripts applied
+     * @throws SQLException if the database is newer than this build, or a script fails
+     */
+    public int upgrade(DataSource dataSource) throws SQLException {
+        int current = currentVersion(dataSource);
+        if (current > latestVersion()) {
+            throw new SQLException("Schema version " + current + " of the database is newer than version "
+                    + latestVersion() + " of this build");
+        }
+        return migrate(dataSource);
+    }
+
+    /**
+     * @return the version of the newest script this migrator knows about
+     */
+    public int latestVersion() {
+        return versionOf(scripts.get(scripts.size() - 1));
+    }
+
+    /**
+     * @param dataSource
+     * @return the highest version applied to the database, or 0 if none has been
+     */
+    public int currentVersion(DataSource dataSource) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            return currentVersion(conn);
+        }
+    }
+
+    private int currentVersion(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("select coalesce(max(version), 0) from schema_version")) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            // the schema_version table does not exist yet
+            return 0;
+        }
+    }
+
+    private void runScript(Connection conn, String script) throws SQLException {
+        String path = location + "/" + script;
+        InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream(path);
+        if (in == null) {
+            throw new SQLException("Migration script not found on the classpath: " + path);
+        }
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            RunScript.execute(conn, reader);
+        } catch (IOException e) {
+            throw new SQLException("Could not read migration script " + path, e);
+        }
+    }
+
+    private static int versionOf(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+}
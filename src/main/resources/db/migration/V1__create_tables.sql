@@ -0,0 +1,2 @@
+create table users (userId int primary key, username varchar(30));
+create table books (bookId int primary key, title varchar(255), author varchar(255), signedOutBy int references users(userId));
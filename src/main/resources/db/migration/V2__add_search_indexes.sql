@@ -0,0 +1,5 @@
+create index idx_books_author on books (author);
+create index idx_books_title on books (title);
+create index idx_books_title_author on books (title, author);
+create index idx_books_signed_out_by on books (signedOutBy);
+create unique index uq_users_username on users (username);
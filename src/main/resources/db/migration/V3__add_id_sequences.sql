@@ -0,0 +1,2 @@
+create sequence book_id_hi start with 1;
+create sequence user_id_hi start with 1;
@@ -0,0 +1,5 @@
+create table books (bookId int primary key, title varchar(255), author varchar(255), signedOutBy int);
+create index idx_books_author on books (author);
+create index idx_books_title on books (title);
+create index idx_books_title_author on books (title, author);
+create index idx_books_signed_out_by on books (signedOutBy);
@@ -1,28 +1,85 @@
+import Cache.CacheStats;
+import Cache.LocalBookCache;
 import DAO.BookDAO;
+import DAO.InMemoryBookDAO;
+import DAO.InMemoryStore;
+import DAO.InMemoryUserDAO;
+import DAO.JdbcBookDAO;
+import DAO.StatementCache;
 import DAO.UserDAO;
+import DAO.JdbcUserDAO;
 import Model.Book;
+import Model.BookField;
 import Model.User;
 import Service.BookService;
 import Util.ConnectionSingleton;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
+/**
+ * Runs every scenario against both storage engines; those about the JDBC engine's own caches only run against it.
+ */
+@RunWith(Parameterized.class)
 public class BookDAOTest {
-    Connection conn;
+    @Parameterized.Parameters(name = "{0}")
+    public static List<String> engines() {
+        return List.of("jdbc", "memory");
+    }
+
+    @Parameterized.Parameter
+    public String engine;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    DataSource dataSource;
+    InMemoryStore store;
     BookDAO bookDAO;
     BookService bookService;
     UserDAO userDAO;
     @Before
-    public void setUp(){
-        conn = ConnectionSingleton.getConnection();
+    public void setUp() throws IOException {
+        dataSource = ConnectionSingleton.getDataSource();
         ConnectionSingleton.resetTestDatabase();
-        bookDAO = new BookDAO(conn);
+        if (engine.equals("memory")) {
+            store = InMemoryStore.open(folder.getRoot().toPath(), 1000, false);
+            bookDAO = new InMemoryBookDAO(store);
+            userDAO = new InMemoryUserDAO(store);
+        } else {
+            bookDAO = new JdbcBookDAO(dataSource);
+            userDAO = new JdbcUserDAO(dataSource);
+        }
         bookService = new BookService(bookDAO);
-        userDAO = new UserDAO(conn);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
     }
 
     /**
@@ -134,6 +191,29 @@ public class BookDAOTest {
         Assert.assertEquals(expectedLengthSignedOutByUser, booksSignedOutByUser.size());
     }
 
+    /**
+     * Tests checking and counting the books signed out by each user without loading them
+     */
+    @Test
+    public void testCountBooksSignedOutByUser() {
+        User reader = new User(36, "testcounted");
+        User other = new User(37, "testuncounted");
+        userDAO.createUser(reader);
+        userDAO.createUser(other);
+        Book b1 = bookDAO.insertBook(new Book(655, "test auth 214", "test title 214"));
+        Book b2 = bookDAO.insertBook(new Book(656, "test auth 215", "test title 215"));
+        bookDAO.insertBook(new Book(657, "test auth 216", "test title 216"));
+
+        bookDAO.updateSignedOutBy(b1, reader.getUserId());
+        bookDAO.updateSignedOutBy(b2, reader.getUserId());
+
+        Assert.assertTrue(bookDAO.hasBooksSignedOutByUser(36));
+        Assert.assertFalse(bookDAO.hasBooksSignedOutByUser(37));
+        Assert.assertEquals(2, bookDAO.countBooksSignedOutByUser(36));
+        Assert.assertEquals(0, bookDAO.countBooksSignedOutByUser(37));
+        Assert.assertEquals(Map.of(36, 2), bookDAO.countLoansByUser());
+    }
+
     /**
      * Tests querying the database for book by their id via bookDAO
      */
@@ -188,4 +268,309 @@ public class BookDAOTest {
         int actual = actualBook.getSignedOutBy();
         Assert.assertEquals(expected, actual);
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that repeated lookups by id reuse the cached prepared statement instead of preparing it again.
+     */
+    @Test
+    public void testQueryBooksByIdReusesPreparedStatement() {
+        Assume.assumeTrue(engine.equals("jdbc"));
+        bookDAO.insertBook(new Book(77, "cached author", "cached title"));
+        bookDAO.queryBooksById(77);
+        StatementCache cache = StatementCache.getInstance();
+        long missesBefore = cache.getMisses();
+        long hitsBefore = cache.getHits();
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("cached title", bookDAO.queryBooksById(77).getTitle());
+        }
+
+        Assert.assertEquals(missesBefore, cache.getMisses());
+        Assert.assertEquals(hitsBefore + 10, cache.getHits());
+    }
+
+    /**
+     * Tests that a page of books filtered by author starts after the cursor and is ordered by id.
+     */
+    @Test
+    public void testQueryBooksPageByAuthor() {
+        bookDAO.insertBook(new Book(5, "paged author", "title5"));
+        bookDAO.insertBook(new Book(1, "paged author", "title1"));
+        bookDAO.insertBook(new Book(3, "paged author", "title3"));
+        bookDAO.insertBook(new Book(2, "other author", "title2"));
+        bookDAO.insertBook(new Book(4, "paged author", "title4"));
+
+        List<Book> page = bookDAO.queryBooksPage(null, "paged author", 1, 2);
+
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals(3, page.get(0).getBookId());
+        Assert.assertEquals(4, page.get(1).getBookId());
+    }
+
+    /**
+     * Tests that a projected query fills in only the requested fields, even for a page that needs the id as its cursor.
+     */
+    @Test
+    public void testQueryBooksProjection() {
+        bookDAO.insertBook(new Book(1, "projected author", "title1"));
+        bookDAO.insertBook(new Book(2, "projected author", "title2"));
+        Set<BookField> titles = EnumSet.of(BookField.TITLE);
+
+        List<Book> books = bookDAO.queryBooks(null, "projected author", titles);
+        List<Book> page = bookDAO.queryBooksPage(null, null, 1, 10, titles);
+
+        Assert.assertEquals(2, books.size());
+        Assert.assertEquals("title1", books.get(0).getTitle());
+        Assert.assertNull(books.get(0).getAuthor());
+        Assert.assertEquals(0, books.get(0).getBookId());
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals(2, page.get(0).getBookId());
+        Assert.assertEquals("title2", page.get(0).getTitle());
+        Assert.assertNull(page.get(0).getAuthor());
+    }
+
+    /**
+     * Tests that the JDBC engine selects only the requested columns.
+     */
+    @Test
+    public void testSelectBooksProjection() {
+        Assume.assumeTrue(engine.equals("jdbc"));
+        Set<BookField> titles = EnumSet.of(BookField.TITLE);
+
+        Assert.assertEquals("select title from books where author = ?", JdbcBookDAO.selectBooks(titles, false, true, false));
+        Assert.assertEquals(JdbcBookDAO.SELECT_PAGE_BY_TITLE_AND_AUTHOR, JdbcBookDAO.selectBooks(BookField.ALL, true, true, true));
+    }
+
+    /**
+     * Tests that streaming hands every matching book to the callback.
+     */
+    @Test
+    public void testStreamBooksByTitle() throws IOException {
+        bookDAO.insertBook(new Book(1, "author1", "streamed title"));
+        bookDAO.insertBook(new Book(2, "author2", "other title"));
+        bookDAO.insertBook(new Book(3, "author3", "streamed title"));
+        List<Book> streamed = new ArrayList<>();
+
+        bookDAO.streamBooks("streamed title", null, streamed::add);
+
+        Assert.assertEquals(2, streamed.size());
+    }
+
+    /**
+     * Tests that an exception thrown by the callback stops the stream and reaches the caller.
+     */
+    @Test
+    public void testStreamBooksStopsWhenCallbackFails() {
+        for (int i = 1; i < 11; i++) {
+            bookDAO.insertBook(new Book(i, "author" + i, "title" + i));
+        }
+        List<Book> streamed = new ArrayList<>();
+
+        Assert.assertThrows(IOException.class, () -> bookDAO.streamBooks(null, null, book -> {
+            streamed.add(book);
+            if (streamed.size() == 3) {
+                throw new IOException("client disconnected");
+            }
+        }));
+        Assert.assertEquals(3, streamed.size());
+        Assert.assertEquals(10, bookDAO.queryAllBooks().size());
+    }
+
+    /**
+     * Tests that the conditional checkout only succeeds while the book is available.
+     */
+    @Test
+    public void testUpdateSignedOutByIfAvailable() {
+        userDAO.createUser(new User(61, "firstreader"));
+        userDAO.createUser(new User(62, "secondreader"));
+        bookDAO.insertBook(new Book(46, "test author 7", "test title 7"));
+
+        Book signedOut = bookDAO.updateSignedOutByIfAvailable(46, 61);
+        Book conflict = bookDAO.updateSignedOutByIfAvailable(46, 62);
+
+        Assert.assertEquals(61, signedOut.getSignedOutBy());
+        Assert.assertNull(conflict);
+        Assert.assertEquals(61, bookDAO.queryBooksById(46).getSignedOutBy());
+    }
+
+    /**
+     * Tests that a book cannot be signed out to user 0, which names nobody, or to a user id below it.
+     */
+    @Test
+    public void testCheckoutWithoutUserIsRefused() {
+        Book book = bookDAO.insertBook(new Book(49, "test author 9", "test title 9"));
+
+        Assert.assertNull(bookDAO.updateSignedOutByIfAvailable(49, 0));
+        Assert.assertNull(bookDAO.updateSignedOutByIfAvailable(49, -1));
+        Assert.assertNull(bookDAO.updateSignedOutBy(book, 0));
+        Assert.assertEquals(0, bookDAO.queryBooksById(49).getSignedOutBy());
+        Assert.assertEquals(Map.of(), bookDAO.countLoansByUser());
+    }
+
+    /**
+     * Tests that the conditional return only succeeds for the user who has the book signed out.
+     */
+    @Test
+    public void testUpdateReturnBookIfSignedOutBy() {
+        userDAO.createUser(new User(63, "holder"));
+        userDAO.createUser(new User(64, "bystander"));
+        bookDAO.insertBook(new Book(47, "test author 8", "test title 8"));
+        bookDAO.updateSignedOutByIfAvailable(47, 63);
+
+        Assert.assertNull(bookDAO.updateReturnBookIfSignedOutBy(47, 64));
+        Assert.assertEquals(0, bookDAO.updateReturnBookIfSignedOutBy(47, 63).getSignedOutBy());
+        Assert.assertNull(bookDAO.updateReturnBookIfSignedOutBy(48, 63));
+    }
+
+    /**
+     * Tests that cached lookups by id see every checkout and return made through the DAO.
+     */
+    @Test
+    public void testCachedBookStaysCurrentAfterWrites() {
+        Assume.assumeTrue(engine.equals("jdbc"));
+        BookDAO cachedBookDAO = new JdbcBookDAO(dataSource, new LocalBookCache(100, 0));
+        userDAO.createUser(new User(71, "cachedreader"));
+        cachedBookDAO.insertBook(new Book(48, "test author 9", "test title 9"));
+
+        Assert.assertEquals(0, cachedBookDAO.queryBooksById(48).getSignedOutBy());
+        cachedBookDAO.updateSignedOutByIfAvailable(48, 71);
+        Assert.assertEquals(71, cachedBookDAO.queryBooksById(48).getSignedOutBy());
+        cachedBookDAO.updateReturnBook(cachedBookDAO.queryBooksById(48));
+        Assert.assertEquals(0, cachedBookDAO.queryBooksById(48).getSignedOutBy());
+    }
+
+    /**
+     * Tests that when a checkout and a return of the same book race, the cached book ends up as the database row
+     * holds it, whichever write reaches the cache last.
+     */
+    @Test
+    public void testCachedBookMatchesDatabaseAfterRacingCheckoutAndReturn() throws Exception {
+        Assume.assumeTrue(engine.equals("jdbc"));
+        BookDAO cachedBookDAO = new JdbcBookDAO(dataSource, new LocalBookCache(100, 0));
+        userDAO.createUser(new User(72, "returner"));
+        userDAO.createUser(new User(73, "borrower"));
+        cachedBookDAO.insertBook(new Book(51, "test author 12", "test title 12"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int round = 0; round < 200; round++) {
+                cachedBookDAO.updateReturnBookIfSignedOutBy(51, 73);
+                cachedBookDAO.updateSignedOutByIfAvailable(51, 72);
+                cachedBookDAO.queryBooksById(51);
+                CountDownLatch start = new CountDownLatch(1);
+                Future<Book> returned = executor.submit(() -> {
+                    start.await();
+                    return cachedBookDAO.updateReturnBookIfSignedOutBy(51, 72);
+                });
+                Future<Book> checkedOut = executor.submit(() -> {
+                    start.await();
+                    return cachedBookDAO.updateSignedOutByIfAvailable(51, 73);
+                });
+                start.countDown();
+                returned.get(5, TimeUnit.SECONDS);
+                checkedOut.get(5, TimeUnit.SECONDS);
+
+                Assert.assertEquals(bookDAO.queryBooksById(51), cachedBookDAO.queryBooksById(51));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests that repeated lookups of the same book are served from the cache.
+     */
+    @Test
+    public void testCachedLookupsCountHits() {
+        Assume.assumeTrue(engine.equals("jdbc"));
+        LocalBookCache cache = new LocalBookCache(100, 0);
+        BookDAO cachedBookDAO = new JdbcBookDAO(dataSource, cache);
+        cachedBookDAO.insertBook(new Book(49, "test author 10", "test title 10"));
+
+        for (int i = 0; i < 5; i++) {
+            cachedBookDAO.queryBooksById(49);
+        }
+
+        CacheStats stats = cache.getStats();
+        Assert.assertEquals(1, stats.getMisses());
+        Assert.assertEquals(4, stats.getHits());
+    }
+
+    /**
+     * Tests inserting books in batches spanning several chunks.
+     */
+    @Test
+    public void testInsertBooksInChunks() {
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= 25; i++) {
+            books.add(new Book(100 + i, "batch author " + i, "batch title " + i));
+        }
+
+        List<Book> inserted = bookDAO.insertBooks(books, 10);
+
+        Assert.assertEquals(25, inserted.size());
+        Assert.assertFalse(inserted.contains(null));
+        Assert.assertEquals(25, bookDAO.queryAllBooks().size());
+    }
+
+    /**
+     * Tests that a rejected row in a batch fails on its own while the rest of its chunk is still inserted.
+     */
+    @Test
+    public void testInsertBooksReportsRejectedRow() {
+        bookDAO.insertBook(new Book(202, "existing author", "existing title"));
+        List<Book> books = new ArrayList<>();
+        books.add(new Book(201, "batch author 1", "batch title 1"));
+        books.add(new Book(202, "batch author 2", "batch title 2"));
+        books.add(new Book(203, "batch author 3", "batch title 3"));
+
+        List<Book> inserted = bookDAO.insertBooks(books, 3);
+
+        Assert.assertEquals(books.get(0), inserted.get(0));
+        Assert.assertNull(inserted.get(1));
+        Assert.assertEquals(books.get(2), inserted.get(2));
+        Assert.assertEquals(3, bookDAO.queryAllBooks().size());
+        Assert.assertEquals("existing title", bookDAO.queryBooksById(202).getTitle());
+    }
+
+    /**
+     * Tests that concurrent lookups of the same uncached book share one database load.
+     */
+    @Test
+    public void testConcurrentCachedLookupsLoadOnce() throws InterruptedException {
+        Assume.assumeTrue(engine.equals("jdbc"));
+        LocalBookCache cache = new LocalBookCache(100, 0);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IntFunction<Book> slowLoader = id -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Book(id, "test author 11", "test title 11");
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Book>> lookups = new ArrayList<>();
+        lookups.add(executor.submit(() -> cache.get(50, slowLoader)));
+        Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            lookups.add(executor.submit(() -> cache.get(50, slowLoader)));
+        }
+        release.countDown();
+
+        for (Future<Book> lookup : lookups) {
+            try {
+                Assert.assertEquals("test title 11", lookup.get(5, TimeUnit.SECONDS).getTitle());
+            } catch (ExecutionException | TimeoutException e) {
+                Assert.fail(e.toString());
+            }
+        }
+        executor.shutdown();
+        Assert.assertEquals(1, loads.get());
+    }
+}
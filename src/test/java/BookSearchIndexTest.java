@@ -0,0 +1,71 @@
+import Model.Book;
+import Service.BookSearchIndex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class BookSearchIndexTest {
+    BookSearchIndex index;
+
+    @Before
+    public void setUp(){
+        index = new BookSearchIndex();
+        index.rebuild(List.of(
+                new Book(1, "stephen king", "joyland"),
+                new Book(2, "emily schultz", "joyland"),
+                new Book(3, "stephen king", "misery"),
+                new Book(4, "richard bachman", "the long walk"),
+                new Book(5, "joy williams", "the quick and the dead")
+        ));
+    }
+
+    /**
+     * Tests that a word fragment matches every title or author word it starts.
+     */
+    @Test
+    public void testSearchMatchesWordPrefixes() {
+        Assert.assertEquals(List.of(1, 2, 5), ids(index.search("joy", 10)));
+    }
+
+    /**
+     * Tests that every word of the query must match, across title and author.
+     */
+    @Test
+    public void testSearchRequiresEveryWord() {
+        Assert.assertEquals(List.of(1), ids(index.search("King JOY", 10)));
+        Assert.assertEquals(List.of(), ids(index.search("king walk", 10)));
+    }
+
+    /**
+     * Tests that title matches rank above author matches and whole words above prefixes.
+     */
+    @Test
+    public void testSearchRanksByRelevance() {
+        index.add(new Book(6, "dean koontz", "joy"));
+        Assert.assertEquals(List.of(6, 1, 2, 5), ids(index.search("joy", 10)));
+    }
+
+    /**
+     * Tests that a limit caps the number of results.
+     */
+    @Test
+    public void testSearchRespectsLimit() {
+        Assert.assertEquals(2, index.search("joy", 2).size());
+    }
+
+    /**
+     * Tests that a checkout recorded in the index is visible in later results.
+     */
+    @Test
+    public void testUpdateRefreshesAvailability() {
+        index.update(new Book(3, "stephen king", "misery", 42));
+        Assert.assertEquals(42, index.search("misery", 10).get(0).getSignedOutBy());
+    }
+
+    private List<Integer> ids(List<Book> books) {
+        return books.stream().map(Book::getBookId).collect(Collectors.toList());
+    }
+}
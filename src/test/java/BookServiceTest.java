@@ -1,8 +1,18 @@
+import Cache.CatalogVersions;
 import DAO.BookDAO;
+import DAO.JdbcBookDAO;
 import DAO.UserDAO;
+import DAO.JdbcUserDAO;
+import Exceptions.BookNotFoundException;
 import Exceptions.BookSignedOutException;
+import Exceptions.UserNotFoundException;
+import Metrics.MetricsRegistry;
 import Model.Book;
+import Model.BookBatchResult;
+import Model.BookField;
+import Model.Page;
 import Model.User;
+import Service.BookSearchIndex;
 import Service.BookService;
 import Service.UserService;
 import Util.ConnectionSingleton;
@@ -11,12 +21,20 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 public class BookServiceTest {
-    Connection conn;
+    DataSource dataSource;
     BookDAO mockBookDAO;
     BookService mockBookService;
     UserDAO realUserDAO;
@@ -29,12 +47,12 @@ public class BookServiceTest {
         mockBookDAO = Mockito.mock(BookDAO.class);
         mockBookService = new BookService(mockBookDAO);
 
-        conn = ConnectionSingleton.getConnection();
+        dataSource = ConnectionSingleton.getDataSource();
         ConnectionSingleton.resetTestDatabase();
-        realUserDAO = new UserDAO(conn);
-        realBookDAO = new BookDAO(conn);
+        realUserDAO = new JdbcUserDAO(dataSource);
+        realBookDAO = new JdbcBookDAO(dataSource);
         realUserService = new UserService(realUserDAO, realBookDAO);
-        realBookService = new BookService(realBookDAO);
+        realBookService = new BookService(realBookDAO, realUserDAO, new BookSearchIndex(), null);
     }
 
     /**
@@ -294,7 +312,7 @@ public class BookServiceTest {
      * the bookService should allow a user to sign out a book when it is available.
      */
     @Test
-    public void signOutBookSuccessfulTestUnmocked() throws BookSignedOutException {
+    public void signOutBookSuccessfulTestUnmocked() throws BookSignedOutException, BookNotFoundException {
         Book testBook = new Book("testAuthor444", "testTitle444");
         User signedOutUser = new User("mybooknow");
 
@@ -310,7 +328,7 @@ public class BookServiceTest {
      * to sign out a book that another user has already signed out
      */
     @Test
-    public void signOutBookUnsuccessfulTestUnmocked() throws BookSignedOutException {
+    public void signOutBookUnsuccessfulTestUnmocked() throws BookSignedOutException, BookNotFoundException {
         Book testBook = new Book("testAuthor", "testTitle");
         User signedOutUser = new User("signedOut");
         User notSignedOutUser = new User("notSignedOut");
@@ -329,7 +347,7 @@ public class BookServiceTest {
      * the bookService should allow a user to return a book if they have it signed out.
      */
     @Test
-    public void returnBookSuccessfulTestUnmocked() throws BookSignedOutException {
+    public void returnBookSuccessfulTestUnmocked() throws BookSignedOutException, BookNotFoundException {
         Book testBook = new Book("testAuthorReturn", "testTitleReturn");
         User testUser = new User("borrowtoreturn");
 
@@ -342,4 +360,226 @@ public class BookServiceTest {
         Book returnedBook = realBookService.returnBook(signedOutBook);
         Assert.assertEquals(0, returnedBook.getSignedOutBy());
     }
-}
\ No newline at end of file
+
+    /**
+     * The bookService should let a client walk the whole catalog page by page using the returned cursors.
+     */
+    @Test
+    public void getBooksPageWalksCatalogUnmocked() {
+        for (int i = 1; i < 6; i++) {
+            realBookDAO.insertBook(new Book(i, "author" + i, "title" + i));
+        }
+
+        Page<Book> first = realBookService.getBooksPage(null, null, null, 2);
+        Page<Book> second = realBookService.getBooksPage(null, null, Integer.valueOf(first.getNextCursor()), 2);
+        Page<Book> last = realBookService.getBooksPage(null, null, Integer.valueOf(second.getNextCursor()), 2);
+
+        Assert.assertEquals(List.of(1, 2), first.getItems().stream().map(Book::getBookId).collect(Collectors.toList()));
+        Assert.assertEquals("2", first.getNextCursor());
+        Assert.assertEquals(List.of(3, 4), second.getItems().stream().map(Book::getBookId).collect(Collectors.toList()));
+        Assert.assertEquals("4", second.getNextCursor());
+        Assert.assertEquals(1, last.getItems().size());
+        Assert.assertNull(last.getNextCursor());
+    }
+
+    /**
+     * the bookService should return a book when the user who signed it out patches it again.
+     */
+    @Test
+    public void updateBookSignedOutByReturnsBookTestUnmocked() throws BookSignedOutException, BookNotFoundException {
+        Book testBook = new Book("testAuthorToggle", "testTitleToggle");
+        User testUser = new User("togglereader");
+
+        realBookService.addBook(testBook);
+        realUserService.createUser(testUser);
+        realBookService.updateBookSignedOutBy(testBook.getBookId(), testUser.getUserId());
+        Book returnedBook = realBookService.updateBookSignedOutBy(testBook.getBookId(), testUser.getUserId());
+
+        Assert.assertEquals(0, returnedBook.getSignedOutBy());
+        Assert.assertEquals(0, realBookService.getBookById(testBook.getBookId()).getSignedOutBy());
+    }
+
+    /**
+     * the bookService should throw a BookNotFoundException when the book does not exist.
+     */
+    @Test
+    public void updateBookSignedOutByMissingBookTestUnmocked() {
+        User testUser = new User("nobookhere");
+        realUserService.createUser(testUser);
+
+        Assert.assertThrows(BookNotFoundException.class, () -> {
+            realBookService.updateBookSignedOutBy(404, testUser.getUserId());
+        });
+    }
+
+    /**
+     * the bookService should throw a UserNotFoundException, and not count a checkout conflict, when the user
+     * signing out an available book does not exist.
+     */
+    @Test
+    public void updateBookSignedOutByMissingUserTestUnmocked() {
+        Book testBook = new Book("testAuthorNoUser", "testTitleNoUser");
+        realBookService.addBook(testBook);
+        LongAdder conflicts = MetricsRegistry.getInstance().counter("library_checkout_conflicts_total",
+                "Checkouts refused because another user has the book signed out.");
+        long conflictsBefore = conflicts.sum();
+
+        Assert.assertThrows(UserNotFoundException.class, () -> {
+            realBookService.updateBookSignedOutBy(testBook.getBookId(), 404);
+        });
+        Assert.assertEquals(conflictsBefore, conflicts.sum());
+        Assert.assertEquals(0, realBookService.getBookById(testBook.getBookId()).getSignedOutBy());
+    }
+
+    /**
+     * the bookService should let exactly one of many users racing for the same book sign it out.
+     */
+    @Test
+    public void signOutBookConcurrentlyTestUnmocked() throws InterruptedException {
+        Book testBook = new Book("testAuthorRace", "testTitleRace");
+        realBookService.addBook(testBook);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            User user = new User("racer" + i);
+            realUserService.createUser(user);
+            users.add(user);
+        }
+
+        List<Integer> winners = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(users.size());
+        for (User user : users) {
+            executor.submit(() -> {
+                start.await();
+                try {
+                    winners.add(realBookService.updateBookSignedOutBy(testBook.getBookId(), user.getUserId()).getSignedOutBy());
+                } catch (BookSignedOutException e) {
+                    // lost the race
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(1, winners.size());
+        Assert.assertEquals((int) winners.get(0), realBookService.getBookById(testBook.getBookId()).getSignedOutBy());
+    }
+
+    /**
+     * the bookService should find books it has added by fragments of their title and author.
+     */
+    @Test
+    public void searchBooksFindsAddedBooksUnmocked() {
+        realBookService.addBook(new Book("Stephen King", "Joyland"));
+        realBookService.addBook(new Book("Stephen King", "Misery"));
+
+        List<Book> found = realBookService.searchBooks("joy kin", 10);
+
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals("joyland", found.get(0).getTitle());
+    }
+
+    /**
+     * the bookService should save every valid entry of a batch with a fresh id and report the invalid ones.
+     */
+    @Test
+    public void addBooksReportsEachEntryUnmocked() {
+        List<Book> books = new ArrayList<>();
+        books.add(new Book("  Stephen KING ", "Joyland"));
+        books.add(new Book("Stephen King", " "));
+        books.add(null);
+        books.add(new Book("Stephen King", "Misery"));
+
+        List<BookBatchResult> results = realBookService.addBooks(books, 2);
+
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(BookBatchResult.CREATED, results.get(0).getStatus());
+        Assert.assertEquals(BookBatchResult.INVALID, results.get(1).getStatus());
+        Assert.assertEquals(BookBatchResult.INVALID, results.get(2).getStatus());
+        Assert.assertEquals(BookBatchResult.CREATED, results.get(3).getStatus());
+        Assert.assertEquals(3, results.get(3).getIndex());
+        Assert.assertEquals("stephen king", results.get(0).getBook().getAuthor());
+        Assert.assertNotEquals(results.get(0).getBook().getBookId(), results.get(3).getBook().getBookId());
+        Assert.assertEquals(2, realBookService.getAllBooks().size());
+        Assert.assertEquals(1, realBookService.searchBooks("misery", 10).size());
+    }
+
+    /**
+     * Identical listings asked for while one is running SHOULD share its single DAO call and its result,
+     * whichever async method they come through.
+     */
+    @Test
+    public void identicalListingsShareOneQueryTestMocked() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Book> books = List.of(new Book(1, "stephen king", "misery", 0));
+        Mockito.when(mockBookDAO.queryBooksByAuthor("stephen king")).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return books;
+        });
+
+        List<CompletableFuture<List<Book>>> listings = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            listings.add(mockBookService.getBooksByAuthorAsync("stephen king"));
+        }
+        listings.add(mockBookService.getBooksAsync(null, "stephen king", BookField.ALL));
+        release.countDown();
+
+        for (CompletableFuture<List<Book>> listing : listings) {
+            Assert.assertSame(books, listing.get(5, TimeUnit.SECONDS));
+        }
+        Mockito.verify(mockBookDAO, Mockito.times(1)).queryBooksByAuthor("stephen king");
+    }
+
+    /**
+     * A listing asked for after a write SHOULD NOT share the result of one that started before the write.
+     */
+    @Test
+    public void listingAfterWriteRunsAgainTestMocked() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(mockBookDAO.queryAllBooks()).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new ArrayList<Book>();
+        });
+        CompletableFuture<List<Book>> before = mockBookService.getAllBooksAsync();
+        mockBookService.bookWritten(1);
+        CompletableFuture<List<Book>> after = mockBookService.getAllBooksAsync();
+        release.countDown();
+
+        Assert.assertNotSame(before.get(5, TimeUnit.SECONDS), after.get(5, TimeUnit.SECONDS));
+        Mockito.verify(mockBookDAO, Mockito.times(2)).queryAllBooks();
+    }
+
+    /**
+     * A listing asked for as soon as a write changes the catalog version, and so the ETag, SHOULD NOT share the
+     * result of one that started before the write.
+     */
+    @Test
+    public void listingAskedForOnNewVersionRunsAgainTestMocked() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Book> beforeWrite = new ArrayList<>();
+        List<Book> afterWrite = List.of(new Book(1, "new author", "new title", 0));
+        Mockito.when(mockBookDAO.queryAllBooks()).thenAnswer(invocation -> {
+            running.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return beforeWrite;
+        }).thenReturn(afterWrite);
+        CatalogVersions catalogVersions = new CatalogVersions();
+        long version = catalogVersions.getCatalogVersion();
+        List<CompletableFuture<List<Book>>> onNewVersion = new ArrayList<>();
+        mockBookService.addWriteListener(catalogVersions);
+        mockBookService.addWriteListener(bookId -> onNewVersion.add(mockBookService.getAllBooksAsync()));
+
+        CompletableFuture<List<Book>> first = mockBookService.getAllBooksAsync();
+        // the first listing must be the one reading before the write, not just the first asked for
+        running.await(5, TimeUnit.SECONDS);
+        mockBookService.bookWritten(1);
+        Assert.assertNotEquals(version, catalogVersions.getCatalogVersion());
+        release.countDown();
+
+        Assert.assertSame(beforeWrite, first.get(5, TimeUnit.SECONDS));
+        Assert.assertSame(afterWrite, onNewVersion.get(0).get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,199 @@
+import Cache.CatalogResponseCache;
+import Cache.CatalogVersions;
+import Model.Book;
+import Controller.JsonCodec;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+public class CatalogResponseCacheTest {
+    CatalogVersions catalogVersions;
+    ScheduledExecutorService scheduler;
+    AtomicInteger loads;
+    List<Book> catalog;
+    CatalogResponseCache responseCache;
+
+    @Before
+    public void setUp(){
+        catalogVersions = new CatalogVersions();
+        // rebuilds only run when a test calls rebuild()
+        scheduler = Mockito.mock(ScheduledExecutorService.class);
+        loads = new AtomicInteger();
+        catalog = new ArrayList<>();
+        catalog.add(new Book(1, "stephen king", "joyland"));
+        catalog.add(new Book(2, "emily schultz", "joyland"));
+        responseCache = new CatalogResponseCache(catalogVersions, (title, author) -> {
+            loads.incrementAndGet();
+            List<Book> books = new ArrayList<>();
+            for (Book book : catalog) {
+                if ((title == null || title.equals(book.getTitle())) && (author == null || author.equals(book.getAuthor()))) {
+                    books.add(book);
+                }
+            }
+            return books;
+        }, 1, 100, scheduler);
+    }
+
+    /**
+     * @return the books as the live path writes them
+     */
+    private static byte[] json(List<Book> books) throws IOException {
+        JsonCodec codec = JsonCodec.getInstance();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(out, books, codec::writeBooks);
+        return out.toByteArray();
+    }
+
+    /**
+     * Tests that the unfiltered listing is served from memory, as JSON and gzip compressed JSON,
+     * without calling the loader again.
+     */
+    @Test
+    public void testServesSerializedCatalog() throws IOException {
+        responseCache.rebuild();
+        int loadsAfterRebuild = loads.get();
+
+        CatalogResponseCache.Response response = responseCache.get(null, null);
+
+        Assert.assertNotNull(response);
+        byte[] expected = json(catalog);
+        Assert.assertArrayEquals(expected, response.getJson());
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(response.getGzip()))) {
+            Assert.assertArrayEquals(expected, gzip.readAllBytes());
+        }
+        Assert.assertEquals(loadsAfterRebuild, loads.get());
+    }
+
+    /**
+     * Tests that a write makes the cached listing stale and schedules a rebuild, which brings it up to date.
+     */
+    @Test
+    public void testWriteInvalidatesUntilRebuild() throws IOException {
+        responseCache.rebuild();
+
+        catalog.add(new Book(3, "richard bachman", "the long walk"));
+        catalogVersions.bookWritten(3);
+        responseCache.bookWritten(3);
+
+        Assert.assertNull(responseCache.get(null, null));
+        Mockito.verify(scheduler).schedule(Mockito.any(Runnable.class), Mockito.eq(100L), Mockito.any());
+
+        responseCache.rebuild();
+        CatalogResponseCache.Response response = responseCache.get(null, null);
+        Assert.assertEquals(catalogVersions.getCatalogVersion(), response.getVersion());
+        Assert.assertArrayEquals(json(catalog), response.getJson());
+    }
+
+    /**
+     * Tests that a rebuild started while another is still reading waits for it, so the listing read before a write
+     * cannot replace the one read after it.
+     */
+    @Test
+    public void testRebuildsDoNotOverwriteNewerListing() throws Exception {
+        AtomicBoolean first = new AtomicBoolean(true);
+        Thread[] second = new Thread[1];
+        CatalogResponseCache[] cache = new CatalogResponseCache[1];
+        cache[0] = new CatalogResponseCache(catalogVersions, (title, author) -> {
+            List<Book> books = new ArrayList<>(catalog);
+            if (first.getAndSet(false)) {
+                // a write lands while this rebuild is reading, and the scheduler starts the next one
+                catalog.add(new Book(3, "richard bachman", "the long walk"));
+                catalogVersions.bookWritten(3);
+                second[0] = new Thread(cache[0]::rebuild);
+                second[0].start();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return books;
+        }, 1, 100, scheduler);
+
+        cache[0].rebuild();
+        second[0].join();
+
+        CatalogResponseCache.Response response = cache[0].get(null, null);
+        Assert.assertNotNull(response);
+        Assert.assertEquals(catalogVersions.getCatalogVersion(), response.getVersion());
+        Assert.assertArrayEquals(json(catalog), response.getJson());
+    }
+
+    /**
+     * Tests that a rebuild only reads the listings that are missing or older than the catalog.
+     */
+    @Test
+    public void testRebuildSkipsCurrentListings() {
+        responseCache.rebuild();
+        int loadsAfterRebuild = loads.get();
+
+        responseCache.rebuild();
+        Assert.assertEquals(loadsAfterRebuild, loads.get());
+
+        catalogVersions.bookWritten(1);
+        responseCache.rebuild();
+        Assert.assertEquals(loadsAfterRebuild + 1, loads.get());
+    }
+
+    /**
+     * Tests that a filter asked for once does not bring a rebuild forward, even once the counts of the cached
+     * filters have been halved away, while one asked for again does.
+     */
+    @Test
+    public void testOneOffFilterDoesNotScheduleRebuild() {
+        for (int i = 0; i < 3; i++) {
+            responseCache.get("joyland", null);
+        }
+        responseCache.rebuild();
+        responseCache.rebuild();
+        Mockito.clearInvocations(scheduler);
+
+        responseCache.get("the long walk", null);
+        Mockito.verify(scheduler, Mockito.never()).schedule(Mockito.any(Runnable.class), Mockito.anyLong(), Mockito.any());
+
+        responseCache.get("the long walk", null);
+        Mockito.verify(scheduler).schedule(Mockito.any(Runnable.class), Mockito.eq(100L), Mockito.any());
+    }
+
+    /**
+     * Tests that only the most requested filters are kept, up to the configured number.
+     */
+    @Test
+    public void testKeepsMostRequestedFilters() {
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(responseCache.get("joyland", null));
+        }
+        Assert.assertNull(responseCache.get(null, "stephen king"));
+
+        responseCache.rebuild();
+
+        CatalogResponseCache.Response response = responseCache.get("joyland", null);
+        Assert.assertNotNull(response);
+        Assert.assertTrue(new String(response.getJson()).contains("emily schultz"));
+        Assert.assertNull(responseCache.get(null, "stephen king"));
+    }
+
+    /**
+     * Tests reading the encodings a client accepts from the Accept-Encoding header.
+     */
+    @Test
+    public void testAcceptsGzip() {
+        Assert.assertTrue(CatalogResponseCache.acceptsGzip("gzip, deflate, br"));
+        Assert.assertTrue(CatalogResponseCache.acceptsGzip("br;q=1.0, gzip;q=0.8"));
+        Assert.assertTrue(CatalogResponseCache.acceptsGzip("*"));
+        Assert.assertFalse(CatalogResponseCache.acceptsGzip(null));
+        Assert.assertFalse(CatalogResponseCache.acceptsGzip("br, deflate"));
+        Assert.assertFalse(CatalogResponseCache.acceptsGzip("gzip;q=0"));
+    }
+}
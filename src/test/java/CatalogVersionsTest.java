@@ -0,0 +1,92 @@
+import Cache.CatalogVersions;
+import DAO.BookDAO;
+import DAO.JdbcBookDAO;
+import DAO.UserDAO;
+import DAO.JdbcUserDAO;
+import Model.Book;
+import Model.User;
+import Util.ConnectionSingleton;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+
+public class CatalogVersionsTest {
+    BookDAO bookDAO;
+    UserDAO userDAO;
+    CatalogVersions catalogVersions;
+
+    @Before
+    public void setUp(){
+        DataSource dataSource = ConnectionSingleton.getDataSource();
+        ConnectionSingleton.resetTestDatabase();
+        bookDAO = new JdbcBookDAO(dataSource);
+        userDAO = new JdbcUserDAO(dataSource);
+        catalogVersions = new CatalogVersions();
+        bookDAO.addWriteListener(catalogVersions);
+    }
+
+    /**
+     * Tests that inserts, checkouts and returns advance the catalog version and the written book's version,
+     * while reads and other books' writes leave a book's ETag unchanged.
+     */
+    @Test
+    public void testWritesAdvanceVersions() {
+        userDAO.createUser(new User(61, "versioned"));
+        Book book = bookDAO.insertBook(new Book(701, "version author", "version title"));
+        Book other = bookDAO.insertBook(new Book(702, "other author", "other title"));
+        Assert.assertEquals(2, catalogVersions.getCatalogVersion());
+        String catalogETag = catalogVersions.catalogETag();
+        String bookETag = catalogVersions.bookETag(701);
+
+        bookDAO.queryAllBooks();
+        bookDAO.queryBooksById(701);
+        Assert.assertEquals(catalogETag, catalogVersions.catalogETag());
+
+        bookDAO.updateSignedOutBy(other, 61);
+        Assert.assertNotEquals(catalogETag, catalogVersions.catalogETag());
+        Assert.assertEquals(bookETag, catalogVersions.bookETag(701));
+
+        bookDAO.updateSignedOutByIfAvailable(701, 61);
+        Assert.assertNotEquals(bookETag, catalogVersions.bookETag(701));
+        bookETag = catalogVersions.bookETag(701);
+        bookDAO.updateReturnBook(book);
+        Assert.assertNotEquals(bookETag, catalogVersions.bookETag(701));
+        Assert.assertEquals(5, catalogVersions.getCatalogVersion());
+    }
+
+    /**
+     * Tests that a failed write leaves the versions unchanged.
+     */
+    @Test
+    public void testFailedWriteKeepsVersions() {
+        bookDAO.insertBook(new Book(703, "kept author", "kept title"));
+        long version = catalogVersions.getCatalogVersion();
+
+        Assert.assertNull(bookDAO.updateSignedOutByIfAvailable(9999, 1));
+        Assert.assertEquals(version, catalogVersions.getCatalogVersion());
+    }
+
+    /**
+     * Tests matching If-None-Match headers against an ETag, including lists, weak tags and the wildcard.
+     */
+    @Test
+    public void testIfNoneMatch() {
+        String etag = catalogVersions.bookETag(5);
+
+        Assert.assertTrue(CatalogVersions.matches(etag, etag));
+        Assert.assertTrue(CatalogVersions.matches("\"stale\", " + etag, etag));
+        Assert.assertTrue(CatalogVersions.matches("W/" + etag, etag));
+        Assert.assertTrue(CatalogVersions.matches("*", etag));
+        Assert.assertFalse(CatalogVersions.matches(null, etag));
+        Assert.assertFalse(CatalogVersions.matches("\"stale\"", etag));
+        Assert.assertFalse(CatalogVersions.matches(new CatalogVersions().bookETag(5), etag));
+
+        // listing tags are weak, as listings may be sent compressed; a client may send them back without the W/
+        String catalogETag = catalogVersions.catalogETag(catalogVersions.getCatalogVersion());
+        Assert.assertTrue(catalogETag.startsWith("W/"));
+        Assert.assertTrue(CatalogVersions.matches(catalogETag, catalogETag));
+        Assert.assertTrue(CatalogVersions.matches(catalogETag.substring(2), catalogETag));
+    }
+}
@@ -0,0 +1,102 @@
+import Controller.ConcurrencyLimiter;
+import Controller.ConcurrencyLimiter.Admission;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConcurrencyLimiterTest {
+    AtomicLong daoCalls;
+    AtomicLong daoNanos;
+
+    @Before
+    public void setUp() {
+        daoCalls = new AtomicLong();
+        daoNanos = new AtomicLong();
+    }
+
+    /**
+     * @param initialLimit cap to start with, adjusted after every release once 10 DAO calls have been made
+     */
+    private ConcurrencyLimiter limiter(int initialLimit) {
+        return new ConcurrencyLimiter(initialLimit, 2, 100, 0.2, 2.0, 0.5, 0, 10, daoCalls::get, daoNanos::get);
+    }
+
+    /**
+     * Simulates a window of 10 DAO calls taking the given time each.
+     */
+    private void daoCalls(long nanosEach) {
+        daoCalls.addAndGet(10);
+        daoNanos.addAndGet(10 * nanosEach);
+    }
+
+    /**
+     * Tests that other requests are shed once only the share kept for priority requests is left,
+     * and that priority requests are turned away only when the whole cap is in flight.
+     */
+    @Test
+    public void testKeepsRoomForPriorityRequests() {
+        ConcurrencyLimiter limiter = limiter(10);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(Admission.ADMITTED, limiter.tryAcquire(false));
+        }
+        Assert.assertEquals(Admission.SHED, limiter.tryAcquire(false));
+        Assert.assertEquals(Admission.ADMITTED, limiter.tryAcquire(true));
+        Assert.assertEquals(Admission.ADMITTED, limiter.tryAcquire(true));
+        Assert.assertEquals(Admission.OVERLOADED, limiter.tryAcquire(true));
+        Assert.assertEquals(Admission.OVERLOADED, limiter.tryAcquire(false));
+        Assert.assertEquals(10, limiter.getInFlight());
+
+        limiter.release();
+        Assert.assertEquals(Admission.ADMITTED, limiter.tryAcquire(true));
+    }
+
+    /**
+     * Tests that the cap grows by one per busy window while DAO calls stay fast, and backs off
+     * multiplicatively once they slow down past the tolerance.
+     */
+    @Test
+    public void testAdaptsToDaoLatency() {
+        ConcurrencyLimiter limiter = limiter(10);
+        for (int window = 0; window < 3; window++) {
+            for (int i = 0; i < 8; i++) {
+                limiter.tryAcquire(false);
+            }
+            daoCalls(1_000_000);
+            for (int i = 0; i < 8; i++) {
+                limiter.release();
+            }
+        }
+        Assert.assertEquals(13, limiter.getLimit(), 0.001);
+
+        limiter.tryAcquire(false);
+        daoCalls(10_000_000);
+        limiter.release();
+        Assert.assertEquals(6.5, limiter.getLimit(), 0.001);
+    }
+
+    /**
+     * Tests that a window with too few DAO calls to judge by leaves the cap alone, and that the cap
+     * never backs off below its minimum.
+     */
+    @Test
+    public void testStaysWithinBounds() {
+        ConcurrencyLimiter limiter = limiter(4);
+        limiter.tryAcquire(false);
+        daoCalls.addAndGet(5);
+        daoNanos.addAndGet(5_000_000);
+        limiter.release();
+        Assert.assertEquals(4, limiter.getLimit(), 0.001);
+
+        daoCalls(1_000_000);
+        limiter.tryAcquire(false);
+        limiter.release();
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire(true);
+            daoCalls(100_000_000);
+            limiter.release();
+        }
+        Assert.assertEquals(2, limiter.getLimit(), 0.001);
+    }
+}
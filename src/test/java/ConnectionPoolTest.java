@@ -0,0 +1,51 @@
+import Util.ConnectionPool;
+import Util.PoolStats;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    @Before
+    public void setUp(){
+        pool = new ConnectionPool("pool-test", "jdbc:h2:mem:pooltest;DB_CLOSE_DELAY=-1", "sa", "sa");
+    }
+
+    @After
+    public void tearDown(){
+        pool.close();
+    }
+
+    /**
+     * Tests that borrowed connections are reported as active until they are returned to the pool.
+     */
+    @Test
+    public void testStatsTrackActiveConnections() throws SQLException {
+        try (Connection first = pool.getDataSource().getConnection();
+             Connection second = pool.getDataSource().getConnection()) {
+            Assert.assertEquals(2, pool.getStats().getActive());
+        }
+        Assert.assertEquals(0, pool.getStats().getActive());
+    }
+
+    /**
+     * Tests that every borrow is counted towards the acquire latency figures.
+     */
+    @Test
+    public void testStatsCountAcquires() throws SQLException {
+        long before = pool.getStats().getAcquireCount();
+        for (int i = 0; i < 5; i++) {
+            try (Connection conn = pool.getDataSource().getConnection()) {
+                Assert.assertTrue(conn.isValid(1));
+            }
+        }
+        PoolStats stats = pool.getStats();
+        Assert.assertEquals(before + 5, stats.getAcquireCount());
+        Assert.assertTrue(stats.getAcquireMaxMillis() >= stats.getAcquireMeanMillis());
+    }
+}
@@ -0,0 +1,55 @@
+import Util.DatabaseExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class DatabaseExecutorTest {
+
+    /**
+     * Tests that a task's result and exceptions reach its future unwrapped.
+     */
+    @Test
+    public void testSubmitCompletesFuture() throws Exception {
+        DatabaseExecutor executor = new DatabaseExecutor(2, 10);
+
+        Assert.assertEquals("done", executor.submit(() -> "done").get(5, TimeUnit.SECONDS));
+        try {
+            executor.submit(() -> {
+                throw new IllegalStateException("failed");
+            }).get(5, TimeUnit.SECONDS);
+            Assert.fail("expected the task to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Tests that work is refused, not queued without limit, once every thread is busy and the queue is full.
+     */
+    @Test
+    public void testSubmitRejectsWhenQueueIsFull() throws Exception {
+        DatabaseExecutor executor = new DatabaseExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> running = executor.submit(() -> release.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = executor.submit(() -> "queued");
+
+        CompletableFuture<String> rejected = executor.submit(() -> "rejected");
+
+        Assert.assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.get();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        release.countDown();
+        Assert.assertTrue(running.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
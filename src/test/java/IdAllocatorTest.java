@@ -0,0 +1,65 @@
+import Util.IdAllocator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdAllocatorTest {
+
+    /**
+     * Tests that ids come from consecutive blocks and the sequence is only read once per block.
+     */
+    @Test
+    public void testIdsAreHandedOutInBlocks() {
+        AtomicInteger sequence = new AtomicInteger();
+        IdAllocator allocator = new IdAllocator(sequence::incrementAndGet);
+
+        int first = allocator.nextId();
+        for (int i = 1; i < IdAllocator.BLOCK_SIZE; i++) {
+            Assert.assertEquals(first + i, allocator.nextId());
+        }
+        Assert.assertEquals(1, sequence.get());
+
+        Assert.assertEquals(2 * IdAllocator.BLOCK_SIZE, allocator.nextId());
+        Assert.assertEquals(2, sequence.get());
+    }
+
+    /**
+     * Tests that ids handed out to many threads at once are never repeated.
+     */
+    @Test
+    public void testIdsAreUniqueAcrossThreads() throws InterruptedException {
+        AtomicInteger sequence = new AtomicInteger();
+        IdAllocator allocator = new IdAllocator(sequence::incrementAndGet);
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        int threads = 8;
+        int idsPerThread = 5_000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < idsPerThread; i++) {
+                    ids.add(allocator.nextId());
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(threads * idsPerThread, ids.size());
+    }
+
+    /**
+     * Tests that a sequence that fails to return a block is reported rather than producing bad ids.
+     */
+    @Test
+    public void testFailedReservationThrows() {
+        IdAllocator allocator = new IdAllocator(() -> 0);
+        Assert.assertThrows(IllegalStateException.class, allocator::nextId);
+    }
+}
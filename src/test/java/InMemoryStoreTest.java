@@ -0,0 +1,172 @@
+import DAO.InMemoryBookDAO;
+import DAO.InMemoryStore;
+import DAO.InMemoryUserDAO;
+import Metrics.DaoMetrics;
+import Model.Book;
+import Model.User;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class InMemoryStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+    InMemoryStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath();
+        store = InMemoryStore.open(directory, 100, false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = InMemoryStore.open(directory, 100, false);
+    }
+
+    /**
+     * Tests that users, books, checkouts, deletions and the id sequences all come back after a restart.
+     */
+    @Test
+    public void testRecoversFromLog() throws IOException {
+        InMemoryUserDAO userDAO = new InMemoryUserDAO(store);
+        InMemoryBookDAO bookDAO = new InMemoryBookDAO(store);
+        userDAO.createUser(new User(1, "kept"));
+        userDAO.createUser(new User(2, "deleted"));
+        bookDAO.insertBook(new Book(10, "author", "title"));
+        bookDAO.insertBook(new Book(11, "author", "other title"));
+        bookDAO.updateSignedOutByIfAvailable(10, 1);
+        userDAO.deleteUser(new User(2, "deleted"));
+        Assert.assertEquals(1, bookDAO.nextBookIdBlock());
+        Assert.assertEquals(2, bookDAO.nextBookIdBlock());
+
+        reopen();
+        userDAO = new InMemoryUserDAO(store);
+        bookDAO = new InMemoryBookDAO(store);
+
+        Assert.assertEquals(List.of(new User(1, "kept")), userDAO.getAllUsers());
+        Assert.assertFalse(userDAO.userExists("deleted"));
+        Assert.assertEquals(new Book(10, "author", "title", 1), bookDAO.queryBooksById(10));
+        Assert.assertEquals(1, bookDAO.queryBooksByTitle("other title").size());
+        Assert.assertEquals(3, bookDAO.nextBookIdBlock());
+        Assert.assertEquals(1, userDAO.nextUserIdBlock());
+    }
+
+    /**
+     * Tests that a snapshot empties the log and that changes made after it are replayed on top of it.
+     */
+    @Test
+    public void testRecoversFromSnapshotAndLog() throws IOException {
+        InMemoryBookDAO bookDAO = new InMemoryBookDAO(store);
+        for (int bookId = 1; bookId <= 150; bookId++) {
+            bookDAO.insertBook(new Book(bookId, "author", "title"));
+        }
+        // the 100th insert took a snapshot
+        Assert.assertEquals(50, store.getLoggedRecords());
+
+        reopen();
+
+        Assert.assertEquals(150, new InMemoryBookDAO(store).queryAllBooks().size());
+        Assert.assertEquals(50, store.getLoggedRecords());
+    }
+
+    /**
+     * Tests that a record cut short by a crash is dropped, while every record before it is recovered
+     * and writes carry on after it.
+     */
+    @Test
+    public void testDropsTornRecord() throws IOException {
+        InMemoryBookDAO bookDAO = new InMemoryBookDAO(store);
+        bookDAO.insertBook(new Book(1, "author", "first"));
+        bookDAO.insertBook(new Book(2, "author", "second"));
+        store.close();
+        Path log = directory.resolve("library.wal");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        store = InMemoryStore.open(directory, 100, false);
+        bookDAO = new InMemoryBookDAO(store);
+        Assert.assertNotNull(bookDAO.queryBooksById(1));
+        Assert.assertNull(bookDAO.queryBooksById(2));
+        Assert.assertNotNull(bookDAO.insertBook(new Book(3, "author", "third")));
+
+        reopen();
+        Assert.assertEquals(2, new InMemoryBookDAO(store).queryAllBooks().size());
+    }
+
+    /**
+     * Tests that of many users racing for the same book only one signs it out.
+     */
+    @Test
+    public void testRacingCheckoutsSignOutOnce() throws InterruptedException, ExecutionException {
+        InMemoryUserDAO userDAO = new InMemoryUserDAO(store);
+        InMemoryBookDAO bookDAO = new InMemoryBookDAO(store);
+        bookDAO.insertBook(new Book(1, "author", "title"));
+        for (int userId = 1; userId <= 8; userId++) {
+            userDAO.createUser(new User(userId, "racer" + userId));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Book>> checkouts = new ArrayList<>();
+        for (int userId = 1; userId <= 8; userId++) {
+            int racer = userId;
+            checkouts.add(executor.submit(() -> {
+                start.await();
+                return bookDAO.updateSignedOutByIfAvailable(1, racer);
+            }));
+        }
+        start.countDown();
+        int signedOut = 0;
+        for (Future<Book> checkout : checkouts) {
+            if (checkout.get() != null) {
+                signedOut++;
+            }
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(1, signedOut);
+        Assert.assertEquals(1, bookDAO.countLoansByUser().size());
+    }
+
+    /**
+     * Tests that calls to the in-memory DAOs are timed, so admission control, which reads the DAO timings,
+     * adapts with this engine too.
+     */
+    @Test
+    public void testDaoCallsAreTimed() {
+        InMemoryUserDAO userDAO = new InMemoryUserDAO(store);
+        InMemoryBookDAO bookDAO = new InMemoryBookDAO(store);
+        long calls = DaoMetrics.totalCalls();
+
+        userDAO.createUser(new User(1, "timed"));
+        bookDAO.insertBook(new Book(1, "author", "title"));
+        bookDAO.queryAllBooks();
+        bookDAO.queryBooksById(1);
+
+        Assert.assertTrue(DaoMetrics.totalCalls() - calls >= 4);
+    }
+}
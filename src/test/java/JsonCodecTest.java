@@ -0,0 +1,70 @@
+import Controller.JsonCodec;
+import Model.Book;
+import Model.BookBatchResult;
+import Model.BookField;
+import Model.Page;
+import Model.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonCodecTest {
+    JsonCodec codec = new JsonCodec();
+    ObjectMapper om = new ObjectMapper();
+
+    /**
+     * Tests that the hand-written writers produce exactly the bytes ObjectMapper does,
+     * including null fields and characters that must be escaped.
+     */
+    @Test
+    public void testWritersMatchObjectMapper() throws IOException {
+        List<Book> books = new ArrayList<>();
+        books.add(new Book(1, "stephen king", "joyland", 7));
+        books.add(new Book(2, "\u00e9mile \"the\" author", "tab\there\nnewline"));
+        books.add(new Book(3, null, null));
+        List<User> users = List.of(new User(7, "reader"), new User(8, null));
+        List<BookBatchResult> results = List.of(new BookBatchResult(0, BookBatchResult.CREATED, books.get(0)),
+                new BookBatchResult(1, BookBatchResult.INVALID, null));
+
+        Assert.assertEquals(om.writeValueAsString(books.get(1)), write(books.get(1), codec::writeBook));
+        Assert.assertEquals(om.writeValueAsString(books), write(books, codec::writeBooks));
+        Assert.assertEquals(om.writeValueAsString(new Page<>(books, "3")), write(new Page<>(books, "3"), codec::writeBookPage));
+        Assert.assertEquals(om.writeValueAsString(new Page<>(books, null)), write(new Page<>(books, null), codec::writeBookPage));
+        Assert.assertEquals(om.writeValueAsString(results), write(results, codec::writeBatchResults));
+        Assert.assertEquals(om.writeValueAsString(users.get(0)), write(users.get(0), codec::writeUser));
+        Assert.assertEquals(om.writeValueAsString(users), write(users, codec::writeUsers));
+        Assert.assertEquals(om.writeValueAsString(new Page<>(users, null)), write(new Page<>(users, null), codec::writeUserPage));
+    }
+
+    /**
+     * Tests that a projected writer leaves out the fields not asked for.
+     */
+    @Test
+    public void testProjectedBookWriter() throws IOException {
+        List<Book> books = List.of(new Book(1, "stephen king", "joyland", 7));
+
+        Assert.assertEquals("[{\"bookId\":1,\"title\":\"joyland\"}]",
+                write(books, (generator, value) -> codec.writeBooks(generator, value, BookField.parse("title,bookId"))));
+    }
+
+    /**
+     * Tests binding request bodies with the shared readers.
+     */
+    @Test
+    public void testReaders() throws IOException {
+        Assert.assertEquals(new Book(0, "stephen king", "joyland"), codec.readBook("{\"author\":\"stephen king\",\"title\":\"joyland\"}"));
+        Assert.assertEquals(new User(5, "reader"), codec.readUser("{\"userId\":5,\"username\":\"reader\"}"));
+        Assert.assertEquals(new Book(4, "a", "t"), codec.readBook(codec.readTree("[{\"bookId\":4,\"author\":\"a\",\"title\":\"t\"}]").get(0)));
+    }
+
+    private <T> String write(T value, JsonCodec.Writer<T> writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(out, value, writer);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,94 @@
+import Metrics.Histogram;
+import Metrics.MetricsRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MetricsRegistryTest {
+
+    /**
+     * Quantiles should come back within the histogram's bucket precision of the true values.
+     */
+    @Test
+    public void testHistogramQuantiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i, TimeUnit.MICROSECONDS);
+        }
+
+        long[] quantiles = histogram.getQuantiles(0.5, 0.95, 0.99);
+
+        Assert.assertEquals(500_000, quantiles[0], 500_000 * 0.07);
+        Assert.assertEquals(950_000, quantiles[1], 950_000 * 0.07);
+        Assert.assertEquals(990_000, quantiles[2], 990_000 * 0.07);
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1_000_000, histogram.getMax());
+    }
+
+    /**
+     * An empty histogram should report zero for every quantile.
+     */
+    @Test
+    public void testEmptyHistogram() {
+        Assert.assertArrayEquals(new long[]{0, 0}, new Histogram().getQuantiles(0.5, 0.99));
+    }
+
+    /**
+     * Counters should not lose increments made from many threads at once.
+     */
+    @Test
+    public void testCounterFromManyThreads() throws InterruptedException {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    metrics.counter("test_total", "test counter", "route", "books").increment();
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        LongAdder counter = metrics.counter("test_total", "test counter", "route", "books");
+        Assert.assertEquals(80_000, counter.sum());
+    }
+
+    /**
+     * The scrape should follow the Prometheus text format, with summaries reported in seconds.
+     */
+    @Test
+    public void testScrapeFormat() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("test_requests_total", "Requests.", "status", "200").add(3);
+        metrics.histogram("test_duration_seconds", "Durations.", "route", "books/{id}").record(2, TimeUnit.SECONDS);
+        metrics.gauge("test_size", "Size.", () -> 7);
+
+        String scrape = metrics.scrape();
+
+        Assert.assertTrue(scrape.contains("# TYPE test_requests_total counter\ntest_requests_total{status=\"200\"} 3\n"));
+        Assert.assertTrue(scrape.contains("# TYPE test_duration_seconds summary\n"));
+        Assert.assertTrue(scrape.contains("test_duration_seconds_count{route=\"books/{id}\"} 1\n"));
+        Assert.assertTrue(scrape.contains("test_duration_seconds_sum{route=\"books/{id}\"} 2\n"));
+        Assert.assertTrue(scrape.contains("test_duration_seconds{route=\"books/{id}\",quantile=\"0.99\"} 2\n"));
+        Assert.assertTrue(scrape.contains("# TYPE test_size gauge\ntest_size 7\n"));
+    }
+
+    /**
+     * Distributions of plain numbers should be reported as recorded, not converted to seconds.
+     */
+    @Test
+    public void testDistributionIsNotScaled() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.distribution("test_joined_calls", "Joined calls.").record(12);
+
+        String scrape = metrics.scrape();
+
+        Assert.assertTrue(scrape.contains("test_joined_calls{quantile=\"0.99\"} 12\n"));
+        Assert.assertTrue(scrape.contains("test_joined_calls_sum 12\n"));
+    }
+}
@@ -0,0 +1,137 @@
+import Cache.CatalogVersions;
+import Cache.NoOpBookCache;
+import DAO.BookDAO;
+import DAO.JdbcBookDAO;
+import DAO.ReplicaRefresher;
+import DAO.UserDAO;
+import DAO.JdbcUserDAO;
+import Model.Book;
+import Model.User;
+import Util.ConnectionSingleton;
+import Util.DatabaseExecutor;
+import Util.ReadRouting;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ExecutionException;
+
+public class ReplicaRefresherTest {
+    DataSource dataSource;
+    DataSource replicaDataSource;
+    BookDAO bookDAO;
+    UserDAO userDAO;
+    CatalogVersions catalogVersions;
+    ReplicaRefresher replica;
+
+    @Before
+    public void setUp(){
+        dataSource = ConnectionSingleton.getDataSource();
+        ConnectionSingleton.resetTestDatabase();
+        replicaDataSource = ConnectionSingleton.getReplicaPool().getDataSource();
+        catalogVersions = new CatalogVersions();
+        replica = new ReplicaRefresher(dataSource, replicaDataSource, catalogVersions::getCatalogVersion);
+        replica.refresh();
+        catalogVersions.setReplicaVersion(replica::getRefreshedVersion);
+        bookDAO = new JdbcBookDAO(dataSource, replicaDataSource, new NoOpBookCache());
+        userDAO = new JdbcUserDAO(dataSource, replicaDataSource);
+        bookDAO.addWriteListener(catalogVersions);
+        bookDAO.addWriteListener(replica);
+        userDAO.addWriteListener(replica);
+    }
+
+    @After
+    public void tearDown(){
+        ReadRouting.setPrimary(false);
+    }
+
+    /**
+     * Tests that listings come from the replica, which only sees writes once refreshed,
+     * while lookups by id and reads routed to the primary see them at once.
+     */
+    @Test
+    public void testListingsReadFromReplicaUntilRefreshed() {
+        userDAO.createUser(new User(81, "replicated"));
+        Book book = bookDAO.insertBook(new Book(801, "replica author", "replica title"));
+        bookDAO.updateSignedOutBy(book, 81);
+        Assert.assertTrue(replica.isStale());
+
+        Assert.assertTrue(bookDAO.queryAllBooks().isEmpty());
+        Assert.assertTrue(userDAO.getAllUsers().isEmpty());
+        Assert.assertEquals(book, bookDAO.queryBooksById(801));
+        Assert.assertEquals(1, ReadRouting.onPrimary(() -> bookDAO.queryAllBooks()).size());
+
+        Assert.assertTrue(replica.refreshIfStale());
+
+        Assert.assertFalse(replica.isStale());
+        Assert.assertFalse(replica.refreshIfStale());
+        Assert.assertEquals(81, bookDAO.queryBooksByAuthor("replica author").get(0).getSignedOutBy());
+        Assert.assertEquals(1, userDAO.getAllUsers().size());
+    }
+
+    /**
+     * Tests that listing ETags follow the replica's version, so a stale listing is never tagged as current,
+     * unless the thread's reads go to the primary.
+     */
+    @Test
+    public void testListingETagFollowsReplica() {
+        String before = catalogVersions.catalogETag();
+        bookDAO.insertBook(new Book(802, "replica author", "replica title"));
+
+        Assert.assertEquals(before, catalogVersions.catalogETag());
+        Assert.assertEquals(catalogVersions.catalogETag(1), ReadRouting.onPrimary(catalogVersions::catalogETag));
+
+        replica.refresh();
+
+        Assert.assertEquals(catalogVersions.catalogETag(1), catalogVersions.catalogETag());
+    }
+
+    /**
+     * Tests that asynchronous calls read from wherever the submitting thread's reads go.
+     */
+    @Test
+    public void testDatabaseExecutorCarriesReadRouting() throws ExecutionException, InterruptedException {
+        bookDAO.insertBook(new Book(803, "replica author", "replica title"));
+        DatabaseExecutor database = DatabaseExecutor.getInstance();
+
+        Assert.assertEquals(0, database.submit(() -> bookDAO.queryAllBooks().size()).get().intValue());
+        ReadRouting.setPrimary(true);
+        Assert.assertEquals(1, database.submit(() -> bookDAO.queryAllBooks().size()).get().intValue());
+    }
+
+    /**
+     * Tests that a refresh after the first copies only the rows written through the DAOs, including deletes,
+     * leaving a row the primary gained behind their back uncopied, while a refresh with more changes than
+     * maxChangedRows copies the whole tables.
+     */
+    @Test
+    public void testRefreshCopiesChangedRowsOnly() throws SQLException {
+        userDAO.createUser(new User(82, "leaving"));
+        replica.refresh();
+        try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+            statement.executeUpdate("insert into books (bookId, author, title) values (804, 'unseen author', 'unseen')");
+        }
+        bookDAO.insertBook(new Book(805, "replica author", "replica title"));
+        userDAO.deleteUser(new User(82, "leaving"));
+
+        replica.refresh();
+
+        Assert.assertEquals(1, bookDAO.queryAllBooks().size());
+        Assert.assertEquals(805, bookDAO.queryAllBooks().get(0).getBookId());
+        Assert.assertTrue(userDAO.getAllUsers().isEmpty());
+
+        ReplicaRefresher wholeTables = new ReplicaRefresher(dataSource, replicaDataSource,
+                catalogVersions::getCatalogVersion, 0);
+        wholeTables.refresh();
+        bookDAO.addWriteListener(wholeTables);
+        bookDAO.insertBook(new Book(806, "replica author", "replica title"));
+        wholeTables.refresh();
+
+        Assert.assertEquals(3, bookDAO.queryAllBooks().size());
+    }
+}
@@ -0,0 +1,124 @@
+import DAO.JdbcBookDAO;
+import DAO.JdbcUserDAO;
+import Model.BookField;
+import Util.ConnectionSingleton;
+import Util.SchemaMigrator;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumSet;
+import java.util.List;
+
+public class SchemaMigrationTest {
+    DataSource dataSource;
+
+    @Before
+    public void setUp(){
+        dataSource = ConnectionSingleton.getDataSource();
+        ConnectionSingleton.resetTestDatabase();
+    }
+
+    /**
+     * Tests that a migrated database is at the latest version and that migrating again applies nothing.
+     */
+    @Test
+    public void testMigrateOnlyAppliesPendingScripts() throws SQLException {
+        Assert.assertEquals(SchemaMigrator.LIBRARY.latestVersion(), SchemaMigrator.LIBRARY.currentVersion(dataSource));
+        Assert.assertEquals(0, SchemaMigrator.LIBRARY.migrate(dataSource));
+    }
+
+    /**
+     * Tests that upgrading, as a production boot does, creates the schema of an empty database and then leaves
+     * the data of an up to date one alone.
+     */
+    @Test
+    public void testUpgradeKeepsData() throws SQLException {
+        DataSource kept = freshDatabase("upgrade-keeps-data");
+        Assert.assertEquals(SchemaMigrator.LIBRARY.latestVersion(), SchemaMigrator.LIBRARY.upgrade(kept));
+        execute(kept, "insert into users (userId, username) values (1, 'kept')");
+
+        Assert.assertEquals(0, SchemaMigrator.LIBRARY.upgrade(kept));
+        Assert.assertTrue(new JdbcUserDAO(kept).userExists("kept"));
+    }
+
+    /**
+     * Tests that upgrading refuses a database written by a newer build rather than serving from it.
+     */
+    @Test(expected = SQLException.class)
+    public void testUpgradeRefusesNewerSchema() throws SQLException {
+        DataSource newer = freshDatabase("upgrade-refuses-newer");
+        SchemaMigrator.LIBRARY.upgrade(newer);
+        execute(newer, "insert into schema_version (version, script) values ("
+                + (SchemaMigrator.LIBRARY.latestVersion() + 1) + ", 'V999__from_the_future.sql')");
+
+        SchemaMigrator.LIBRARY.upgrade(newer);
+    }
+
+    private static DataSource freshDatabase(String name) {
+        JdbcDataSource fresh = new JdbcDataSource();
+        fresh.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        fresh.setUser("sa");
+        fresh.setPassword("sa");
+        return fresh;
+    }
+
+    private static void execute(DataSource target, String sql) throws SQLException {
+        try (Connection conn = target.getConnection();
+             Statement st = conn.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    /**
+     * Tests that every filtered DAO query is answered from an index rather than a full table scan.
+     */
+    @Test
+    public void testDaoQueriesUseIndexes() throws SQLException {
+        List<String> queries = List.of(
+                JdbcBookDAO.SELECT_BY_ID,
+                JdbcBookDAO.SELECT_BY_TITLE,
+                JdbcBookDAO.SELECT_BY_AUTHOR,
+                JdbcBookDAO.SELECT_BY_TITLE_AND_AUTHOR,
+                JdbcBookDAO.SELECT_BY_SIGNED_OUT_BY,
+                JdbcBookDAO.EXISTS_SIGNED_OUT_BY,
+                JdbcBookDAO.COUNT_SIGNED_OUT_BY,
+                JdbcBookDAO.COUNT_LOANS_BY_USER,
+                JdbcBookDAO.SELECT_PAGE,
+                JdbcBookDAO.SELECT_PAGE_BY_TITLE,
+                JdbcBookDAO.SELECT_PAGE_BY_AUTHOR,
+                JdbcBookDAO.SELECT_PAGE_BY_TITLE_AND_AUTHOR,
+                JdbcBookDAO.selectBooks(EnumSet.of(BookField.BOOK_ID, BookField.TITLE), false, true, true),
+                JdbcBookDAO.UPDATE_SIGNED_OUT_BY,
+                JdbcBookDAO.UPDATE_RETURN_BOOK,
+                JdbcBookDAO.UPDATE_SIGNED_OUT_BY_IF_AVAILABLE,
+                JdbcBookDAO.UPDATE_RETURN_BOOK_IF_SIGNED_OUT_BY,
+                JdbcUserDAO.SELECT_BY_ID,
+                JdbcUserDAO.SELECT_BY_USERNAME,
+                JdbcUserDAO.SELECT_PAGE,
+                JdbcUserDAO.SELECT_ID_BY_ID,
+                JdbcUserDAO.DELETE_USER
+        );
+
+        for (String query : queries) {
+            String plan = explain(query);
+            Assert.assertFalse("Table scan in plan for: " + query + "\n" + plan, plan.contains("tableScan"));
+        }
+    }
+
+    private String explain(String query) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement("explain " + query);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
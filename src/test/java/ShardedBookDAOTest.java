@@ -0,0 +1,178 @@
+import Cache.NoOpBookCache;
+import DAO.BookDAO;
+import DAO.JdbcBookDAO;
+import DAO.UserDAO;
+import DAO.JdbcUserDAO;
+import Exceptions.UserHasBooksSignedOut;
+import Model.Book;
+import Model.BookField;
+import Model.User;
+import Service.LoanCounter;
+import Service.UserService;
+import Util.ConnectionSingleton;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class ShardedBookDAOTest {
+    static final int SHARDS = 3;
+    List<DataSource> shards;
+    BookDAO bookDAO;
+    UserDAO userDAO;
+
+    @Before
+    public void setUp(){
+        ConnectionSingleton.resetTestDatabase();
+        shards = ConnectionSingleton.getShardDataSources(SHARDS);
+        bookDAO = new JdbcBookDAO(shards, new NoOpBookCache());
+        userDAO = new JdbcUserDAO(shards.get(0));
+    }
+
+    /**
+     * Tests that a block of consecutive ids is spread over every shard, and that each book is stored in its shard only.
+     */
+    @Test
+    public void testBooksArePlacedByIdHash() {
+        int[] perShard = new int[SHARDS];
+        for (int bookId = 1; bookId <= 300; bookId++) {
+            perShard[JdbcBookDAO.shardOf(bookId, SHARDS)]++;
+        }
+        for (int count : perShard) {
+            Assert.assertTrue(count > 50);
+        }
+
+        for (int bookId = 1; bookId <= 30; bookId++) {
+            bookDAO.insertBook(new Book(bookId, "author", "title " + bookId));
+        }
+        for (int shard = 0; shard < SHARDS; shard++) {
+            List<Book> stored = new JdbcBookDAO(shards.get(shard)).queryAllBooks();
+            for (Book book : stored) {
+                Assert.assertEquals(shard, JdbcBookDAO.shardOf(book.getBookId(), SHARDS));
+            }
+        }
+        Assert.assertEquals(30, bookDAO.queryAllBooks().size());
+        Assert.assertEquals("title 17", bookDAO.queryBooksById(17).getTitle());
+    }
+
+    /**
+     * Tests that a batch insert across shards reports each book at its position in the batch.
+     */
+    @Test
+    public void testInsertBooksAcrossShards() {
+        List<Book> books = new ArrayList<>();
+        for (int bookId = 1; bookId <= 20; bookId++) {
+            books.add(new Book(bookId, "batch author", "batch title " + bookId));
+        }
+        books.add(new Book(5, "batch author", "duplicate"));
+
+        List<Book> inserted = bookDAO.insertBooks(books, 4);
+
+        Assert.assertEquals(21, inserted.size());
+        for (int index = 0; index < 20; index++) {
+            Assert.assertEquals(index + 1, inserted.get(index).getBookId());
+        }
+        Assert.assertNull(inserted.get(20));
+        Assert.assertEquals(20, bookDAO.queryBooksByAuthor("batch author").size());
+    }
+
+    /**
+     * Tests that searches and pages merge every shard's books, pages staying in id order.
+     */
+    @Test
+    public void testFanOutQueriesMergeShards() throws IOException {
+        for (int bookId = 1; bookId <= 40; bookId++) {
+            bookDAO.insertBook(new Book(bookId, bookId % 2 == 0 ? "even" : "odd", "title " + bookId % 4));
+        }
+
+        Assert.assertEquals(20, bookDAO.queryBooksByAuthor("even").size());
+        Assert.assertEquals(10, bookDAO.queryBooksByTitle("title 1").size());
+        Assert.assertEquals(10, bookDAO.queryBooksByTitleAndAuthor("title 2", "even").size());
+        Assert.assertEquals(20, bookDAO.queryBooks(null, "odd", EnumSet.of(BookField.TITLE)).size());
+
+        List<Book> page = bookDAO.queryBooksPage(null, null, 12, 5);
+        Assert.assertEquals(List.of(13, 14, 15, 16, 17), page.stream().map(Book::getBookId).collect(Collectors.toList()));
+        List<Book> evenPage = bookDAO.queryBooksPage(null, "even", 30, 10);
+        Assert.assertEquals(List.of(32, 34, 36, 38, 40), evenPage.stream().map(Book::getBookId).collect(Collectors.toList()));
+
+        List<Book> streamed = new ArrayList<>();
+        bookDAO.streamBooks("title 3", null, streamed::add);
+        Assert.assertEquals(10, streamed.size());
+    }
+
+    /**
+     * Tests that checkouts go to the book's shard and that loan checks add up every shard.
+     */
+    @Test
+    public void testLoansAcrossShards() {
+        userDAO.createUser(new User(1, "borrower"));
+        userDAO.createUser(new User(2, "other borrower"));
+        for (int bookId = 1; bookId <= 12; bookId++) {
+            bookDAO.insertBook(new Book(bookId, "author", "title"));
+        }
+        for (int bookId = 1; bookId <= 9; bookId++) {
+            Assert.assertNotNull(bookDAO.updateSignedOutByIfAvailable(bookId, bookId <= 6 ? 1 : 2));
+        }
+        Assert.assertNull(bookDAO.updateSignedOutByIfAvailable(3, 2));
+
+        Assert.assertTrue(bookDAO.hasBooksSignedOutByUser(1));
+        Assert.assertEquals(6, bookDAO.countBooksSignedOutByUser(1));
+        Assert.assertEquals(6, bookDAO.queryBooksSignedOutByUser(1).size());
+        Assert.assertEquals(Map.of(1, 6, 2, 3), bookDAO.countLoansByUser());
+
+        Assert.assertNotNull(bookDAO.updateReturnBookIfSignedOutBy(3, 1));
+        Assert.assertEquals(0, bookDAO.queryBooksById(3).getSignedOutBy());
+        Assert.assertEquals(5, bookDAO.countBooksSignedOutByUser(1));
+        Assert.assertFalse(bookDAO.hasBooksSignedOutByUser(3));
+    }
+
+    /**
+     * @return the first id, from 1, of a book that lives outside the library database
+     */
+    private static int bookIdOutsideLibraryDatabase() {
+        int bookId = 1;
+        while (JdbcBookDAO.shardOf(bookId, SHARDS) == 0) {
+            bookId++;
+        }
+        return bookId;
+    }
+
+    /**
+     * Tests that a book in a shard without the users table cannot be signed out to a user who does not exist.
+     */
+    @Test
+    public void testCheckoutOutsideLibraryDatabaseNeedsExistingUser() {
+        int bookId = bookIdOutsideLibraryDatabase();
+        Book book = bookDAO.insertBook(new Book(bookId, "author", "title"));
+
+        Assert.assertNull(bookDAO.updateSignedOutByIfAvailable(bookId, 404));
+        Assert.assertNull(bookDAO.updateSignedOutBy(book, 404));
+        Assert.assertEquals(0, bookDAO.queryBooksById(bookId).getSignedOutBy());
+
+        userDAO.createUser(new User(1, "borrower"));
+        Assert.assertNotNull(bookDAO.updateSignedOutByIfAvailable(bookId, 1));
+    }
+
+    /**
+     * Tests that a user holding a book outside the library database cannot be deleted, even when the loan counter
+     * has missed the checkout.
+     */
+    @Test
+    public void testDeleteUserChecksEveryShard() {
+        int bookId = bookIdOutsideLibraryDatabase();
+        userDAO.createUser(new User(1, "borrower"));
+        bookDAO.insertBook(new Book(bookId, "author", "title"));
+        bookDAO.updateSignedOutByIfAvailable(bookId, 1);
+        UserService userService = new UserService(userDAO, bookDAO, new LoanCounter());
+
+        Assert.assertThrows(UserHasBooksSignedOut.class, () -> userService.deleteUser(1, 1));
+        Assert.assertNotNull(userDAO.getUserById(1));
+    }
+}
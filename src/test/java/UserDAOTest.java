@@ -1,35 +1,73 @@
+import DAO.InMemoryBookDAO;
+import DAO.InMemoryStore;
+import DAO.InMemoryUserDAO;
 import DAO.UserDAO;
+import DAO.JdbcUserDAO;
 import DAO.BookDAO;
+import DAO.JdbcBookDAO;
 import Exceptions.UserHasBooksSignedOut;
 import Model.User;
 import Model.Book;
 import Util.ConnectionSingleton;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import Service.UserService;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Runs every scenario against both storage engines.
+ */
+@RunWith(Parameterized.class)
 public class UserDAOTest {
+    @Parameterized.Parameters(name = "{0}")
+    public static List<String> engines() {
+        return List.of("jdbc", "memory");
+    }
+
+    @Parameterized.Parameter
+    public String engine;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
-    Connection conn;
+    DataSource dataSource;
+    InMemoryStore store;
     UserDAO userDAO;
     BookDAO bookDAO;
 
     UserService userService;
 
     @Before
-    public void setUp(){
-        conn = ConnectionSingleton.getConnection();
+    public void setUp() throws IOException {
+        dataSource = ConnectionSingleton.getDataSource();
         ConnectionSingleton.resetTestDatabase();
-        bookDAO = new BookDAO(conn);
-        userDAO = new UserDAO(conn);
+        if (engine.equals("memory")) {
+            store = InMemoryStore.open(folder.getRoot().toPath(), 1000, false);
+            bookDAO = new InMemoryBookDAO(store);
+            userDAO = new InMemoryUserDAO(store);
+        } else {
+            bookDAO = new JdbcBookDAO(dataSource);
+            userDAO = new JdbcUserDAO(dataSource);
+        }
         userService = new UserService(userDAO, bookDAO);
     }
 
+    @After
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
     /**
      * Tests that a new user can be added to the database.
      */
@@ -144,4 +182,18 @@ public class UserDAOTest {
             userService.deleteUser(user.getUserId(), user.getUserId());
         });
     }
+
+    /**
+     * Tests that a page of users starts after the cursor, is ordered by id and respects the limit.
+     */
+    @Test
+    public void testGetUsersPage() {
+        for (int i = 1; i < 6; i++) {
+            userDAO.createUser(new User(i, "pageduser" + i));
+        }
+
+        List<User> page = userDAO.getUsersPage(2, 2);
+
+        Assert.assertEquals(List.of(new User(3, "pageduser3"), new User(4, "pageduser4")), page);
+    }
 }
@@ -1,9 +1,13 @@
 import DAO.BookDAO;
+import DAO.JdbcBookDAO;
 import DAO.UserDAO;
+import DAO.JdbcUserDAO;
 import Exceptions.UserHasBooksSignedOut;
 import Model.Book;
 import Model.User;
+import Service.BookSearchIndex;
 import Service.BookService;
+import Service.LoanCounter;
 import Service.UserService;
 import Util.ConnectionSingleton;
 import org.junit.Assert;
@@ -11,12 +15,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 
-import java.sql.Connection;
+import javax.sql.DataSource;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class UserServiceTest {
-    Connection conn;
+    DataSource dataSource;
     UserDAO mockUserDAO;
     BookDAO mockBookDAO;
     UserService mockUserService;
@@ -33,10 +39,10 @@ public class UserServiceTest {
         mockUserService = new UserService(mockUserDAO, mockBookDAO);
         mockBookService = new BookService(mockBookDAO);
 
-        conn = ConnectionSingleton.getConnection();
+        dataSource = ConnectionSingleton.getDataSource();
         ConnectionSingleton.resetTestDatabase();
-        realUserDAO = new UserDAO(conn);
-        realBookDAO = new BookDAO(conn);
+        realUserDAO = new JdbcUserDAO(dataSource);
+        realBookDAO = new JdbcBookDAO(dataSource);
         realUserService = new UserService(realUserDAO, realBookDAO);
         realBookService = new BookService(realBookDAO);
     }
@@ -121,17 +127,13 @@ public class UserServiceTest {
     @Test
     public void testUserHasBooksSignedOutMocked() {
         User user = new User(432, "idohavebooks");
-        List<Book> booksSignedOut = new ArrayList<>();
-        for (int i = 1; i < 6; i++) {
-            Book book = new Book(i, "author" + i, "title" + i, 432);
-            booksSignedOut.add(book);
-        }
 
-        Mockito.when(mockBookDAO.queryBooksSignedOutByUser(user.getUserId())).thenReturn(booksSignedOut);
+        Mockito.when(mockBookDAO.hasBooksSignedOutByUser(user.getUserId())).thenReturn(true);
         boolean hasBooks = mockUserService.hasBooksSignedOut(432);
 
         Assert.assertTrue(hasBooks);
-        Mockito.verify(mockBookDAO).queryBooksSignedOutByUser(432);
+        Mockito.verify(mockBookDAO).hasBooksSignedOutByUser(432);
+        Mockito.verify(mockBookDAO, Mockito.never()).queryBooksSignedOutByUser(Mockito.anyInt());
     }
 
     /**
@@ -141,13 +143,69 @@ public class UserServiceTest {
     @Test
     public void testUserDoesNotHaveBooksSignedOutMocked() {
         User user = new User(678, "ihavenobooks");
-        List<Book> booksSignedOut = new ArrayList<>();
 
-        Mockito.when(mockBookDAO.queryBooksSignedOutByUser(user.getUserId())).thenReturn(booksSignedOut);
+        Mockito.when(mockBookDAO.hasBooksSignedOutByUser(user.getUserId())).thenReturn(false);
         boolean hasBooks = mockUserService.hasBooksSignedOut(678);
 
         Assert.assertFalse(hasBooks);
-        Mockito.verify(mockBookDAO).queryBooksSignedOutByUser(678);
+        Mockito.verify(mockBookDAO).hasBooksSignedOutByUser(678);
+    }
+
+    /**
+     * Tests that, given a loan counter, the userService answers from it without querying the book DAO.
+     */
+    @Test
+    public void testUserHasBooksSignedOutFromLoanCounterMocked() {
+        LoanCounter loanCounter = new LoanCounter();
+        loanCounter.checkedOut(433);
+        loanCounter.checkedOut(433);
+        UserService countingUserService = new UserService(mockUserDAO, mockBookDAO, loanCounter);
+
+        Assert.assertTrue(countingUserService.hasBooksSignedOut(433));
+        Assert.assertEquals(2, countingUserService.countBooksSignedOut(433));
+        Assert.assertFalse(countingUserService.hasBooksSignedOut(434));
+        Mockito.verifyNoInteractions(mockBookDAO);
+    }
+
+    /**
+     * Tests that a return recorded before the checkout it undoes still cancels it, so the user is left with
+     * no loans and can be deleted.
+     */
+    @Test
+    public void testReturnRecordedBeforeCheckoutLeavesNoLoanMocked() {
+        LoanCounter loanCounter = new LoanCounter();
+        loanCounter.returned(436);
+        Assert.assertFalse(loanCounter.hasLoans(436));
+        Assert.assertEquals(0, loanCounter.count(436));
+        loanCounter.checkedOut(436);
+        UserService countingUserService = new UserService(mockUserDAO, mockBookDAO, loanCounter);
+
+        Assert.assertFalse(countingUserService.hasBooksSignedOut(436));
+        Assert.assertEquals(0, countingUserService.countBooksSignedOut(436));
+        loanCounter.checkedOut(436);
+        Assert.assertEquals(1, countingUserService.countBooksSignedOut(436));
+    }
+
+    /**
+     * Tests that checkouts and returns through a bookService keep the shared loan counter up to date,
+     * so the userService refuses and then allows deleting the user.
+     */
+    @Test
+    public void testLoanCounterTracksCheckoutsUnmocked() throws Exception {
+        LoanCounter loanCounter = new LoanCounter();
+        UserService countingUserService = new UserService(realUserDAO, realBookDAO, loanCounter);
+        BookService countingBookService = new BookService(realBookDAO, new BookSearchIndex(), loanCounter);
+        User user = new User(435, "countedborrower");
+        countingUserService.createUser(user);
+        Book book = countingBookService.addBook(new Book(0, "counted author", "counted title"));
+
+        countingBookService.updateBookSignedOutBy(book.getBookId(), 435);
+        Assert.assertEquals(1, loanCounter.count(435));
+        Assert.assertThrows(UserHasBooksSignedOut.class, () -> countingUserService.deleteUser(435, 435));
+
+        countingBookService.updateBookSignedOutBy(book.getBookId(), 435);
+        Assert.assertEquals(0, loanCounter.count(435));
+        Assert.assertEquals(user, countingUserService.deleteUser(435, 435));
     }
 
     /**
@@ -259,7 +317,51 @@ public class UserServiceTest {
         Mockito.verify(mockUserDAO).createUser(testUser);
         Mockito.verify(mockBookDAO).insertBook(testBook);
 
-        Mockito.doThrow(UserHasBooksSignedOut.class).when(mockBookDAO).queryBooksSignedOutByUser(testUser.getUserId());
+        Mockito.when(mockBookDAO.hasBooksSignedOutByUser(testUser.getUserId())).thenReturn(true);
         Assert.assertThrows(UserHasBooksSignedOut.class, () -> mockUserService.deleteUser(51, 51));
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that a user deletes their account through the asynchronous service method.
+     */
+    @Test
+    public void testDeleteUserAsyncSucceedsUnmocked() throws Exception {
+        User user = new User(544, "deleteMeAsyncTest");
+        realUserService.createUser(user);
+
+        User deleteAttempt = realUserService.deleteUserAsync(user.getUserId(), user.getUserId()).get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(user, deleteAttempt);
+        Assert.assertFalse(realUserService.checkUser(user.getUserId()));
+    }
+
+    /**
+     * Tests that the asynchronous delete looks the user up and checks their books, and fails with
+     * UserHasBooksSignedOut without deleting when they have books signed out.
+     */
+    @Test
+    public void testDeleteUserAsyncWithBooksSignedOutMocked() throws Exception {
+        User testUser = new User(52, "stillGotBooksAsync");
+        Mockito.when(mockUserDAO.getUserById(52)).thenReturn(testUser);
+        Mockito.when(mockBookDAO.hasBooksSignedOutByUser(52)).thenReturn(true);
+
+        try {
+            mockUserService.deleteUserAsync(52, 52).get(5, TimeUnit.SECONDS);
+            Assert.fail("expected the delete to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof UserHasBooksSignedOut);
+        }
+        Mockito.verify(mockUserDAO).getUserById(52);
+        Mockito.verify(mockBookDAO).hasBooksSignedOutByUser(52);
+        Mockito.verify(mockUserDAO, Mockito.never()).deleteUser(Mockito.any());
+    }
+
+    /**
+     * Tests that the asynchronous delete does nothing when the credentials do not match.
+     */
+    @Test
+    public void testDeleteUserAsyncFailsWhenCredentialsAreInvalidMocked() throws Exception {
+        Assert.assertNull(mockUserService.deleteUserAsync(97, 79).get(5, TimeUnit.SECONDS));
+        Mockito.verifyNoInteractions(mockUserDAO, mockBookDAO);
+    }
+}